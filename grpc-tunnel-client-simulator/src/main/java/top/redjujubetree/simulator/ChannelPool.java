@@ -0,0 +1,61 @@
+package top.redjujubetree.simulator;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of channels handed out round-robin, so thousands of virtual clients
+ * multiplex their tunnels over a few HTTP/2 connections.
+ */
+@Slf4j
+public class ChannelPool {
+
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    private ChannelPool() {
+    }
+
+    public static ChannelPool forTarget(String target, int size) {
+        ChannelPool pool = new ChannelPool();
+        for (int i = 0; i < size; i++) {
+            pool.channels.add(ManagedChannelBuilder.forTarget(target).usePlaintext().build());
+        }
+        log.info("Created {} channel(s) to {}", size, target);
+        return pool;
+    }
+
+    public static ChannelPool inProcess(String serverName, int size) {
+        ChannelPool pool = new ChannelPool();
+        for (int i = 0; i < size; i++) {
+            pool.channels.add(InProcessChannelBuilder.forName(serverName).build());
+        }
+        log.info("Created {} in-process channel(s) to {}", size, serverName);
+        return pool;
+    }
+
+    public ManagedChannel next() {
+        return channels.get(Math.floorMod(next.getAndIncrement(), channels.size()));
+    }
+
+    public void shutdown() {
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow();
+        }
+        for (ManagedChannel channel : channels) {
+            try {
+                channel.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package top.redjujubetree.simulator;
+
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessServerBuilder;
+import lombok.extern.slf4j.Slf4j;
+import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
+import top.redjujubetree.grpc.tunnel.proto.RequestPayload;
+import top.redjujubetree.grpc.tunnel.proto.ResponsePayload;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.server.GrpcTunnelServerService;
+import top.redjujubetree.grpc.tunnel.server.config.GrpcTunnelServerProperties;
+import top.redjujubetree.grpc.tunnel.server.connection.ConnectionManager;
+import top.redjujubetree.grpc.tunnel.server.filter.BasicClientRegistrationFilter;
+import top.redjujubetree.grpc.tunnel.server.filter.ClientRegisterFilter;
+import top.redjujubetree.grpc.tunnel.server.handler.AbstractClientRequestMessageHandler;
+import top.redjujubetree.grpc.tunnel.server.handler.DefaultConnectedHandler;
+import top.redjujubetree.grpc.tunnel.server.handler.DefaultDisconnectedHandler;
+import top.redjujubetree.grpc.tunnel.server.handler.HeartbeatHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tunnel server running inside the simulator JVM, wired by hand without Spring.
+ * Every non-control request type is answered with an echo of its payload.
+ */
+@Slf4j
+public class InProcessTunnelServer {
+
+    private final String name;
+    private final ConnectionManager connectionManager = new ConnectionManager();
+    private GrpcTunnelServerService service;
+    private Server server;
+
+    public InProcessTunnelServer(String name) {
+        this.name = name;
+    }
+
+    public void start() throws IOException {
+        GrpcTunnelServerProperties properties = new GrpcTunnelServerProperties();
+        properties.setMaxClients(Integer.MAX_VALUE);
+
+        List<ClientRegisterFilter> filters = new ArrayList<>();
+        filters.add(new BasicClientRegistrationFilter());
+
+        List<MessageHandler> handlers = new ArrayList<>();
+        handlers.add(new DefaultConnectedHandler());
+        handlers.add(new DefaultDisconnectedHandler());
+        handlers.add(new EchoHandler());
+
+        service = new GrpcTunnelServerService(properties, filters, connectionManager, handlers, new QuietHeartbeatHandler());
+        service.init();
+
+        server = InProcessServerBuilder.forName(name).addService(service).build().start();
+        log.info("In-process tunnel server started: {}", name);
+    }
+
+    public Map<String, Object> getStatistics() {
+        return connectionManager.getStatistics();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.shutdownNow();
+        }
+        if (service != null) {
+            service.destroy();
+        }
+    }
+
+    /**
+     * answers every non-control request with its own payload
+     */
+    private static class EchoHandler extends AbstractClientRequestMessageHandler {
+
+        @Override
+        protected boolean supportRequestType(String request) {
+            return !request.startsWith("_");
+        }
+
+        @Override
+        protected ResponsePayload handleRequest(RequestPayload request) {
+            return ResponsePayload.newBuilder()
+                    .setType(request.getType())
+                    .setCode(200)
+                    .setData(request.getData())
+                    .build();
+        }
+    }
+
+    /**
+     * the default handler logs every heartbeat, which is far too noisy for thousands of clients
+     */
+    private static class QuietHeartbeatHandler implements HeartbeatHandler {
+
+        @Override
+        public void handleHeartbeat(TunnelMessage message) {
+        }
+
+        @Override
+        public void handleTimeout(String clientId) {
+            log.warn("Heartbeat timeout for client: {}", clientId);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package top.redjujubetree.simulator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear latency histogram in microseconds.
+ * Values below 128us are exact, larger values are kept within about 1.5% relative error.
+ */
+public class LatencyRecorder {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1);
+
+    private volatile Interval current = new Interval();
+    private final Interval total = new Interval();
+
+    public void record(long latencyNanos) {
+        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        int index = indexOf(micros);
+        current.record(index, micros);
+        total.record(index, micros);
+    }
+
+    public void recordError() {
+        current.errors.increment();
+        total.errors.increment();
+    }
+
+    /**
+     * snapshot of the values recorded since the previous call
+     */
+    public Snapshot intervalSnapshot() {
+        Interval interval = current;
+        current = new Interval();
+        return interval.snapshot();
+    }
+
+    /**
+     * snapshot of everything recorded so far
+     */
+    public Snapshot totalSnapshot() {
+        return total.snapshot();
+    }
+
+    static int indexOf(long value) {
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent < SUB_BUCKET_BITS + 1) {
+            return (int) value;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long valueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long lowerBound = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+        return lowerBound + ((1L << shift) >> 1);
+    }
+
+    private static final class Interval {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final long startNanos = System.nanoTime();
+
+        void record(int index, long micros) {
+            counts.incrementAndGet(index);
+            count.increment();
+            sum.add(micros);
+        }
+
+        Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+                n += copy[i];
+            }
+            long elapsed = System.nanoTime() - startNanos;
+            return new Snapshot(copy, n, sum.sum(), errors.sum(), elapsed);
+        }
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumMicros;
+        private final long errors;
+        private final long elapsedNanos;
+
+        Snapshot(long[] counts, long count, long sumMicros, long errors, long elapsedNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getThroughput() {
+            return elapsedNanos <= 0 ? 0 : count * 1e9 / elapsedNanos;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0 : sumMicros / 1000.0 / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         */
+        public double getPercentileMillis(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return valueOf(i) / 1000.0;
+                }
+            }
+            return getMaxMillis();
+        }
+
+        public double getMaxMillis() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return valueOf(i) / 1000.0;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d rps=%.1f errors=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                    count, getThroughput(), errors, getMeanMillis(),
+                    getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99),
+                    getPercentileMillis(99.9), getMaxMillis());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package top.redjujubetree.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weighted choice of request types, parsed from {@code TYPE:weight,TYPE:weight}.
+ */
+public class RequestMix {
+
+    private final List<String> types = new ArrayList<>();
+    private final List<Integer> cumulativeWeights = new ArrayList<>();
+    private int totalWeight;
+
+    public RequestMix(String spec) {
+        for (String entry : spec.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int index = trimmed.lastIndexOf(':');
+            String type = index > 0 ? trimmed.substring(0, index) : trimmed;
+            int weight = index > 0 ? Integer.parseInt(trimmed.substring(index + 1)) : 1;
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight must be positive: " + trimmed);
+            }
+            totalWeight += weight;
+            types.add(type);
+            cumulativeWeights.add(totalWeight);
+        }
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("Request mix is empty: " + spec);
+        }
+    }
+
+    public String next() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < types.size(); i++) {
+            if (value < cumulativeWeights.get(i)) {
+                return types.get(i);
+            }
+        }
+        return types.get(types.size() - 1);
+    }
+
+    public List<String> getTypes() {
+        return types;
+    }
+}
@@ -0,0 +1,105 @@
+package top.redjujubetree.simulator;
+
+import lombok.Data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Simulator settings, parsed from {@code --key=value} arguments.
+ */
+@Data
+public class SimulatorConfig {
+
+    /**
+     * server address, ignored when inProcess is true
+     */
+    private String target = "localhost:9090";
+
+    /**
+     * start a tunnel server inside the simulator JVM and connect to it in-process
+     */
+    private boolean inProcess = false;
+
+    /**
+     * number of virtual clients
+     */
+    private int clients = 1000;
+
+    /**
+     * number of channels shared by the virtual clients
+     */
+    private int channels = 8;
+
+    /**
+     * how many clients start their handshake per second
+     */
+    private int connectRate = 500;
+
+    /**
+     * heartbeat interval of every virtual client (milliseconds)
+     */
+    private long heartbeatInterval = 30000;
+
+    /**
+     * requests per second sent by each virtual client, 0 for heartbeats only
+     */
+    private double requestRate = 0.1;
+
+    /**
+     * weighted request types, e.g. ECHO:8,QUERY:2
+     */
+    private String requestMix = "ECHO:1";
+
+    /**
+     * request payload size in bytes
+     */
+    private int payloadSize = 128;
+
+    /**
+     * request timeout (milliseconds)
+     */
+    private long requestTimeout = 10000;
+
+    /**
+     * how long the load runs after all clients started (seconds)
+     */
+    private long duration = 60;
+
+    /**
+     * report interval (seconds)
+     */
+    private long reportInterval = 5;
+
+    /**
+     * threads of the scheduler shared by all virtual clients
+     */
+    private int schedulerThreads = 4;
+
+    public static SimulatorConfig parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+            int index = arg.indexOf('=');
+            values.put(arg.substring(2, index), arg.substring(index + 1));
+        }
+
+        SimulatorConfig config = new SimulatorConfig();
+        config.setTarget(values.getOrDefault("target", config.getTarget()));
+        config.setInProcess(Boolean.parseBoolean(values.getOrDefault("in-process", String.valueOf(config.isInProcess()))));
+        config.setClients(Integer.parseInt(values.getOrDefault("clients", String.valueOf(config.getClients()))));
+        config.setChannels(Integer.parseInt(values.getOrDefault("channels", String.valueOf(config.getChannels()))));
+        config.setConnectRate(Integer.parseInt(values.getOrDefault("connect-rate", String.valueOf(config.getConnectRate()))));
+        config.setHeartbeatInterval(Long.parseLong(values.getOrDefault("heartbeat-interval", String.valueOf(config.getHeartbeatInterval()))));
+        config.setRequestRate(Double.parseDouble(values.getOrDefault("request-rate", String.valueOf(config.getRequestRate()))));
+        config.setRequestMix(values.getOrDefault("request-mix", config.getRequestMix()));
+        config.setPayloadSize(Integer.parseInt(values.getOrDefault("payload-size", String.valueOf(config.getPayloadSize()))));
+        config.setRequestTimeout(Long.parseLong(values.getOrDefault("request-timeout", String.valueOf(config.getRequestTimeout()))));
+        config.setDuration(Long.parseLong(values.getOrDefault("duration", String.valueOf(config.getDuration()))));
+        config.setReportInterval(Long.parseLong(values.getOrDefault("report-interval", String.valueOf(config.getReportInterval()))));
+        config.setSchedulerThreads(Integer.parseInt(values.getOrDefault("scheduler-threads", String.valueOf(config.getSchedulerThreads()))));
+        return config;
+    }
+}
@@ -0,0 +1,256 @@
+package top.redjujubetree.simulator;
+
+import lombok.extern.slf4j.Slf4j;
+import top.redjujubetree.grpc.tunnel.client.GrpcTunnelClientService;
+import top.redjujubetree.grpc.tunnel.client.config.TunnelProperties;
+import top.redjujubetree.grpc.tunnel.client.scheduler.TunnelClientScheduler;
+import top.redjujubetree.grpc.tunnel.client.service.ClientInfoService;
+import top.redjujubetree.grpc.tunnel.client.service.DefaultHeartbeatService;
+import top.redjujubetree.grpc.tunnel.client.service.HeartbeatService;
+import top.redjujubetree.grpc.tunnel.payload.RegisterRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many virtual tunnel clients in one JVM to load-test a tunnel server.
+ * <p>
+ * Virtual clients are ordinary {@link GrpcTunnelClientService} instances sharing a
+ * small channel pool and one {@link TunnelClientScheduler}, so threads and connections
+ * stay flat as the client count grows. Request RTT percentiles are reported periodically.
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=top.redjujubetree.simulator.TunnelClientSimulator \
+ *     -Dexec.args="--in-process=true --clients=10000 --request-rate=0.5"
+ * mvn exec:java -Dexec.mainClass=top.redjujubetree.simulator.TunnelClientSimulator \
+ *     -Dexec.args="--target=localhost:9090 --request-mix=ECHO:8,QUERY:2"
+ * </pre>
+ */
+@Slf4j
+public class TunnelClientSimulator {
+
+    private static final String IN_PROCESS_SERVER_NAME = "grpc-tunnel-simulator";
+    private static final long DRIVER_TICK_MILLIS = 10;
+
+    private final SimulatorConfig config;
+    private final RequestMix requestMix;
+    private final String payload;
+    private final LatencyRecorder recorder = new LatencyRecorder();
+    private final Map<String, LatencyRecorder> recordersByType = new HashMap<>();
+    private final List<GrpcTunnelClientService> clients = new ArrayList<>();
+    private final AtomicInteger nextClient = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private TunnelClientScheduler tunnelScheduler;
+    private ChannelPool channelPool;
+    private InProcessTunnelServer inProcessServer;
+
+    public TunnelClientSimulator(SimulatorConfig config) {
+        this.config = config;
+        this.requestMix = new RequestMix(config.getRequestMix());
+        for (String type : requestMix.getTypes()) {
+            recordersByType.put(type, new LatencyRecorder());
+        }
+        this.payload = buildPayload(config.getPayloadSize());
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulatorConfig config = SimulatorConfig.parse(args);
+        log.info("Starting simulator: {}", config);
+        TunnelClientSimulator simulator = new TunnelClientSimulator(config);
+        try {
+            simulator.run();
+        } finally {
+            simulator.shutdown();
+        }
+    }
+
+    public void run() throws Exception {
+        if (config.isInProcess()) {
+            inProcessServer = new InProcessTunnelServer(IN_PROCESS_SERVER_NAME);
+            inProcessServer.start();
+            channelPool = ChannelPool.inProcess(IN_PROCESS_SERVER_NAME, config.getChannels());
+        } else {
+            channelPool = ChannelPool.forTarget(config.getTarget(), config.getChannels());
+        }
+        tunnelScheduler = new TunnelClientScheduler(config.getSchedulerThreads());
+        ScheduledExecutorService scheduler = tunnelScheduler.getScheduler();
+
+        startClients();
+
+        ScheduledFuture<?> driver = null;
+        if (config.getRequestRate() > 0) {
+            driver = scheduler.scheduleAtFixedRate(new RequestDriver(), DRIVER_TICK_MILLIS, DRIVER_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        ScheduledFuture<?> reporter = scheduler.scheduleAtFixedRate(this::report,
+                config.getReportInterval(), config.getReportInterval(), TimeUnit.SECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.getDuration()));
+
+        if (driver != null) {
+            driver.cancel(false);
+        }
+        reporter.cancel(false);
+        // let in-flight requests finish before the final report
+        Thread.sleep(Math.min(config.getRequestTimeout(), 2000));
+
+        log.info("===== Simulation finished =====");
+        log.info("All requests: {}", recorder.totalSnapshot());
+        recordersByType.forEach((type, typeRecorder) -> log.info("  {}: {}", type, typeRecorder.totalSnapshot()));
+        if (inProcessServer != null) {
+            log.info("Server statistics: {}", inProcessServer.getStatistics());
+        }
+    }
+
+    /**
+     * Create every virtual client and start handshakes at the configured connect rate
+     */
+    private void startClients() throws InterruptedException {
+        TunnelProperties properties = new TunnelProperties();
+        properties.setEnabled(true);
+        properties.setClientName("simulator");
+        properties.setAutoConnect(false);
+        properties.setAutoReconnect(true);
+        properties.setHeartbeatInterval(config.getHeartbeatInterval());
+        properties.setRequestTimeout(config.getRequestTimeout());
+
+        HeartbeatService heartbeatService = new DefaultHeartbeatService();
+        ClientInfoService clientInfoService = new VirtualClientInfoService();
+
+        long start = System.currentTimeMillis();
+        CountDownLatch handshakes = new CountDownLatch(config.getClients());
+        AtomicInteger failed = new AtomicInteger();
+        long batchMillis = 100;
+        int perBatch = Math.max(1, (int) (config.getConnectRate() * batchMillis / 1000));
+
+        for (int i = 0; i < config.getClients(); i++) {
+            GrpcTunnelClientService client = new GrpcTunnelClientService(
+                    channelPool.next(),
+                    properties,
+                    String.format("simulator-%06d", i),
+                    Collections.emptyList(),
+                    heartbeatService,
+                    clientInfoService,
+                    tunnelScheduler);
+            client.initialize();
+            clients.add(client);
+            client.connectAsync().whenComplete((success, error) -> {
+                if (error != null || !Boolean.TRUE.equals(success)) {
+                    failed.incrementAndGet();
+                }
+                handshakes.countDown();
+            });
+            if ((i + 1) % perBatch == 0) {
+                Thread.sleep(batchMillis);
+            }
+        }
+
+        handshakes.await();
+        log.info("{} virtual clients started in {}ms, {} initial handshakes failed",
+                clients.size(), System.currentTimeMillis() - start, failed.get());
+    }
+
+    private void report() {
+        long connected = clients.stream().filter(GrpcTunnelClientService::isConnected).count();
+        log.info("connected={}/{} {}", connected, clients.size(), recorder.intervalSnapshot());
+    }
+
+    public void shutdown() {
+        // disconnect waits a little for the goodbye message, do it for many clients at once
+        ExecutorService closer = Executors.newFixedThreadPool(Math.max(1, Math.min(clients.size(), 256)));
+        for (GrpcTunnelClientService client : clients) {
+            closer.execute(client::destroy);
+        }
+        closer.shutdown();
+        try {
+            closer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channelPool != null) {
+            channelPool.shutdown();
+        }
+        if (tunnelScheduler != null) {
+            tunnelScheduler.shutdown();
+        }
+        if (inProcessServer != null) {
+            inProcessServer.stop();
+        }
+    }
+
+    private static String buildPayload(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append('x');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Issues the aggregate request rate of all clients from one periodic task instead of one task per client
+     */
+    private class RequestDriver implements Runnable {
+        private final double requestsPerMilli = config.getRequestRate() * config.getClients() / 1000.0;
+        private final long startNanos = System.nanoTime();
+        private long issued;
+
+        @Override
+        public void run() {
+            double elapsedMillis = (System.nanoTime() - startNanos) / 1e6;
+            long due = (long) (elapsedMillis * requestsPerMilli) - issued;
+            for (long i = 0; i < due; i++) {
+                sendOne();
+            }
+            issued += due;
+        }
+
+        private void sendOne() {
+            GrpcTunnelClientService client = clients.get(Math.floorMod(nextClient.getAndIncrement(), clients.size()));
+            if (!client.isConnected()) {
+                recorder.recordError();
+                return;
+            }
+            String type = requestMix.next();
+            String data = "{\"seq\":" + sequence.incrementAndGet() + ",\"pad\":\"" + payload + "\"}";
+            LatencyRecorder typeRecorder = recordersByType.get(type);
+            long start = System.nanoTime();
+            client.sendRequest(type, data, config.getRequestTimeout()).whenComplete((response, error) -> {
+                if (error != null || response.getResponse().getCode() >= 400) {
+                    recorder.recordError();
+                    typeRecorder.recordError();
+                } else {
+                    long rtt = System.nanoTime() - start;
+                    recorder.record(rtt);
+                    typeRecorder.record(rtt);
+                }
+            });
+        }
+    }
+
+    /**
+     * Registration info without host lookups, which are slow when repeated for every virtual client
+     */
+    private static class VirtualClientInfoService implements ClientInfoService {
+
+        @Override
+        public RegisterRequest buildClientInfoPayload(GrpcTunnelClientService clientService) {
+            RegisterRequest registerRequest = new RegisterRequest();
+            registerRequest.setClientName(clientService.getTunnelConfig().getClientName());
+            registerRequest.setServerMachineName("simulator");
+            registerRequest.setClientPlatform("simulator");
+            registerRequest.setClientIp("127.0.0.1");
+            registerRequest.setClientDeviceId(clientService.getClientId());
+            return registerRequest;
+        }
+    }
+}
@@ -5,19 +5,34 @@ import io.grpc.Channel;
 import io.grpc.ManagedChannel;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import top.redjujubetree.grpc.tunnel.client.config.TunnelProperties;
+import top.redjujubetree.grpc.tunnel.client.reactive.ReactiveTunnelClient;
+import top.redjujubetree.grpc.tunnel.client.scheduler.TunnelClientScheduler;
 import top.redjujubetree.grpc.tunnel.client.service.ClientInfoService;
 import top.redjujubetree.grpc.tunnel.client.service.DefaultHeartbeatService;
 import top.redjujubetree.grpc.tunnel.client.service.HeartbeatService;
 import top.redjujubetree.grpc.tunnel.constant.ClientRequestTypes;
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.constant.TunnelControlTypes;
+import top.redjujubetree.grpc.tunnel.flow.InboundFlowController;
+import top.redjujubetree.grpc.tunnel.flow.InboundMessageListener;
+import top.redjujubetree.grpc.tunnel.flow.OutboundMessageQueue;
+import top.redjujubetree.grpc.tunnel.handler.InflightRequests;
 import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
 import top.redjujubetree.grpc.tunnel.payload.RegisterRequest;
 import top.redjujubetree.grpc.tunnel.proto.*;
+import top.redjujubetree.grpc.tunnel.stream.ResponseStream;
+import top.redjujubetree.grpc.tunnel.stream.StreamingMessageHandler;
+import top.redjujubetree.grpc.tunnel.stream.TunnelStreams;
+import top.redjujubetree.grpc.tunnel.timer.Timeout;
+import top.redjujubetree.grpc.tunnel.utils.TunnelDeadlines;
 import top.redjujubetree.grpc.tunnel.utils.TunnelMessagesUtil;
 
 import java.util.*;
@@ -32,6 +47,7 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
 
     private static final Logger log = LoggerFactory.getLogger(GrpcTunnelClientService.class);
     private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final long CONNECT_TIMEOUT_MILLIS = 5000;
     // Injected dependencies
     private ManagedChannel channel;
     private TunnelProperties properties;
@@ -45,24 +61,37 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
     private StreamObserver<TunnelMessage> requestObserver;
 
     // Connection state management
+    private final AtomicBoolean initialized = new AtomicBoolean(false);
     private final AtomicBoolean connected = new AtomicBoolean(false);
     private final AtomicBoolean isShuttingDown = new AtomicBoolean(false);
     private int reconnectAttempts = 0;
+    private CompletableFuture<Boolean> handshakeFuture;
+    private final CompletableFuture<GrpcTunnelClientService> readyFuture = new CompletableFuture<>();
 
     // Health detection related
     private final AtomicLong lastHeartbeatTime = new AtomicLong(0);
     private final AtomicLong lastServerResponseTime = new AtomicLong(0);
+    private final AtomicLong expiredRequestsDropped = new AtomicLong(0);
     private int consecutiveHeartbeatFailures = 0;
 
-    // Async task management
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    // Async task management, the scheduler is shared between tunnels unless none was injected
+    private TunnelClientScheduler tunnelScheduler;
+    private boolean ownsScheduler;
     private final Map<String, CompletableFuture<TunnelMessage>> pendingRequests = new ConcurrentHashMap<>();
+    private final TunnelStreams streams = TunnelStreams.forClient();
+    private final InflightRequests inflightRequests = new InflightRequests();
     private ScheduledFuture<?> heartbeatTask;
     private ScheduledFuture<?> reconnectTask;
 
+    // Observers of server pushes, e.g. the reactive view
+    private final List<InboundMessageListener> inboundListeners = new CopyOnWriteArrayList<>();
+    // topics are sent again with every registration, so subscriptions survive reconnects
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();
+    private volatile ReactiveTunnelClient reactive;
+
     public GrpcTunnelClientService(){}
     /**
-     * Constructor to inject all necessary dependencies
+     * Constructor to inject all necessary dependencies, the client creates its own scheduler
      */
     public GrpcTunnelClientService(ManagedChannel channel,
                                    TunnelProperties properties,
@@ -70,12 +99,27 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
                                    List<MessageHandler> messageHandlers,
                                    HeartbeatService heartbeatService,
                                    ClientInfoService clientInfoService) {
+        this(channel, properties, clientId, messageHandlers, heartbeatService, clientInfoService, null);
+    }
+
+    /**
+     * Constructor to inject all necessary dependencies including a shared scheduler.
+     * A shared scheduler is not shut down when this client is destroyed.
+     */
+    public GrpcTunnelClientService(ManagedChannel channel,
+                                   TunnelProperties properties,
+                                   String clientId,
+                                   List<MessageHandler> messageHandlers,
+                                   HeartbeatService heartbeatService,
+                                   ClientInfoService clientInfoService,
+                                   TunnelClientScheduler tunnelScheduler) {
         this.channel = channel;
         this.properties = properties;
         this.clientId = clientId;
         this.messageHandlers = messageHandlers != null ? messageHandlers : Collections.emptyList();
         this.heartbeatService = heartbeatService != null ? heartbeatService : new DefaultHeartbeatService();
         this.clientInfoService = clientInfoService;
+        this.tunnelScheduler = tunnelScheduler;
     }
 
     public Channel getChannel() {
@@ -84,13 +128,29 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
 
     @Override
     public void afterPropertiesSet() {
+        if (initialize() && properties.isAutoConnect()) {
+            connect();
+        }
+    }
+
+    /**
+     * Prepare the tunnel stub without connecting.
+     * Callers that drive the handshake themselves (e.g. parallel startup) use this instead of afterPropertiesSet.
+     *
+     * @return false if the client was already initialized
+     */
+    public boolean initialize() {
+        if (!initialized.compareAndSet(false, true)) {
+            return false;
+        }
+        if (tunnelScheduler == null) {
+            tunnelScheduler = new TunnelClientScheduler();
+            ownsScheduler = true;
+        }
         this.tunnelStub = GrpcTunnelServiceGrpc.newStub(channel);
 
         log.info("GRPC Tunnel Client initialized with ID: {}", clientId);
-
-        if (properties.isAutoConnect()) {
-            connect();
-        }
+        return true;
     }
 
     @Override
@@ -101,6 +161,7 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
         cancelAllTasks();
         shutdownScheduler();
         completePendingRequests();
+        readyFuture.completeExceptionally(new IllegalStateException("Client shutting down"));
 
         log.info("GRPC Tunnel Client destroyed");
     }
@@ -108,30 +169,69 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
     // ==================== Connection Management ====================
 
     /**
-     * Connect to gRPC server
+     * Connect to gRPC server, blocking until the handshake completes or times out
      */
-    public synchronized void connect() {
+    public void connect() {
+        try {
+            connectAsync().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for connection handshake");
+        } catch (ExecutionException e) {
+            log.error("Failed to connect to server", e.getCause());
+        }
+    }
+
+    /**
+     * Open the tunnel and start the handshake without blocking the caller.
+     * The returned future completes with true once the server acknowledged the connection,
+     * or with false if the handshake failed (a reconnect is scheduled in that case).
+     * If a handshake is already in flight, its future is returned.
+     */
+    public synchronized CompletableFuture<Boolean> connectAsync() {
         if (connected.get()) {
             log.info("Already connected to server");
-            return;
+            return handshakeFuture != null ? handshakeFuture : CompletableFuture.completedFuture(true);
         }
 
         if (isShuttingDown.get()) {
             log.info("Client is shutting down, skip connection");
-            return;
+            return CompletableFuture.completedFuture(false);
         }
 
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        handshakeFuture = result;
         try {
             resetConnectionState();
 
             log.info("Attempting to establish tunnel connection...");
-            StreamObserver<TunnelMessage> responseObserver = createResponseObserver();
-            requestObserver = tunnelStub.establishTunnel(responseObserver);
+            // every send goes through the priority queue, bound to the call before it starts
+            OutboundMessageQueue outbound = new OutboundMessageQueue();
+            tunnelStub.establishTunnel(createResponseObserver(outbound));
+            requestObserver = outbound;
 
             // Set connected to true temporarily to allow sendRequest to work
             connected.set(true);
 
-            if (sendConnectionMessage()) {
+            sendConnectionMessage().whenComplete((success, error) -> onHandshakeComplete(result, success, error));
+        } catch (Exception e) {
+            onHandshakeComplete(result, false, e);
+        }
+        return result;
+    }
+
+    /**
+     * Finish a handshake started by connectAsync
+     */
+    private void onHandshakeComplete(CompletableFuture<Boolean> result, Boolean success, Throwable error) {
+        boolean accepted = error == null && Boolean.TRUE.equals(success);
+        synchronized (this) {
+            if (handshakeFuture != result) {
+                // a newer connection attempt superseded this one
+                result.complete(false);
+                return;
+            }
+            if (accepted) {
                 reconnectAttempts = 0;
                 consecutiveHeartbeatFailures = 0;
                 lastServerResponseTime.set(System.currentTimeMillis());
@@ -140,20 +240,26 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
 
                 log.info("{} Connected to server successfully", getClientId());
             } else {
-                log.warn("Connection validation failed");
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof TimeoutException) {
+                    log.warn("Connection validation timed out. Message: {}", cause.getMessage());
+                } else if (cause != null) {
+                    log.error("Failed to connect to server", cause);
+                } else {
+                    log.warn("Connection validation failed");
+                }
                 connected.set(false);
                 cleanupFailedConnection();
-                throw new RuntimeException("Connection validation timeout or failed");
-            }
-        } catch (Exception e) {
-            log.error("Failed to connect to server", e);
-            connected.set(false);
-            cleanupFailedConnection();
 
-            if (!isShuttingDown.get()) {
-                scheduleReconnect();
+                if (!isShuttingDown.get()) {
+                    scheduleReconnect();
+                }
             }
         }
+        if (accepted) {
+            readyFuture.complete(this);
+        }
+        result.complete(accepted);
     }
 
     /**
@@ -166,6 +272,8 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
 
         connected.set(false);
         stopHeartbeat();
+        streams.closeAll("Disconnected");
+        inflightRequests.cancelAll();
 
         try {
             if (requestObserver != null) {
@@ -188,6 +296,8 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
 
         connected.set(false);
         stopHeartbeat();
+        streams.closeAll("Reconnecting: " + reason);
+        inflightRequests.cancelAll();
 
         if (requestObserver != null) {
             try {
@@ -236,7 +346,7 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
 
         long heartbeatInterval = properties.getHeartbeatInterval();
 
-        heartbeatTask = scheduler.scheduleWithFixedDelay(() -> {
+        heartbeatTask = tunnelScheduler.getScheduler().scheduleWithFixedDelay(() -> {
             if (!connected.get() || isShuttingDown.get()) {
                 return;
             }
@@ -301,7 +411,8 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
             Object heartbeatInfo = heartbeatService.generateHeartbeat(this.getClientId());
             log.debug("Sending heartbeat: message={}", heartbeatInfo);
 
-            CompletableFuture<TunnelMessage> future = sendRequest(ClientRequestTypes.HEARTBEAT, TunnelMessagesUtil.serializeObj(heartbeatInfo));
+            CompletableFuture<TunnelMessage> future = sendRequest(ClientRequestTypes.HEARTBEAT, TunnelMessagesUtil.serializeObj(heartbeatInfo),
+                    properties.getRequestTimeout(), MessagePriority.CONTROL);
             future.whenComplete((response, error) -> {
                 if (error != null) {
                     log.warn("Heartbeat send failed: {}", error.getMessage());
@@ -333,8 +444,15 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
     /**
      * Create response observer to handle server responses
      */
-    private StreamObserver<TunnelMessage> createResponseObserver() {
-        return new StreamObserver<TunnelMessage>() {
+    private StreamObserver<TunnelMessage> createResponseObserver(OutboundMessageQueue outbound) {
+        InboundFlowController flow = new InboundFlowController();
+        return new ClientResponseObserver<TunnelMessage, TunnelMessage>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<TunnelMessage> requestStream) {
+                flow.bind(requestStream);
+                outbound.bind(requestStream);
+            }
+
             @Override
             public void onNext(TunnelMessage message) {
                 // Update last server response time
@@ -342,7 +460,13 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
                 // Reset consecutive failure count
                 consecutiveHeartbeatFailures = 0;
 
-                handleServerMsg(message);
+                boolean callThread = OutboundMessageQueue.enterCallThread();
+                try {
+                    handleServerMsg(message, flow);
+                } finally {
+                    flow.onMessageProcessed();
+                    OutboundMessageQueue.exitCallThread(callThread);
+                }
             }
 
             @Override
@@ -357,6 +481,8 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
 
                 connected.set(false);
                 stopHeartbeat();
+                streams.closeAll("Connection lost");
+                inflightRequests.cancelAll();
 
                 if (!isShuttingDown.get() && properties.isAutoReconnect()) {
                     scheduleReconnect();
@@ -368,6 +494,8 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
                 log.info("Server closed connection gracefully");
                 connected.set(false);
                 stopHeartbeat();
+                streams.closeAll("Connection lost");
+                inflightRequests.cancelAll();
 
                 if (!isShuttingDown.get() && properties.isAutoReconnect()) {
                     scheduleReconnect();
@@ -379,7 +507,7 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
     /**
      * Handle server response or command message
      */
-    private void handleServerMsg(TunnelMessage message) {
+    private void handleServerMsg(TunnelMessage message, InboundFlowController flow) {
         if (message == null) {
             log.warn("Received invalid message, message is null");
             return;
@@ -395,8 +523,17 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
         }
 
 
+        // Handle stream control messages and partial responses
+        if (streams.onMessage(message)) {
+            return;
+        }
+
+        // Handle cancellation of server requests we are still working on
+        if (inflightRequests.onMessage(message)) {
+            return;
+        }
+
         // Handle request responses
-		message.getCorrelationId();
 		if (!message.getCorrelationId().isEmpty()) {
             CompletableFuture<TunnelMessage> future = pendingRequests.remove(message.getCorrelationId());
             if (future != null) {
@@ -404,12 +541,34 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
                 return;
             }
         }
+        // Refuse requests the server has already given up on, the answer fails them at once on the server
+        long now = System.currentTimeMillis();
+        if (TunnelDeadlines.isExpired(TunnelDeadlines.localDeadline(message, now, properties.getClockSkewAllowance()), now)) {
+            expiredRequestsDropped.incrementAndGet();
+            log.debug("Refusing expired server request: messageId={}, deadline={}", message.getMessageId(), message.getDeadline());
+            send(TunnelDeadlines.expiredResponseOf(message, MessageType.CLIENT_RESPONSE));
+            return;
+        }
+
         // Handle server-pushed messages
+        for (InboundMessageListener listener : inboundListeners) {
+            try {
+                listener.onMessage(message, flow);
+            } catch (Exception e) {
+                log.error("Inbound listener error", e);
+            }
+        }
         if (!messageHandlers.isEmpty()) {
             for (MessageHandler handler : messageHandlers) {
+                if (handler instanceof StreamingMessageHandler && handler.support(message)) {
+                    streams.serve((StreamingMessageHandler) handler, message, this::send, tunnelScheduler.getStreamExecutor());
+                    break;
+                }
                 if (handler.support(message)) {
-                    handler.handle(message).whenComplete((response, error) -> {
-                        if (error != null) {
+                    inflightRequests.track(message, handler.handle(message)).whenComplete((response, error) -> {
+                        if (error instanceof CancellationException) {
+                            log.debug("Server cancelled request {}, response dropped", message.getMessageId());
+                        } else if (error != null) {
                             log.error("Handler error", error);
                         } else if (response != null) {
                             try {
@@ -448,31 +607,24 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
     // ==================== Message Sending ====================
 
     /**
-     * Send connection message to server with validation
+     * Send connection message to server, the future completes with the validation result
      */
-    private boolean sendConnectionMessage() {
-        try {
-            RegisterRequest obj = clientInfoService.buildClientInfoPayload(this);
-            log.info("Sending connection message: {}", obj);
-            String clientPayload = TunnelMessagesUtil.serializeObj(obj);
-            CompletableFuture<TunnelMessage> future = sendRequest(ClientRequestTypes.CONNECT, clientPayload, 5000);
-            TunnelMessage response = future.get(6, TimeUnit.SECONDS); // Wait for connection confirmation
+    private CompletableFuture<Boolean> sendConnectionMessage() {
+        RegisterRequest obj = clientInfoService.buildClientInfoPayload(this);
+        if (!topics.isEmpty()) {
+            Map<String, Object> metadata = obj.getMetadata() != null ? new HashMap<>(obj.getMetadata()) : new HashMap<>();
+            metadata.put(TunnelControlTypes.TOPICS_METADATA_KEY, new ArrayList<>(topics));
+            obj.setMetadata(metadata);
+        }
+        log.info("Sending connection message: {}", obj);
+        String clientPayload = TunnelMessagesUtil.serializeObj(obj);
+        return sendRequest(ClientRequestTypes.CONNECT, clientPayload, CONNECT_TIMEOUT_MILLIS, MessagePriority.CONTROL).thenApply(response -> {
             log.info("Connection response received: {}", response.getResponse().getData().toStringUtf8());
             boolean success = response.hasResponse() && response.getResponse().getCode() == 200;
 
             log.debug("Connection validation result: success={}", success);
             return success;
-
-        } catch (ExecutionException e) {
-            if (e.getCause() instanceof TimeoutException) {
-                log.warn("Connection validation timed out. Message: {}", e.getCause().getMessage());
-            } else {
-                log.error("Connection validation failed", e.getCause());
-            }
-            return false;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
     /**
@@ -484,6 +636,7 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
                 .setClientId(clientId)
                 .setType(MessageType.CLIENT_REQUEST)
                 .setTimestamp(System.currentTimeMillis())
+                .setPriority(MessagePriority.CONTROL)
                 .setRequest(RequestPayload.newBuilder()
                         .setType("DISCONNECT")
                         .setData(ByteString.copyFromUtf8("{}"))
@@ -503,6 +656,13 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
      * Send request and wait for response with custom timeout
      */
     public CompletableFuture<TunnelMessage> sendRequest(String type, String data, long timeoutMillis) {
+        return sendRequest(type, data, timeoutMillis, MessagePriority.NORMAL);
+    }
+
+    /**
+     * Send request with custom timeout and priority, see {@link MessagePriority}
+     */
+    public CompletableFuture<TunnelMessage> sendRequest(String type, String data, long timeoutMillis, int priority) {
         if (!connected.get()) {
             CompletableFuture<TunnelMessage> future = new CompletableFuture<>();
             future.completeExceptionally(new IllegalStateException("Not connected to server"));
@@ -515,6 +675,9 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
                 .setClientId(clientId)
                 .setType(MessageType.CLIENT_REQUEST)
                 .setTimestamp(System.currentTimeMillis())
+                // relative, the server turns it into a deadline on its own clock
+                .setTimeoutMillis(Math.max(0, timeoutMillis))
+                .setPriority(priority)
                 .setRequest(RequestPayload.newBuilder()
                         .setType(type)
                         .setData(ByteString.copyFromUtf8(data))
@@ -525,7 +688,7 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
         pendingRequests.put(messageId, future);
 
         // Set timeout task
-        ScheduledFuture<?> timeoutTask = scheduler.schedule(() -> {
+        Timeout timeoutTask = tunnelScheduler.getTimer().newTimeout(() -> {
             CompletableFuture<TunnelMessage> pendingFuture = pendingRequests.remove(messageId);
             if (pendingFuture != null && !pendingFuture.isDone()) {
                 pendingFuture.completeExceptionally(
@@ -533,13 +696,17 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
             }
         }, timeoutMillis, TimeUnit.MILLISECONDS);
 
-        // Ensure timeout task is cancelled when future completes
-        future.whenComplete((result, error) -> timeoutTask.cancel(false));
+        // Ensure timeout task is cancelled when future completes, an abandoned request is cancelled on the server
+        future.whenComplete((result, error) -> {
+            timeoutTask.cancel();
+            if (error instanceof TimeoutException || error instanceof CancellationException) {
+                pendingRequests.remove(messageId, future);
+                send(InflightRequests.cancelOf(request, MessageType.CLIENT_REQUEST));
+            }
+        });
 
         try {
-            synchronized (requestObserver) {
-                requestObserver.onNext(request);
-            }
+            requestObserver.onNext(request);
             log.debug("Request sent: type={}, messageId={}", type, messageId);
         } catch (Exception e) {
             pendingRequests.remove(messageId);
@@ -550,10 +717,63 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
         return future;
     }
 
+    /**
+     * Send a streaming request with the default window, the server answers with partial responses
+     * that are consumed through the returned iterator. Close the stream to cancel it early.
+     */
+    public ResponseStream sendStreamingRequest(String type, String data) {
+        return sendStreamingRequest(type, data, TunnelStreams.DEFAULT_WINDOW);
+    }
+
+    /**
+     * Send a streaming request
+     *
+     * @param window number of partial responses the server may send ahead of consumption
+     */
+    public ResponseStream sendStreamingRequest(String type, String data, int window) {
+        TunnelMessage request = TunnelMessage.newBuilder()
+                .setMessageId(UUID.randomUUID().toString())
+                .setClientId(clientId)
+                .setType(MessageType.CLIENT_REQUEST)
+                .setTimestamp(System.currentTimeMillis())
+                .setRequest(RequestPayload.newBuilder()
+                        .setType(type)
+                        .setData(ByteString.copyFromUtf8(data))
+                        .build())
+                .build();
+        return streams.open(request, window, properties.getRequestTimeout(), this::send);
+    }
+
+    /**
+     * Send a message on the tunnel
+     *
+     * @return false if not connected or the stream rejected the message
+     */
+    private boolean send(TunnelMessage message) {
+        StreamObserver<TunnelMessage> observer = requestObserver;
+        if (observer == null || !connected.get()) {
+            return false;
+        }
+        try {
+            observer.onNext(message);
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to send message: {}", message.getMessageId(), e);
+            return false;
+        }
+    }
+
     /**
      * Send one-way message (no response expected)
      */
     public void sendOneWay(String type, String data) {
+        sendOneWay(type, data, MessagePriority.NORMAL);
+    }
+
+    /**
+     * Send one-way message with a priority, see {@link MessagePriority}
+     */
+    public void sendOneWay(String type, String data, int priority) {
         if (!connected.get()) {
             log.warn("Cannot send message, not connected to server");
             return;
@@ -564,6 +784,7 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
                 .setClientId(clientId)
                 .setType(MessageType.CLIENT_REQUEST)
                 .setTimestamp(System.currentTimeMillis())
+                .setPriority(priority)
                 .setRequest(RequestPayload.newBuilder()
                         .setType(type)
                         .setData(ByteString.copyFromUtf8(data))
@@ -587,12 +808,14 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
         if (!properties.isAutoReconnect() || isShuttingDown.get()) {
             log.debug("Skip reconnect: autoReconnect={}, shuttingDown={}",
                     properties.isAutoReconnect(), isShuttingDown.get());
+            readyFuture.completeExceptionally(new IllegalStateException("Tunnel is not connected and will not reconnect"));
             return;
         }
 
         if (properties.getMaxReconnectAttempts() != -1 &&
                 reconnectAttempts >= properties.getMaxReconnectAttempts()) {
             log.error("Max reconnect attempts reached: {}", properties.getMaxReconnectAttempts());
+            readyFuture.completeExceptionally(new IllegalStateException("Max reconnect attempts reached"));
             return;
         }
 
@@ -611,13 +834,13 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
             reconnectAttempts++;
             long delay = calculateReconnectDelay();
 
-            reconnectTask = scheduler.schedule(() -> {
+            reconnectTask = tunnelScheduler.getScheduler().schedule(() -> {
                 try {
                     if (!isShuttingDown.get()) {
                         log.info("Executing reconnect attempt {}/{}",
                                 reconnectAttempts,
                                 properties.getMaxReconnectAttempts() == -1 ? "∞" : properties.getMaxReconnectAttempts());
-                        connect();
+                        connectAsync();
                     } else {
                         log.debug("Skip reconnect execution: client is shutting down");
                     }
@@ -650,11 +873,11 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
             }
 
             // Schedule immediate reconnection
-            reconnectTask = scheduler.schedule(() -> {
+            reconnectTask = tunnelScheduler.getScheduler().schedule(() -> {
                 try {
                     if (!isShuttingDown.get()) {
                         log.info("Executing immediate reconnection");
-                        connect();
+                        connectAsync();
                     }
                 } catch (Exception e) {
                     log.error("Error during immediate reconnection", e);
@@ -695,20 +918,11 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
     }
 
     /**
-     * Shutdown the scheduler gracefully
+     * Shutdown the scheduler if this client created it, a shared one is owned by its creator
      */
     private void shutdownScheduler() {
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-                if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                    log.warn("Scheduler did not terminate gracefully");
-                }
-            }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
+        if (ownsScheduler && tunnelScheduler != null) {
+            tunnelScheduler.shutdown();
         }
     }
 
@@ -719,6 +933,8 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
         pendingRequests.forEach((id, future) ->
                 future.completeExceptionally(new IllegalStateException("Client shutting down")));
         pendingRequests.clear();
+        streams.closeAll("Client shutting down");
+        inflightRequests.cancelAll();
     }
 
     // ==================== Status Query Methods ====================
@@ -730,6 +946,63 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
         return connected.get();
     }
 
+    /**
+     * Readiness future, completed with this service once the first handshake succeeds.
+     * It fails if the client shuts down or gives up reconnecting before ever becoming ready.
+     */
+    public CompletableFuture<GrpcTunnelClientService> whenReady() {
+        return readyFuture;
+    }
+
+    /**
+     * Register an observer of server pushes, it sees every uncorrelated message before the handlers do
+     */
+    public void addInboundListener(InboundMessageListener listener) {
+        inboundListeners.add(listener);
+    }
+
+    public void removeInboundListener(InboundMessageListener listener) {
+        inboundListeners.remove(listener);
+    }
+
+    /**
+     * Subscribe this client to a topic, messages the server publishes to it arrive like any other server request.
+     * The subscription is renewed on every reconnect until {@link #unsubscribe(String)}.
+     */
+    public void subscribe(String topic) {
+        if (topics.add(topic) && connected.get()) {
+            sendOneWay(TunnelControlTypes.SUBSCRIBE, topic, MessagePriority.CONTROL);
+        }
+    }
+
+    public void unsubscribe(String topic) {
+        if (topics.remove(topic) && connected.get()) {
+            sendOneWay(TunnelControlTypes.UNSUBSCRIBE, topic, MessagePriority.CONTROL);
+        }
+    }
+
+    public Set<String> getSubscribedTopics() {
+        return Collections.unmodifiableSet(topics);
+    }
+
+    /**
+     * Reactor view of this tunnel, requires reactor-core on the classpath.
+     * Subscriber demand on {@link ReactiveTunnelClient#pushes(String)} is propagated to the stream's flow control.
+     */
+    public ReactiveTunnelClient reactive() {
+        ReactiveTunnelClient view = reactive;
+        if (view == null) {
+            synchronized (inboundListeners) {
+                view = reactive;
+                if (view == null) {
+                    view = new ReactiveTunnelClient(this);
+                    reactive = view;
+                }
+            }
+        }
+        return view;
+    }
+
     /**
      * Get client ID
      */
@@ -766,6 +1039,7 @@ public class GrpcTunnelClientService implements InitializingBean, DisposableBean
         health.put("consecutiveHeartbeatFailures", consecutiveHeartbeatFailures);
         health.put("reconnectAttempts", reconnectAttempts);
         health.put("pendingRequests", pendingRequests.size());
+        health.put("expiredRequestsDropped", expiredRequestsDropped.get());
 
         long now = System.currentTimeMillis();
         long lastResponse = lastServerResponseTime.get();
@@ -22,15 +22,18 @@ import top.redjujubetree.grpc.tunnel.client.config.TunnelsProperties;
 import top.redjujubetree.grpc.tunnel.client.id.ClientIdGenerator;
 import top.redjujubetree.grpc.tunnel.client.id.DefaultClientIdGenerator;
 import top.redjujubetree.grpc.tunnel.client.inject.GrpcClientTunnelBeanPostProcessor;
+import top.redjujubetree.grpc.tunnel.client.scheduler.TunnelClientScheduler;
 import top.redjujubetree.grpc.tunnel.client.service.ClientInfoService;
 import top.redjujubetree.grpc.tunnel.client.service.DefaultClientInfoService;
 import top.redjujubetree.grpc.tunnel.client.service.DefaultHeartbeatService;
 import top.redjujubetree.grpc.tunnel.client.service.HeartbeatService;
 import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * GRPC Tunnel Autoconfiguration for Client
@@ -86,6 +89,15 @@ public class GrpcTunnelClientAutoConfiguration {
         return new DefaultClientInfoService();
     }
 
+    /**
+     * Scheduler and timer shared by all tunnel clients
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean
+    public TunnelClientScheduler tunnelClientScheduler() {
+        return new TunnelClientScheduler();
+    }
+
     @Bean
     public GrpcClientTunnelBeanPostProcessor grpcClientTunnelBeanPostProcessor(ApplicationContext applicationContext, TunnelClientRegistrar tunnelClientRegistrar) {
         return new GrpcClientTunnelBeanPostProcessor(applicationContext);
@@ -99,7 +111,8 @@ public class GrpcTunnelClientAutoConfiguration {
     public TunnelClientRegistrar tunnelClientRegistrar(
             ClientIdGenerator clientIdGenerator,
             HeartbeatService heartbeatService,
-            ClientInfoService clientInfoService) {
+            ClientInfoService clientInfoService,
+            TunnelClientScheduler tunnelClientScheduler) {
         
         log.info("Initializing Tunnel Client Registrar");
         TunnelClientRegistrar registrar = new TunnelClientRegistrar();
@@ -108,7 +121,8 @@ public class GrpcTunnelClientAutoConfiguration {
         registrar.registerAllTunnelClients(
             clientIdGenerator,
             heartbeatService,
-            clientInfoService
+            clientInfoService,
+            tunnelClientScheduler
         );
         
         return registrar;
@@ -130,6 +144,8 @@ public class GrpcTunnelClientAutoConfiguration {
     public class TunnelClientRegistrar {
         
         private final Map<String, GrpcTunnelClientService> registeredServices = new HashMap<>();
+
+        private CompletableFuture<Void> readyFuture = CompletableFuture.completedFuture(null);
         
         /**
          * Register all tunnel clients based on configuration
@@ -137,7 +153,8 @@ public class GrpcTunnelClientAutoConfiguration {
         public void registerAllTunnelClients(
                 ClientIdGenerator clientIdGenerator,
                 HeartbeatService heartbeatService,
-                ClientInfoService clientInfoService) {
+                ClientInfoService clientInfoService,
+                TunnelClientScheduler tunnelClientScheduler) {
             
             log.info("Starting tunnel client registration ... ");
             log.info("Available gRPC clients: {}", grpcChannelsProperties.getClient().keySet());
@@ -161,6 +178,7 @@ public class GrpcTunnelClientAutoConfiguration {
                         clientIdGenerator,
                         heartbeatService,
                         clientInfoService,
+                        tunnelClientScheduler,
                         beanFactory
                     );
                     
@@ -197,8 +215,43 @@ public class GrpcTunnelClientAutoConfiguration {
                 log.warn("Ensure grpc.client.{client-name}.tunnel.enabled=true for at least one client.");
             }
             
+            connectAllTunnelClients();
+
             log.info("Tunnel client registration completed. Registered {} services.", enabledCount);
         }
+
+        /**
+         * Start the handshake of every auto-connect tunnel at once, then wait only for
+         * the tunnels configured to block startup. The handshakes run concurrently, so
+         * startup waits for the slowest server instead of the sum of all of them.
+         */
+        private void connectAllTunnelClients() {
+            List<CompletableFuture<Boolean>> blocking = new ArrayList<>();
+            List<CompletableFuture<GrpcTunnelClientService>> readiness = new ArrayList<>();
+
+            registeredServices.forEach((clientName, service) -> {
+                TunnelProperties tunnelProperties = service.getTunnelConfig();
+                if (!tunnelProperties.isAutoConnect()) {
+                    return;
+                }
+                CompletableFuture<Boolean> handshake = service.connectAsync();
+                readiness.add(service.whenReady());
+                if (tunnelProperties.isBlockStartupOnConnect()) {
+                    blocking.add(handshake);
+                } else {
+                    log.info("Tunnel {} connects in background, startup will not wait for it", clientName);
+                }
+            });
+
+            readyFuture = CompletableFuture.allOf(readiness.toArray(new CompletableFuture[0]));
+
+            if (!blocking.isEmpty()) {
+                long start = System.currentTimeMillis();
+                CompletableFuture.allOf(blocking.toArray(new CompletableFuture[0])).join();
+                log.info("Initial handshake of {} tunnel(s) finished in {}ms",
+                        blocking.size(), System.currentTimeMillis() - start);
+            }
+        }
         
         /**
          * Create and register a single tunnel client service
@@ -208,6 +261,7 @@ public class GrpcTunnelClientAutoConfiguration {
                 ClientIdGenerator clientIdGenerator,
                 HeartbeatService heartbeatService,
                 ClientInfoService clientInfoService,
+                TunnelClientScheduler tunnelClientScheduler,
                 ConfigurableListableBeanFactory beanFactory) {
             
             try {
@@ -236,12 +290,13 @@ public class GrpcTunnelClientAutoConfiguration {
                     clientId,
                     messageHandlers,
                     heartbeatService,
-                    clientInfoService
+                    clientInfoService,
+                    tunnelClientScheduler
                 );
                 
-                // Initialize the service
+                // Initialize the service, the handshake is started later for all tunnels at once
                 try {
-                    tunnelService.afterPropertiesSet();
+                    tunnelService.initialize();
                     log.debug("Successfully initialized tunnel service for client: {}", clientName);
                 } catch (Exception e) {
                     log.error("Failed to initialize tunnel service for client: {}", clientName, e);
@@ -276,6 +331,14 @@ public class GrpcTunnelClientAutoConfiguration {
         public Map<String, GrpcTunnelClientService> getRegisteredServices() {
             return new HashMap<>(registeredServices);
         }
+
+        /**
+         * Readiness future, completed once every auto-connect tunnel finished its first handshake.
+         * Fails if any of them gives up before becoming ready.
+         */
+        public CompletableFuture<Void> whenReady() {
+            return readyFuture;
+        }
     }
 
     /**
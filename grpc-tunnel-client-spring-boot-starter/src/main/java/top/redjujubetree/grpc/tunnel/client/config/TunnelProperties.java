@@ -1,6 +1,7 @@
 package top.redjujubetree.grpc.tunnel.client.config;
 
 import lombok.Data;
+import top.redjujubetree.grpc.tunnel.utils.TunnelDeadlines;
 
 /**
  * GRPC Tunnel client properties configuration.
@@ -20,6 +21,12 @@ public class TunnelProperties {
      */
     private boolean autoConnect = true;
 
+    /**
+     * whether application startup waits for the initial handshake of this tunnel.
+     * when false the tunnel connects in the background, use whenReady() to observe readiness
+     */
+    private boolean blockStartupOnConnect = true;
+
     /**
      * whether to automatically reconnect if the connection is lost
      */
@@ -57,4 +64,10 @@ public class TunnelProperties {
      */
     private long requestTimeout = 30000;
 
+    /**
+     * how far the server's clock may be behind this one in milliseconds, only applies to
+     * requests of older servers that send an absolute deadline instead of their timeout
+     */
+    private long clockSkewAllowance = TunnelDeadlines.DEFAULT_CLOCK_SKEW_ALLOWANCE_MILLIS;
+
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package top.redjujubetree.grpc.tunnel.client.handler;
 
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.handler.InterruptibleFuture;
 import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
 import top.redjujubetree.grpc.tunnel.proto.MessageType;
 import top.redjujubetree.grpc.tunnel.proto.RequestPayload;
@@ -26,7 +28,7 @@ public abstract class AbstractServerRequestMessageHandler implements MessageHand
 
 	@Override
 	public CompletableFuture<TunnelMessage> handle(TunnelMessage request) {
-		return CompletableFuture.supplyAsync(() -> {
+		return InterruptibleFuture.supplyAsync(() -> {
 			ResponsePayload responsePayload = handleServerMessage(request);
 			if (Objects.isNull(responsePayload)) {
 				return null;
@@ -37,6 +39,7 @@ public abstract class AbstractServerRequestMessageHandler implements MessageHand
 					.setType(MessageType.CLIENT_RESPONSE)
 					.setTimestamp(System.currentTimeMillis())
 					.setCorrelationId(request.getMessageId())
+					.setPriority(MessagePriority.ofPeer(request.getPriority()))
 					.setResponse(responsePayload)
 					.build();
 			return response;
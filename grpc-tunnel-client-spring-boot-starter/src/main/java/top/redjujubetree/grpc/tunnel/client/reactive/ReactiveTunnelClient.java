@@ -0,0 +1,69 @@
+package top.redjujubetree.grpc.tunnel.client.reactive;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import top.redjujubetree.grpc.tunnel.client.GrpcTunnelClientService;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.reactive.InboundMessagePublisher;
+import top.redjujubetree.grpc.tunnel.stream.ResponseStream;
+
+/**
+ * Reactor view of a {@link GrpcTunnelClientService}, obtained through {@link GrpcTunnelClientService#reactive()}.
+ * <p>
+ * Server pushes are delivered to every matching subscriber in addition to the registered message handlers.
+ * A subscriber that stops requesting pauses the tunnel stream, so a slow consumer slows the server down
+ * instead of buffering without bound. Heartbeat acknowledgements are held back while the stream is paused,
+ * so consumers must not stall for longer than the heartbeat timeout.
+ */
+public class ReactiveTunnelClient {
+
+    private final GrpcTunnelClientService service;
+    private final InboundMessagePublisher publisher = new InboundMessagePublisher();
+
+    public ReactiveTunnelClient(GrpcTunnelClientService service) {
+        this.service = service;
+        service.addInboundListener(publisher);
+    }
+
+    /**
+     * Send a request when subscribed, using the configured request timeout
+     */
+    public Mono<TunnelMessage> request(String type, String data) {
+        return request(type, data, service.getTunnelConfig().getRequestTimeout());
+    }
+
+    /**
+     * Send a request when subscribed, cancelling the subscription abandons the pending request
+     */
+    public Mono<TunnelMessage> request(String type, String data, long timeoutMillis) {
+        return Mono.fromFuture(() -> service.sendRequest(type, data, timeoutMillis));
+    }
+
+    /**
+     * Send a streaming request when subscribed, partial responses are pulled as the subscriber requests them
+     * and cancelling the subscription cancels the stream on the server
+     */
+    public Flux<TunnelMessage> requestStream(String type, String data) {
+        return Flux.using(() -> service.sendStreamingRequest(type, data),
+                        stream -> Flux.fromIterable(() -> stream),
+                        ResponseStream::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Server requests of the given type
+     */
+    public Flux<TunnelMessage> pushes(String type) {
+        return publisher.subscribe(message -> MessageType.SERVER_REQUEST.equals(message.getType())
+                && message.hasRequest() && type.equals(message.getRequest().getType()));
+    }
+
+    /**
+     * Every message pushed by the server that is not a response to one of our requests
+     */
+    public Flux<TunnelMessage> pushes() {
+        return publisher.subscribe(message -> true);
+    }
+}
@@ -0,0 +1,93 @@
+package top.redjujubetree.grpc.tunnel.client.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+import top.redjujubetree.grpc.tunnel.timer.HashedWheelTimer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timer resources shared by all tunnel clients of a JVM.
+ * <p>
+ * Heartbeats and reconnects run on a small scheduled pool, request timeouts go to a
+ * hashed wheel timer. Thread count stays the same no matter how many tunnels exist,
+ * so tasks submitted here must never block.
+ * Streaming handlers, which block while waiting for credit, get their own elastic pool.
+ */
+@Slf4j
+public class TunnelClientScheduler {
+
+    public static final int DEFAULT_THREADS = 2;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final HashedWheelTimer timer;
+    private final ThreadPoolExecutor streamExecutor;
+
+    public TunnelClientScheduler() {
+        this(DEFAULT_THREADS);
+    }
+
+    public TunnelClientScheduler(int threads) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread thread = new Thread(r, "grpc-tunnel-client-scheduler-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // heartbeat and reconnect tasks are cancelled all the time, do not keep them in the queue
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        this.timer = new HashedWheelTimer("grpc-tunnel-client-timer");
+        AtomicInteger streamThreadIndex = new AtomicInteger();
+        this.streamExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "grpc-tunnel-client-stream-" + streamThreadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * scheduler for periodic tasks such as heartbeats and reconnects
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * timer for request timeouts
+     */
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    /**
+     * executor for streaming handlers, they may block while the requester grants no credit
+     */
+    public ExecutorService getStreamExecutor() {
+        return streamExecutor;
+    }
+
+    /**
+     * Shutdown the scheduler and timer gracefully
+     */
+    public void shutdown() {
+        timer.stop();
+        streamExecutor.shutdownNow();
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+                if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                    log.warn("Scheduler did not terminate gracefully");
+                }
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
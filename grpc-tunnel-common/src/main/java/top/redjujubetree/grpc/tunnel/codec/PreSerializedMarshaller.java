@@ -0,0 +1,78 @@
+package top.redjujubetree.grpc.tunnel.codec;
+
+import com.google.common.collect.MapMaker;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tunnel message marshaller that writes messages registered with {@link #preSerialize(TunnelMessage)}
+ * from a shared byte array instead of serializing them again for every stream.
+ * <p>
+ * Meant for broadcasts, where one message instance is written to thousands of streams.
+ * Registered messages are held by identity and weakly, the bytes go away with the message
+ * once the last outbound queue has written it. Everything else uses the protobuf marshaller.
+ */
+public class PreSerializedMarshaller implements MethodDescriptor.Marshaller<TunnelMessage> {
+
+    public static final PreSerializedMarshaller INSTANCE = new PreSerializedMarshaller();
+
+    private final MethodDescriptor.Marshaller<TunnelMessage> delegate =
+            ProtoUtils.marshaller(TunnelMessage.getDefaultInstance());
+    // weak keys compare by identity
+    private final ConcurrentMap<TunnelMessage, byte[]> serialized = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * serialize the message once, later writes of this very instance reuse the bytes
+     *
+     * @return the message, for chaining
+     */
+    public TunnelMessage preSerialize(TunnelMessage message) {
+        serialized.computeIfAbsent(message, TunnelMessage::toByteArray);
+        return message;
+    }
+
+    /**
+     * number of messages currently registered
+     */
+    public int size() {
+        return serialized.size();
+    }
+
+    @Override
+    public InputStream stream(TunnelMessage value) {
+        byte[] bytes = serialized.get(value);
+        return bytes != null ? new SharedBytesInputStream(bytes) : delegate.stream(value);
+    }
+
+    @Override
+    public TunnelMessage parse(InputStream stream) {
+        return delegate.parse(stream);
+    }
+
+    /**
+     * a view over shared bytes, the transport learns the length up front and drains without copying into a buffer first
+     */
+    private static class SharedBytesInputStream extends ByteArrayInputStream implements KnownLength, Drainable {
+
+        SharedBytesInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            int length = count - pos;
+            target.write(buf, pos, length);
+            pos = count;
+            return length;
+        }
+    }
+}
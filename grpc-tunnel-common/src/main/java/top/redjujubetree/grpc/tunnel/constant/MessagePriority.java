@@ -0,0 +1,25 @@
+package top.redjujubetree.grpc.tunnel.constant;
+
+/**
+ * Values of the priority field of a tunnel message, each one selects an outbound lane.
+ * Control messages are always written first, bulk messages yield to normal ones without starving.
+ */
+public class MessagePriority {
+	public static final int NORMAL = 0;
+	/**
+	 * heartbeats, acknowledgements, errors and stream control
+	 */
+	public static final int CONTROL = 1;
+	/**
+	 * large payloads that should not delay anything else
+	 */
+	public static final int BULK = 2;
+
+	/**
+	 * priority of a message answering one from the peer. CONTROL is kept for frames the tunnel builds itself,
+	 * it skips the outbound budget, so a peer asking for it gets a NORMAL answer
+	 */
+	public static int ofPeer(int priority) {
+		return priority == BULK ? BULK : NORMAL;
+	}
+}
@@ -0,0 +1,36 @@
+package top.redjujubetree.grpc.tunnel.constant;
+
+/**
+ * Request types of control messages exchanged by the tunnel itself, they are never dispatched to message handlers.
+ * The correlation id of a control message is the message id of the request it refers to.
+ */
+public class TunnelControlTypes {
+	/**
+	 * grant the responder of a streaming request more partial responses, data is the number of messages
+	 */
+	public static final String STREAM_CREDIT = "_STREAM_CREDIT";
+	/**
+	 * the requester is no longer interested in a streaming request
+	 */
+	public static final String STREAM_CANCEL = "_STREAM_CANCEL";
+	/**
+	 * the requester abandoned a request, the responder stops its handler and drops the response
+	 */
+	public static final String CANCEL = "_CANCEL";
+	/**
+	 * the client subscribes to a topic, data is the topic name
+	 */
+	public static final String SUBSCRIBE = "_SUBSCRIBE";
+	/**
+	 * the client unsubscribes from a topic, data is the topic name
+	 */
+	public static final String UNSUBSCRIBE = "_UNSUBSCRIBE";
+	/**
+	 * key of the register request metadata listing the topics a client subscribes to on (re)connect
+	 */
+	public static final String TOPICS_METADATA_KEY = "topics";
+	/**
+	 * key of the register request or connection result metadata listing groups the client joins on registration
+	 */
+	public static final String GROUPS_METADATA_KEY = "groups";
+}
@@ -0,0 +1,91 @@
+package top.redjujubetree.grpc.tunnel.flow;
+
+import io.grpc.stub.CallStreamObserver;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ServerCallStreamObserver;
+
+/**
+ * Manual inbound flow control of one tunnel stream.
+ * <p>
+ * Automatic requests are disabled and the controller asks gRPC for the next message
+ * once the previous one has been processed. Consumers that cannot keep up place a hold
+ * with {@link #pause()}; while any hold is active nothing more is requested, so the
+ * HTTP/2 window fills up and the remote sender observes back pressure.
+ */
+public class InboundFlowController {
+
+    public static final int DEFAULT_PREFETCH = 16;
+
+    private final int prefetch;
+    private CallStreamObserver<?> stream;
+    private int holds;
+    private int owed;
+
+    public InboundFlowController() {
+        this(DEFAULT_PREFETCH);
+    }
+
+    public InboundFlowController(int prefetch) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("prefetch must be positive: " + prefetch);
+        }
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * bind to a client call, must be called from ClientResponseObserver#beforeStart
+     */
+    public synchronized void bind(ClientCallStreamObserver<?> call) {
+        call.disableAutoRequestWithInitial(prefetch);
+        this.stream = call;
+    }
+
+    /**
+     * bind to a server call, must be called before the service method returns
+     */
+    public synchronized void bind(ServerCallStreamObserver<?> call) {
+        call.disableAutoRequest();
+        this.stream = call;
+        call.request(prefetch);
+    }
+
+    /**
+     * a message has been handed off, request a replacement unless a consumer holds the stream
+     */
+    public synchronized void onMessageProcessed() {
+        if (stream == null) {
+            return;
+        }
+        if (holds == 0) {
+            stream.request(1);
+        } else {
+            owed++;
+        }
+    }
+
+    /**
+     * stop requesting messages until the matching {@link #resume()}
+     */
+    public synchronized void pause() {
+        holds++;
+    }
+
+    /**
+     * release a hold, once the last hold is released the owed messages are requested
+     */
+    public synchronized void resume() {
+        if (holds == 0) {
+            return;
+        }
+        holds--;
+        if (holds == 0 && owed > 0 && stream != null) {
+            int count = owed;
+            owed = 0;
+            stream.request(count);
+        }
+    }
+
+    public synchronized boolean isPaused() {
+        return holds > 0;
+    }
+}
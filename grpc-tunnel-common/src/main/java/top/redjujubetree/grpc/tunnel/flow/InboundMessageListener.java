@@ -0,0 +1,17 @@
+package top.redjujubetree.grpc.tunnel.flow;
+
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+/**
+ * Observes inbound tunnel messages before they are dispatched to message handlers.
+ */
+public interface InboundMessageListener {
+
+    /**
+     * called on the stream's delivery thread, must not block.
+     *
+     * @param flow flow control of the stream the message arrived on, listeners that
+     *             cannot keep up may pause it and resume it later
+     */
+    void onMessage(TunnelMessage message, InboundFlowController flow);
+}
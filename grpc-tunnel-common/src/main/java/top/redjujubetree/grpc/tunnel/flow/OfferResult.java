@@ -0,0 +1,23 @@
+package top.redjujubetree.grpc.tunnel.flow;
+
+/**
+ * Outcome of queuing a message on an {@link OutboundMessageQueue}.
+ */
+public enum OfferResult {
+    /**
+     * the message waits in its lane and is written once the transport is ready
+     */
+    QUEUED,
+    /**
+     * the outbound budget had no room, the message will never be written
+     */
+    DROPPED,
+    /**
+     * the stream is closed
+     */
+    CLOSED;
+
+    public boolean isQueued() {
+        return this == QUEUED;
+    }
+}
@@ -0,0 +1,54 @@
+package top.redjujubetree.grpc.tunnel.flow;
+
+/**
+ * Limits of a single {@link OutboundMessageQueue} and what happens when they are exceeded.
+ * Room is reserved with compare-and-set before a message is queued, concurrent sends do not overshoot.
+ * The policy applies when the queue exceeds its own limits. When only the shared memory limit is
+ * reached, the queue holding the most memory gives room back instead, see {@link OutboundMemoryLimit}.
+ */
+public class OutboundBudget {
+
+    public static final OutboundBudget UNLIMITED = new OutboundBudget(0, 0, SlowConsumerPolicy.DISCONNECT, 0, null);
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final SlowConsumerPolicy policy;
+    private final long blockTimeoutMillis;
+    private final OutboundMemoryLimit memoryLimit;
+
+    /**
+     * @param maxMessages        messages that may wait in the queue, 0 or less means unlimited
+     * @param maxBytes           serialized bytes that may wait in the queue, 0 or less means unlimited
+     * @param policy             applied to a message that does not fit
+     * @param blockTimeoutMillis longest wait of a sender under {@link SlowConsumerPolicy#BLOCK}
+     * @param memoryLimit        cap shared with other queues, may be null
+     */
+    public OutboundBudget(int maxMessages, long maxBytes, SlowConsumerPolicy policy,
+                          long blockTimeoutMillis, OutboundMemoryLimit memoryLimit) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.policy = policy != null ? policy : SlowConsumerPolicy.DISCONNECT;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.memoryLimit = memoryLimit;
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public SlowConsumerPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    public OutboundMemoryLimit getMemoryLimit() {
+        return memoryLimit;
+    }
+}
@@ -0,0 +1,109 @@
+package top.redjujubetree.grpc.tunnel.flow;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cap on the bytes queued by all {@link OutboundMessageQueue}s sharing this instance,
+ * so many slow consumers together can not exhaust the heap.
+ * <p>
+ * When the cap is reached the queue holding the most bytes gives the room back, not the queue
+ * that happens to send next, see {@link #largestQueue()}.
+ */
+public class OutboundMemoryLimit {
+
+    private final long maxBytes;
+    private final AtomicLong used = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    // open queues sharing the limit, only kept when there is a limit
+    private final Set<OutboundMessageQueue> queues = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param maxBytes total bytes that may be queued, 0 or less means unlimited
+     */
+    public OutboundMemoryLimit(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * reserve bytes for a queued message
+     *
+     * @return false if that would exceed the limit
+     */
+    public boolean tryAcquire(long bytes) {
+        if (maxBytes <= 0) {
+            used.addAndGet(bytes);
+            return true;
+        }
+        long current;
+        do {
+            current = used.get();
+            if (current + bytes > maxBytes) {
+                return false;
+            }
+        } while (!used.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * reserve bytes regardless of the limit, for control messages
+     */
+    public void forceAcquire(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    /**
+     * count a message dropped by one of the sharing queues
+     */
+    public void recordDropped() {
+        dropped.increment();
+    }
+
+    /**
+     * messages dropped by all sharing queues
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    void register(OutboundMessageQueue queue) {
+        if (maxBytes > 0) {
+            queues.add(queue);
+        }
+    }
+
+    void unregister(OutboundMessageQueue queue) {
+        queues.remove(queue);
+    }
+
+    /**
+     * the open queue holding the most bytes, null if none holds any. A full scan, it only runs
+     * once the cap is reached and the server is shedding load anyway
+     */
+    OutboundMessageQueue largestQueue() {
+        OutboundMessageQueue largest = null;
+        long largestBytes = 0;
+        for (OutboundMessageQueue queue : queues) {
+            long bytes = queue.getQueuedBytes();
+            if (bytes > largestBytes) {
+                largest = queue;
+                largestBytes = bytes;
+            }
+        }
+        return largest;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,576 @@
+package top.redjujubetree.grpc.tunnel.flow;
+
+import io.grpc.Status;
+import io.grpc.stub.CallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Priority ordered outbound side of a tunnel stream.
+ * <p>
+ * Messages are queued in one lane per {@link MessagePriority} and written while the transport is ready,
+ * the stream's onReady handler resumes writing. Control messages always go first, so a heartbeat never
+ * waits behind a backlog of large payloads. Bulk messages get one slot after every {@code bulkInterval}
+ * normal messages while both lanes are waiting, so they are slowed down but never starved.
+ * <p>
+ * Callers may send from any thread without locking. The lanes are lock-free and a work-in-progress
+ * counter elects a single writer: whichever thread moves it from zero writes until the queue is empty
+ * or the transport is not ready, other threads only enqueue and bump the counter so the writer loops again.
+ * The terminal signal is delivered by the writer as well, after the messages queued before it.
+ * <p>
+ * An {@link OutboundBudget} bounds what a slow consumer can pile up, see {@link SlowConsumerPolicy}.
+ * A message the budget has no room for is reported as {@link OfferResult#DROPPED}, so callers do not
+ * count it as sent or wait for an answer to it.
+ */
+@Slf4j
+public class OutboundMessageQueue implements StreamObserver<TunnelMessage> {
+
+    public static final int DEFAULT_BULK_INTERVAL = 4;
+
+    // set while a thread delivers an inbound message of a gRPC call, see enterCallThread
+    private static final ThreadLocal<Boolean> CALL_THREAD = new ThreadLocal<>();
+
+    private final Queue<TunnelMessage> control = new ConcurrentLinkedQueue<>();
+    private final Queue<TunnelMessage> normal = new ConcurrentLinkedQueue<>();
+    private final Queue<TunnelMessage> bulk = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final int bulkInterval;
+    private final OutboundBudget budget;
+    // senders blocked by SlowConsumerPolicy.BLOCK wait on this monitor
+    private final Object roomSignal = new Object();
+    private final AtomicInteger blockedSenders = new AtomicInteger();
+
+    private enum Room {
+        RESERVED,
+        // this queue is over its own budget, its slow consumer policy applies
+        QUEUE_FULL,
+        // only the memory limit shared with other queues is exhausted
+        MEMORY_FULL
+    }
+
+    private volatile StreamObserver<TunnelMessage> delegate;
+    private volatile BooleanSupplier ready = () -> true;
+    private volatile Consumer<Throwable> failureListener;
+    // set once no more messages are accepted, the terminal signal follows
+    private volatile boolean closed;
+    private volatile boolean completing;
+    private volatile Throwable error;
+    // only touched by the writer
+    private boolean terminated;
+    private int normalSinceBulk;
+
+    /**
+     * a queue that is bound to its stream later, see {@link #bind(CallStreamObserver)}
+     */
+    public OutboundMessageQueue() {
+        this(DEFAULT_BULK_INTERVAL);
+    }
+
+    public OutboundMessageQueue(int bulkInterval) {
+        this(bulkInterval, OutboundBudget.UNLIMITED);
+    }
+
+    public OutboundMessageQueue(int bulkInterval, OutboundBudget budget) {
+        this.bulkInterval = Math.max(1, bulkInterval);
+        this.budget = budget != null ? budget : OutboundBudget.UNLIMITED;
+        OutboundMemoryLimit limit = this.budget.getMemoryLimit();
+        if (limit != null) {
+            limit.register(this);
+        }
+    }
+
+    /**
+     * a queue writing to the observer, readiness is followed if it is a gRPC call stream
+     */
+    public OutboundMessageQueue(StreamObserver<TunnelMessage> observer) {
+        this(observer, OutboundBudget.UNLIMITED);
+    }
+
+    /**
+     * a bounded queue writing to the observer, readiness is followed if it is a gRPC call stream
+     */
+    public OutboundMessageQueue(StreamObserver<TunnelMessage> observer, OutboundBudget budget) {
+        this(DEFAULT_BULK_INTERVAL, budget);
+        if (observer instanceof CallStreamObserver) {
+            bind((CallStreamObserver<TunnelMessage>) observer);
+        } else {
+            this.delegate = observer;
+        }
+    }
+
+    /**
+     * Write to the call and follow its readiness. On the client this must happen in
+     * ClientResponseObserver#beforeStart, on the server before the service method returns.
+     */
+    public void bind(CallStreamObserver<TunnelMessage> call) {
+        this.ready = call::isReady;
+        this.delegate = call;
+        call.setOnReadyHandler(this::drain);
+        drain();
+    }
+
+    /**
+     * Called once when the queue fails the stream by itself, because a write failed
+     * or a slow consumer is disconnected. The owner should release the connection.
+     */
+    public void setFailureListener(Consumer<Throwable> failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Mark the current thread as delivering inbound messages of a gRPC call until {@link #exitCallThread(boolean)}.
+     * Room under {@link SlowConsumerPolicy#BLOCK} is only freed by the call's onReady, which gRPC runs on the same
+     * serialized executor, so a send made on this thread, directly or through a handler run inline, never waits
+     * for room and drops the message instead.
+     *
+     * @return whether this call marked the thread, to be passed to {@link #exitCallThread(boolean)}
+     */
+    public static boolean enterCallThread() {
+        if (CALL_THREAD.get() != null) {
+            return false;
+        }
+        CALL_THREAD.set(Boolean.TRUE);
+        return true;
+    }
+
+    public static void exitCallThread(boolean entered) {
+        if (entered) {
+            CALL_THREAD.remove();
+        }
+    }
+
+    /**
+     * Queue a message and write as much as the transport accepts
+     */
+    public OfferResult offer(TunnelMessage message) {
+        return offer(message, true);
+    }
+
+    /**
+     * Like {@link #offer(TunnelMessage)} but never waits for room, under {@link SlowConsumerPolicy#BLOCK}
+     * a message that does not fit is dropped right away
+     */
+    public OfferResult tryOffer(TunnelMessage message) {
+        return offer(message, false);
+    }
+
+    private OfferResult offer(TunnelMessage message, boolean mayBlock) {
+        if (closed) {
+            return OfferResult.CLOSED;
+        }
+        int bytes = message.getSerializedSize();
+        if (!admit(message, bytes, mayBlock)) {
+            if (closed) {
+                return OfferResult.CLOSED;
+            }
+            recordDropped();
+            log.debug("Outbound budget exceeded, message dropped: {}", message.getMessageId());
+            return OfferResult.DROPPED;
+        }
+        // counted when the room was reserved
+        laneOf(message).add(message);
+        drain();
+        return closed ? OfferResult.CLOSED : OfferResult.QUEUED;
+    }
+
+    /**
+     * Queue a message, a message dropped by the budget is only counted
+     *
+     * @throws IllegalStateException if the stream is closed
+     */
+    @Override
+    public void onNext(TunnelMessage message) {
+        if (offer(message) == OfferResult.CLOSED) {
+            throw new IllegalStateException("Outbound stream is closed");
+        }
+    }
+
+    /**
+     * Write queued messages while the transport is ready, returns immediately if another thread is writing
+     */
+    public void drain() {
+        if (wip.getAndIncrement() != 0) {
+            // the current writer sees the increment and loops once more
+            return;
+        }
+        int missed = 1;
+        do {
+            StreamObserver<TunnelMessage> observer = delegate;
+            if (terminated) {
+                discard();
+            } else if (observer != null) {
+                try {
+                    writeQueued(observer);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to write tunnel message, closing outbound stream: {}", e.getMessage());
+                    closed = true;
+                    terminate();
+                    discard();
+                    notifyFailure(e);
+                }
+            }
+            if (blockedSenders.get() > 0) {
+                synchronized (roomSignal) {
+                    roomSignal.notifyAll();
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void writeQueued(StreamObserver<TunnelMessage> observer) {
+        Throwable failure = error;
+        if (failure != null) {
+            terminate();
+            discard();
+            observer.onError(failure);
+            return;
+        }
+        boolean flush = completing;
+        TunnelMessage next;
+        while ((flush || ready.getAsBoolean()) && (next = poll()) != null) {
+            observer.onNext(next);
+        }
+        if (flush && size.get() == 0) {
+            terminate();
+            observer.onCompleted();
+        }
+    }
+
+    /**
+     * Flush what is queued and complete the stream
+     */
+    @Override
+    public void onCompleted() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        completing = true;
+        drain();
+    }
+
+    /**
+     * Drop what is queued and fail the stream
+     */
+    @Override
+    public void onError(Throwable error) {
+        if (closed) {
+            return;
+        }
+        this.error = error;
+        closed = true;
+        drain();
+    }
+
+    /**
+     * number of messages waiting to be written
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * serialized bytes of the messages waiting to be written
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * messages dropped or replaced because the budget was exceeded
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void terminate() {
+        terminated = true;
+        OutboundMemoryLimit limit = budget.getMemoryLimit();
+        if (limit != null) {
+            limit.unregister(this);
+        }
+    }
+
+    private boolean admit(TunnelMessage message, int bytes, boolean mayBlock) {
+        Room room = tryReserve(bytes);
+        if (room == Room.RESERVED) {
+            return true;
+        }
+        if (message.getPriority() == MessagePriority.CONTROL) {
+            forceReserve(bytes);
+            return true;
+        }
+        if (room == Room.MEMORY_FULL) {
+            // this queue is within its own budget, the policy is not for it to pay
+            return reclaimFromLargest(bytes) && tryReserve(bytes) == Room.RESERVED;
+        }
+        switch (budget.getPolicy()) {
+            case BLOCK:
+                // waiting on the call's own thread would hold back the onReady that frees the room
+                return mayBlock && CALL_THREAD.get() == null && awaitRoom(bytes);
+            case CONFLATE:
+                return (conflate(message) && tryReserve(bytes) == Room.RESERVED) || evictLowest(message, bytes);
+            case DROP_LOWEST_PRIORITY:
+                return evictLowest(message, bytes);
+            case DISCONNECT:
+            default:
+                disconnect(String.format("Slow consumer, outbound budget exceeded: %d messages, %d bytes queued",
+                        size.get(), queuedBytes.get()));
+                return false;
+        }
+    }
+
+    /**
+     * count the message in before it is queued, compare-and-set so concurrent senders can not
+     * overshoot the limits together
+     */
+    private Room tryReserve(int bytes) {
+        int maxMessages = budget.getMaxMessages();
+        if (maxMessages > 0) {
+            int current;
+            do {
+                current = size.get();
+                if (current >= maxMessages) {
+                    return Room.QUEUE_FULL;
+                }
+            } while (!size.compareAndSet(current, current + 1));
+        } else {
+            size.incrementAndGet();
+        }
+        long maxBytes = budget.getMaxBytes();
+        if (maxBytes > 0) {
+            long current;
+            do {
+                current = queuedBytes.get();
+                if (current + bytes > maxBytes) {
+                    size.decrementAndGet();
+                    return Room.QUEUE_FULL;
+                }
+            } while (!queuedBytes.compareAndSet(current, current + bytes));
+        } else {
+            queuedBytes.addAndGet(bytes);
+        }
+        OutboundMemoryLimit limit = budget.getMemoryLimit();
+        if (limit != null && !limit.tryAcquire(bytes)) {
+            size.decrementAndGet();
+            queuedBytes.addAndGet(-bytes);
+            return Room.MEMORY_FULL;
+        }
+        return Room.RESERVED;
+    }
+
+    private void forceReserve(int bytes) {
+        size.incrementAndGet();
+        queuedBytes.addAndGet(bytes);
+        OutboundMemoryLimit limit = budget.getMemoryLimit();
+        if (limit != null) {
+            limit.forceAcquire(bytes);
+        }
+    }
+
+    /**
+     * make the queue holding the most of the shared memory give room back
+     *
+     * @return false if this queue holds the most itself, the message is refused then
+     */
+    private boolean reclaimFromLargest(int bytes) {
+        OutboundMessageQueue largest = budget.getMemoryLimit().largestQueue();
+        if (largest == null || largest == this || largest.getQueuedBytes() <= queuedBytes.get()) {
+            return false;
+        }
+        largest.shed(bytes);
+        return true;
+    }
+
+    /**
+     * give back at least the bytes to the shared memory limit, by the policy of this queue:
+     * a DISCONNECT queue is disconnected, any other drops its oldest lowest priority messages
+     */
+    private void shed(long bytes) {
+        if (budget.getPolicy() == SlowConsumerPolicy.DISCONNECT) {
+            disconnect(String.format("Slow consumer, holding the most of the shared outbound memory: %d messages, %d bytes queued",
+                    size.get(), queuedBytes.get()));
+            return;
+        }
+        long freed = 0;
+        while (freed < bytes) {
+            TunnelMessage victim = bulk.poll();
+            if (victim == null) {
+                victim = normal.poll();
+            }
+            if (victim == null) {
+                return;
+            }
+            freed += victim.getSerializedSize();
+            release(victim);
+            recordDropped();
+        }
+    }
+
+    private boolean awaitRoom(int bytes) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget.getBlockTimeoutMillis());
+        blockedSenders.incrementAndGet();
+        try {
+            synchronized (roomSignal) {
+                while (!closed) {
+                    if (tryReserve(bytes) == Room.RESERVED) {
+                        return true;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    // room may also be freed by other queues sharing the memory limit, check again periodically
+                    roomSignal.wait(Math.max(1, Math.min(TimeUnit.NANOSECONDS.toMillis(remaining), 10)));
+                }
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            blockedSenders.decrementAndGet();
+        }
+    }
+
+    /**
+     * remove queued requests of the same type, only the newest is worth sending
+     */
+    private boolean conflate(TunnelMessage message) {
+        String key = conflationKey(message);
+        if (key == null) {
+            return false;
+        }
+        boolean replaced = false;
+        Queue<TunnelMessage> lane = laneOf(message);
+        for (TunnelMessage queued : lane) {
+            if (key.equals(conflationKey(queued)) && lane.remove(queued)) {
+                release(queued);
+                recordDropped();
+                replaced = true;
+            }
+        }
+        return replaced;
+    }
+
+    private void recordDropped() {
+        dropped.incrementAndGet();
+        OutboundMemoryLimit limit = budget.getMemoryLimit();
+        if (limit != null) {
+            limit.recordDropped();
+        }
+    }
+
+    private static String conflationKey(TunnelMessage message) {
+        if (message.getType() != MessageType.SERVER_REQUEST && message.getType() != MessageType.CLIENT_REQUEST) {
+            return null;
+        }
+        String type = message.getRequest().getType();
+        return type.isEmpty() ? null : type;
+    }
+
+    /**
+     * drop the oldest queued messages of the lowest priority until the new one fits,
+     * a message never displaces one of higher priority
+     */
+    private boolean evictLowest(TunnelMessage message, int bytes) {
+        boolean normalMessage = message.getPriority() != MessagePriority.BULK;
+        while (tryReserve(bytes) != Room.RESERVED) {
+            TunnelMessage victim = bulk.poll();
+            if (victim == null && normalMessage) {
+                victim = normal.poll();
+            }
+            if (victim == null) {
+                return false;
+            }
+            release(victim);
+            recordDropped();
+        }
+        return true;
+    }
+
+    private void disconnect(String reason) {
+        log.warn("{}, closing outbound stream", reason);
+        RuntimeException failure = Status.RESOURCE_EXHAUSTED.withDescription(reason).asRuntimeException();
+        onError(failure);
+        notifyFailure(failure);
+    }
+
+    private void notifyFailure(Throwable failure) {
+        Consumer<Throwable> listener = failureListener;
+        if (listener != null) {
+            try {
+                listener.accept(failure);
+            } catch (RuntimeException e) {
+                log.warn("Outbound failure listener error: {}", e.getMessage());
+            }
+        }
+    }
+
+    private Queue<TunnelMessage> laneOf(TunnelMessage message) {
+        switch (message.getPriority()) {
+            case MessagePriority.CONTROL:
+                return control;
+            case MessagePriority.BULK:
+                return bulk;
+            default:
+                return normal;
+        }
+    }
+
+    private TunnelMessage poll() {
+        TunnelMessage next = control.poll();
+        if (next == null) {
+            if (normalSinceBulk >= bulkInterval || (next = normal.poll()) == null) {
+                next = bulk.poll();
+                normalSinceBulk = 0;
+                if (next == null) {
+                    next = normal.poll();
+                }
+            } else {
+                normalSinceBulk++;
+            }
+        }
+        if (next != null) {
+            release(next);
+        }
+        return next;
+    }
+
+    private void release(TunnelMessage message) {
+        int bytes = message.getSerializedSize();
+        size.decrementAndGet();
+        queuedBytes.addAndGet(-bytes);
+        OutboundMemoryLimit limit = budget.getMemoryLimit();
+        if (limit != null) {
+            limit.release(bytes);
+        }
+    }
+
+    private void discard() {
+        // poll instead of clear so the counters stay exact while other threads are still offering
+        TunnelMessage next;
+        while ((next = control.poll()) != null || (next = normal.poll()) != null || (next = bulk.poll()) != null) {
+            release(next);
+        }
+    }
+}
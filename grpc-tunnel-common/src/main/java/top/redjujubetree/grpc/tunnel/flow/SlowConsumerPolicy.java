@@ -0,0 +1,28 @@
+package top.redjujubetree.grpc.tunnel.flow;
+
+/**
+ * What an {@link OutboundMessageQueue} does with a new message once its own budget is used up.
+ * Control messages are always admitted, they keep the tunnel alive.
+ * <p>
+ * When the shared memory limit is reached the largest queue pays by its policy: a DISCONNECT queue is
+ * disconnected, any other drops its oldest lowest priority messages.
+ */
+public enum SlowConsumerPolicy {
+    /**
+     * the sending thread waits for room until the block timeout, then the message is dropped. A send on the
+     * thread delivering the call's inbound messages is dropped right away, see {@link OutboundMessageQueue#enterCallThread()}
+     */
+    BLOCK,
+    /**
+     * the oldest queued messages of the lowest priority go first, never ones of higher priority than the new message
+     */
+    DROP_LOWEST_PRIORITY,
+    /**
+     * a queued request of the same type is replaced by the new one, falls back to dropping the lowest priority
+     */
+    CONFLATE,
+    /**
+     * the stream is failed with RESOURCE_EXHAUSTED and the connection is closed
+     */
+    DISCONNECT
+}
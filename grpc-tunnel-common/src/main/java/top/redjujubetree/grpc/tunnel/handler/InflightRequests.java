@@ -0,0 +1,85 @@
+package top.redjujubetree.grpc.tunnel.handler;
+
+import com.google.protobuf.ByteString;
+import lombok.extern.slf4j.Slf4j;
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.constant.TunnelControlTypes;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.RequestPayload;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handler futures of the requests a tunnel endpoint is currently answering, keyed by request message id.
+ * A {@link TunnelControlTypes#CANCEL} message from the requester cancels the matching future,
+ * interrupting the handler if it runs on an {@link InterruptibleFuture}, and its response is never sent.
+ */
+@Slf4j
+public class InflightRequests {
+
+    private final Map<String, CompletableFuture<?>> inflight = new ConcurrentHashMap<>();
+
+    /**
+     * track the handler future of a request until it completes
+     */
+    public <T> CompletableFuture<T> track(TunnelMessage request, CompletableFuture<T> future) {
+        if (future == null || future.isDone()) {
+            return future;
+        }
+        String requestId = request.getMessageId();
+        inflight.put(requestId, future);
+        future.whenComplete((result, error) -> inflight.remove(requestId, future));
+        return future;
+    }
+
+    /**
+     * @return true if the message was a cancel message, whether or not the request was still in flight
+     */
+    public boolean onMessage(TunnelMessage message) {
+        if (!message.hasRequest() || !TunnelControlTypes.CANCEL.equals(message.getRequest().getType())) {
+            return false;
+        }
+        CompletableFuture<?> future = inflight.remove(message.getCorrelationId());
+        if (future != null && future.cancel(true)) {
+            log.debug("Request {} cancelled by requester", message.getCorrelationId());
+        }
+        return true;
+    }
+
+    /**
+     * cancel everything in flight, the tunnel is gone
+     */
+    public void cancelAll() {
+        new ArrayList<>(inflight.values()).forEach(future -> future.cancel(true));
+        inflight.clear();
+    }
+
+    public int size() {
+        return inflight.size();
+    }
+
+    /**
+     * Build the cancel message for a request this endpoint sent
+     *
+     * @param type CLIENT_REQUEST on the client, SERVER_REQUEST on the server
+     */
+    public static TunnelMessage cancelOf(TunnelMessage request, MessageType type) {
+        return TunnelMessage.newBuilder()
+                .setMessageId(UUID.randomUUID().toString())
+                .setClientId(request.getClientId())
+                .setType(type)
+                .setTimestamp(System.currentTimeMillis())
+                .setCorrelationId(request.getMessageId())
+                .setPriority(MessagePriority.CONTROL)
+                .setRequest(RequestPayload.newBuilder()
+                        .setType(TunnelControlTypes.CANCEL)
+                        .setData(ByteString.EMPTY)
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,63 @@
+package top.redjujubetree.grpc.tunnel.handler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * A {@link CompletableFuture} whose {@code cancel(true)} interrupts the thread computing it,
+ * plain CompletableFutures ignore mayInterruptIfRunning. Handlers built on it stop working
+ * on requests the requester abandoned, as long as they react to interruption.
+ */
+public class InterruptibleFuture<T> extends CompletableFuture<T> {
+
+    private final Object runnerLock = new Object();
+    private Thread runner;
+
+    /**
+     * run the supplier asynchronously on the common pool, like {@link CompletableFuture#supplyAsync(Supplier)}
+     */
+    public static <T> InterruptibleFuture<T> supplyAsync(Supplier<T> supplier) {
+        return supplyAsync(supplier, ForkJoinPool.commonPool());
+    }
+
+    public static <T> InterruptibleFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+        InterruptibleFuture<T> future = new InterruptibleFuture<>();
+        executor.execute(() -> future.run(supplier));
+        return future;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled && mayInterruptIfRunning) {
+            synchronized (runnerLock) {
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+        return cancelled;
+    }
+
+    private void run(Supplier<T> supplier) {
+        if (isDone()) {
+            return;
+        }
+        synchronized (runnerLock) {
+            runner = Thread.currentThread();
+        }
+        try {
+            complete(supplier.get());
+        } catch (Throwable e) {
+            completeExceptionally(e);
+        } finally {
+            synchronized (runnerLock) {
+                runner = null;
+            }
+            // an interrupt aimed at this task must not leak into the next one run by the pool thread
+            Thread.interrupted();
+        }
+    }
+}
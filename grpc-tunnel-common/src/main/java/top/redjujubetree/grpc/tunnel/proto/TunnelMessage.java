@@ -246,6 +246,39 @@ private static final long serialVersionUID = 0L;
     }
   }
 
+  public static final int PRIORITY_FIELD_NUMBER = 8;
+  private int priority_ = 0;
+  /**
+   * <code>int32 priority = 8;</code>
+   * @return The priority.
+   */
+  @java.lang.Override
+  public int getPriority() {
+    return priority_;
+  }
+
+  public static final int DEADLINE_FIELD_NUMBER = 9;
+  private long deadline_ = 0L;
+  /**
+   * <code>int64 deadline = 9;</code>
+   * @return The deadline.
+   */
+  @java.lang.Override
+  public long getDeadline() {
+    return deadline_;
+  }
+
+  public static final int TIMEOUT_MILLIS_FIELD_NUMBER = 10;
+  private long timeoutMillis_ = 0L;
+  /**
+   * <code>int64 timeout_millis = 10;</code>
+   * @return The timeoutMillis.
+   */
+  @java.lang.Override
+  public long getTimeoutMillis() {
+    return timeoutMillis_;
+  }
+
   private byte memoizedIsInitialized = -1;
   @java.lang.Override
   public final boolean isInitialized() {
@@ -281,6 +314,15 @@ private static final long serialVersionUID = 0L;
     if (!com.google.protobuf.GeneratedMessageV3.isStringEmpty(correlationId_)) {
       com.google.protobuf.GeneratedMessageV3.writeString(output, 7, correlationId_);
     }
+    if (priority_ != 0) {
+      output.writeInt32(8, priority_);
+    }
+    if (deadline_ != 0L) {
+      output.writeInt64(9, deadline_);
+    }
+    if (timeoutMillis_ != 0L) {
+      output.writeInt64(10, timeoutMillis_);
+    }
     getUnknownFields().writeTo(output);
   }
 
@@ -315,6 +357,18 @@ private static final long serialVersionUID = 0L;
     if (!com.google.protobuf.GeneratedMessageV3.isStringEmpty(correlationId_)) {
       size += com.google.protobuf.GeneratedMessageV3.computeStringSize(7, correlationId_);
     }
+    if (priority_ != 0) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeInt32Size(8, priority_);
+    }
+    if (deadline_ != 0L) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeInt64Size(9, deadline_);
+    }
+    if (timeoutMillis_ != 0L) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeInt64Size(10, timeoutMillis_);
+    }
     size += getUnknownFields().getSerializedSize();
     memoizedSize = size;
     return size;
@@ -349,6 +403,12 @@ private static final long serialVersionUID = 0L;
     }
     if (!getCorrelationId()
         .equals(other.getCorrelationId())) return false;
+    if (getPriority()
+        != other.getPriority()) return false;
+    if (getDeadline()
+        != other.getDeadline()) return false;
+    if (getTimeoutMillis()
+        != other.getTimeoutMillis()) return false;
     if (!getUnknownFields().equals(other.getUnknownFields())) return false;
     return true;
   }
@@ -379,6 +439,14 @@ private static final long serialVersionUID = 0L;
     }
     hash = (37 * hash) + CORRELATION_ID_FIELD_NUMBER;
     hash = (53 * hash) + getCorrelationId().hashCode();
+    hash = (37 * hash) + PRIORITY_FIELD_NUMBER;
+    hash = (53 * hash) + getPriority();
+    hash = (37 * hash) + DEADLINE_FIELD_NUMBER;
+    hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+        getDeadline());
+    hash = (37 * hash) + TIMEOUT_MILLIS_FIELD_NUMBER;
+    hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+        getTimeoutMillis());
     hash = (29 * hash) + getUnknownFields().hashCode();
     memoizedHashCode = hash;
     return hash;
@@ -536,6 +604,9 @@ private static final long serialVersionUID = 0L;
         responseBuilder_ = null;
       }
       correlationId_ = "";
+      priority_ = 0;
+      deadline_ = 0L;
+      timeoutMillis_ = 0L;
       return this;
     }
 
@@ -597,6 +668,15 @@ private static final long serialVersionUID = 0L;
       if (((from_bitField0_ & 0x00000040) != 0)) {
         result.correlationId_ = correlationId_;
       }
+      if (((from_bitField0_ & 0x00000080) != 0)) {
+        result.priority_ = priority_;
+      }
+      if (((from_bitField0_ & 0x00000100) != 0)) {
+        result.deadline_ = deadline_;
+      }
+      if (((from_bitField0_ & 0x00000200) != 0)) {
+        result.timeoutMillis_ = timeoutMillis_;
+      }
       result.bitField0_ |= to_bitField0_;
     }
 
@@ -671,6 +751,15 @@ private static final long serialVersionUID = 0L;
         bitField0_ |= 0x00000040;
         onChanged();
       }
+      if (other.getPriority() != 0) {
+        setPriority(other.getPriority());
+      }
+      if (other.getDeadline() != 0L) {
+        setDeadline(other.getDeadline());
+      }
+      if (other.getTimeoutMillis() != 0L) {
+        setTimeoutMillis(other.getTimeoutMillis());
+      }
       this.mergeUnknownFields(other.getUnknownFields());
       onChanged();
       return this;
@@ -736,6 +825,21 @@ private static final long serialVersionUID = 0L;
               bitField0_ |= 0x00000040;
               break;
             } // case 58
+            case 64: {
+              priority_ = input.readInt32();
+              bitField0_ |= 0x00000080;
+              break;
+            } // case 64
+            case 72: {
+              deadline_ = input.readInt64();
+              bitField0_ |= 0x00000100;
+              break;
+            } // case 72
+            case 80: {
+              timeoutMillis_ = input.readInt64();
+              bitField0_ |= 0x00000200;
+              break;
+            } // case 80
             default: {
               if (!super.parseUnknownField(input, extensionRegistry, tag)) {
                 done = true; // was an endgroup tag
@@ -1295,6 +1399,102 @@ private static final long serialVersionUID = 0L;
       onChanged();
       return this;
     }
+
+    private int priority_ ;
+    /**
+     * <code>int32 priority = 8;</code>
+     * @return The priority.
+     */
+    @java.lang.Override
+    public int getPriority() {
+      return priority_;
+    }
+    /**
+     * <code>int32 priority = 8;</code>
+     * @param value The priority to set.
+     * @return This builder for chaining.
+     */
+    public Builder setPriority(int value) {
+
+      priority_ = value;
+      bitField0_ |= 0x00000080;
+      onChanged();
+      return this;
+    }
+    /**
+     * <code>int32 priority = 8;</code>
+     * @return This builder for chaining.
+     */
+    public Builder clearPriority() {
+      bitField0_ = (bitField0_ & ~0x00000080);
+      priority_ = 0;
+      onChanged();
+      return this;
+    }
+
+    private long deadline_ ;
+    /**
+     * <code>int64 deadline = 9;</code>
+     * @return The deadline.
+     */
+    @java.lang.Override
+    public long getDeadline() {
+      return deadline_;
+    }
+    /**
+     * <code>int64 deadline = 9;</code>
+     * @param value The deadline to set.
+     * @return This builder for chaining.
+     */
+    public Builder setDeadline(long value) {
+
+      deadline_ = value;
+      bitField0_ |= 0x00000100;
+      onChanged();
+      return this;
+    }
+    /**
+     * <code>int64 deadline = 9;</code>
+     * @return This builder for chaining.
+     */
+    public Builder clearDeadline() {
+      bitField0_ = (bitField0_ & ~0x00000100);
+      deadline_ = 0L;
+      onChanged();
+      return this;
+    }
+
+    private long timeoutMillis_ ;
+    /**
+     * <code>int64 timeout_millis = 10;</code>
+     * @return The timeoutMillis.
+     */
+    @java.lang.Override
+    public long getTimeoutMillis() {
+      return timeoutMillis_;
+    }
+    /**
+     * <code>int64 timeout_millis = 10;</code>
+     * @param value The timeoutMillis to set.
+     * @return This builder for chaining.
+     */
+    public Builder setTimeoutMillis(long value) {
+
+      timeoutMillis_ = value;
+      bitField0_ |= 0x00000200;
+      onChanged();
+      return this;
+    }
+    /**
+     * <code>int64 timeout_millis = 10;</code>
+     * @return This builder for chaining.
+     */
+    public Builder clearTimeoutMillis() {
+      bitField0_ = (bitField0_ & ~0x00000200);
+      timeoutMillis_ = 0L;
+      onChanged();
+      return this;
+    }
     @java.lang.Override
     public final Builder setUnknownFields(
         final com.google.protobuf.UnknownFieldSet unknownFields) {
@@ -90,4 +90,22 @@ public interface TunnelMessageOrBuilder extends
    */
   com.google.protobuf.ByteString
       getCorrelationIdBytes();
+
+  /**
+   * <code>int32 priority = 8;</code>
+   * @return The priority.
+   */
+  int getPriority();
+
+  /**
+   * <code>int64 deadline = 9;</code>
+   * @return The deadline.
+   */
+  long getDeadline();
+
+  /**
+   * <code>int64 timeout_millis = 10;</code>
+   * @return The timeoutMillis.
+   */
+  long getTimeoutMillis();
 }
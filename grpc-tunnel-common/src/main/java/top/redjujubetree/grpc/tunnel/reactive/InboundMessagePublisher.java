@@ -0,0 +1,106 @@
+package top.redjujubetree.grpc.tunnel.reactive;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import top.redjujubetree.grpc.tunnel.flow.InboundFlowController;
+import top.redjujubetree.grpc.tunnel.flow.InboundMessageListener;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+/**
+ * Fans inbound tunnel messages out to {@link Flux} subscribers.
+ * <p>
+ * Subscriber demand is translated into inbound flow control: when a subscriber has no
+ * outstanding demand, the stream that delivered the message is paused until the
+ * subscriber requests more, so back pressure reaches the remote sender.
+ * At most the stream's prefetch window is buffered per subscriber.
+ */
+public class InboundMessagePublisher implements InboundMessageListener {
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * a cold view of the inbound messages accepted by the filter
+     */
+    public Flux<TunnelMessage> subscribe(Predicate<TunnelMessage> filter) {
+        return Flux.create(sink -> {
+            Subscription subscription = new Subscription(filter, sink);
+            subscriptions.add(subscription);
+            sink.onRequest(subscription::request);
+            sink.onDispose(() -> {
+                subscriptions.remove(subscription);
+                subscription.releaseAll();
+            });
+        }, FluxSink.OverflowStrategy.BUFFER);
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    @Override
+    public void onMessage(TunnelMessage message, InboundFlowController flow) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.filter.test(message)) {
+                subscription.emit(message, flow);
+            }
+        }
+    }
+
+    private static final class Subscription {
+        private final Predicate<TunnelMessage> filter;
+        private final FluxSink<TunnelMessage> sink;
+        private final Set<InboundFlowController> held = Collections.newSetFromMap(new IdentityHashMap<>());
+        private long demand;
+
+        Subscription(Predicate<TunnelMessage> filter, FluxSink<TunnelMessage> sink) {
+            this.filter = filter;
+            this.sink = sink;
+        }
+
+        void request(long n) {
+            List<InboundFlowController> release;
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                if (held.isEmpty()) {
+                    return;
+                }
+                release = new ArrayList<>(held);
+                held.clear();
+            }
+            release.forEach(InboundFlowController::resume);
+        }
+
+        void emit(TunnelMessage message, InboundFlowController flow) {
+            boolean hold = false;
+            synchronized (this) {
+                if (demand != Long.MAX_VALUE && demand > 0) {
+                    demand--;
+                }
+                if (demand == 0 && flow != null) {
+                    hold = held.add(flow);
+                }
+            }
+            if (hold) {
+                flow.pause();
+            }
+            sink.next(message);
+        }
+
+        void releaseAll() {
+            List<InboundFlowController> release;
+            synchronized (this) {
+                release = new ArrayList<>(held);
+                held.clear();
+            }
+            release.forEach(InboundFlowController::resume);
+        }
+    }
+}
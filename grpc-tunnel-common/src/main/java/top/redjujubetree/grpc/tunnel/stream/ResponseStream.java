@@ -0,0 +1,131 @@
+package top.redjujubetree.grpc.tunnel.stream;
+
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Requester side of a streaming request, iterates the partial responses as they arrive.
+ * <p>
+ * The responder may only send as many partial responses as it was granted credit for. The stream
+ * starts with a window of credit and grants more once half of it has been consumed, so at most
+ * one window is ever buffered. Closing the stream before it ends cancels it on the responder.
+ * <p>
+ * Partial responses carry code {@value #PARTIAL}, any other code ends the stream. A successful
+ * terminal message is returned as the last element when it carries data, which lets a plain
+ * single-response handler answer a streaming request. An error code is thrown as {@link TunnelStreamException}.
+ */
+public class ResponseStream implements Iterator<TunnelMessage>, Closeable {
+
+    public static final int PARTIAL = 206;
+
+    private static final TunnelMessage FAILED = TunnelMessage.getDefaultInstance();
+
+    private final String requestId;
+    private final int window;
+    private final long idleTimeoutMillis;
+    private final IntConsumer creditSender;
+    private final Runnable canceller;
+    private final BlockingQueue<TunnelMessage> received = new LinkedBlockingQueue<>();
+
+    private volatile Throwable failure;
+    private TunnelMessage next;
+    private boolean done;
+    private int consumed;
+
+    ResponseStream(String requestId, int window, long idleTimeoutMillis, IntConsumer creditSender, Runnable canceller) {
+        this.requestId = requestId;
+        this.window = window;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.creditSender = creditSender;
+        this.canceller = canceller;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
+        TunnelMessage message;
+        try {
+            message = received.poll(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new TunnelStreamException("Interrupted while waiting for the stream", e);
+        }
+        if (message == null) {
+            close();
+            throw new TunnelStreamException(0, "No response within " + idleTimeoutMillis + "ms");
+        }
+        if (message == FAILED) {
+            done = true;
+            throw new TunnelStreamException("Stream failed", failure);
+        }
+        int code = message.getResponse().getCode();
+        if (code == PARTIAL) {
+            if (++consumed >= Math.max(1, window / 2)) {
+                creditSender.accept(consumed);
+                consumed = 0;
+            }
+            next = message;
+            return true;
+        }
+        done = true;
+        if (code < 200 || code >= 300) {
+            throw new TunnelStreamException(code, message.getResponse().getMessage());
+        }
+        if (message.getResponse().getData().isEmpty()) {
+            return false;
+        }
+        next = message;
+        return true;
+    }
+
+    @Override
+    public TunnelMessage next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        TunnelMessage message = next;
+        next = null;
+        return message;
+    }
+
+    /**
+     * cancel the stream on the responder unless it already ended
+     */
+    @Override
+    public void close() {
+        if (!done) {
+            done = true;
+            canceller.run();
+        }
+    }
+
+    /**
+     * @return true if the message ended the stream
+     */
+    boolean offer(TunnelMessage message) {
+        received.add(message);
+        return message.getResponse().getCode() != PARTIAL;
+    }
+
+    void fail(Throwable cause) {
+        failure = cause;
+        received.add(FAILED);
+    }
+}
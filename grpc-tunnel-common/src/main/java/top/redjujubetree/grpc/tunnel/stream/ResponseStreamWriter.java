@@ -0,0 +1,154 @@
+package top.redjujubetree.grpc.tunnel.stream;
+
+import com.google.protobuf.ByteString;
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.ResponsePayload;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Responder side of a streaming request.
+ * <p>
+ * Every {@link #next} consumes one credit granted by the requester and blocks while none is left,
+ * so a slow requester slows the handler down instead of filling the tunnel.
+ */
+public class ResponseStreamWriter {
+
+    private final TunnelMessage request;
+    private final MessageType responseType;
+    private final Predicate<TunnelMessage> sender;
+    private final long creditTimeoutMillis;
+    private final Runnable onClose;
+
+    private int credit;
+    private boolean cancelled;
+    private boolean closed;
+
+    ResponseStreamWriter(TunnelMessage request, MessageType responseType, Predicate<TunnelMessage> sender,
+                         long creditTimeoutMillis, Runnable onClose) {
+        this.request = request;
+        this.responseType = responseType;
+        this.sender = sender;
+        this.creditTimeoutMillis = creditTimeoutMillis;
+        this.onClose = onClose;
+    }
+
+    public TunnelMessage getRequest() {
+        return request;
+    }
+
+    /**
+     * send a partial response, blocks until the requester grants credit
+     *
+     * @throws CancellationException if the requester cancelled the stream or the tunnel closed
+     * @throws TunnelStreamException if no credit arrived in time
+     */
+    public void next(ByteString data) throws InterruptedException {
+        synchronized (this) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(creditTimeoutMillis);
+            while (credit == 0 && !cancelled && !closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TunnelStreamException(0, "No credit granted within " + creditTimeoutMillis + "ms");
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            if (cancelled) {
+                throw new CancellationException("Stream cancelled by requester");
+            }
+            if (closed) {
+                throw new IllegalStateException("Stream already closed");
+            }
+            credit--;
+        }
+        if (!send(ResponseStream.PARTIAL, "PARTIAL", data)) {
+            cancel();
+            throw new CancellationException("Tunnel closed");
+        }
+    }
+
+    public void next(String data) throws InterruptedException {
+        next(ByteString.copyFromUtf8(data));
+    }
+
+    /**
+     * end the stream successfully
+     */
+    public void complete() {
+        if (close()) {
+            send(200, "COMPLETE", ByteString.EMPTY);
+        }
+    }
+
+    /**
+     * end the stream with an error code
+     */
+    public void error(int code, String message) {
+        if (close()) {
+            send(code, message == null ? "" : message, ByteString.EMPTY);
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized void grant(int count) {
+        if (count > 0) {
+            credit += count;
+            notifyAll();
+        }
+    }
+
+    void cancel() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            cancelled = true;
+            closed = true;
+            notifyAll();
+        }
+        onClose.run();
+    }
+
+    private boolean close() {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            notifyAll();
+        }
+        onClose.run();
+        return true;
+    }
+
+    private boolean send(int code, String message, ByteString data) {
+        TunnelMessage response = TunnelMessage.newBuilder()
+                .setMessageId(UUID.randomUUID().toString())
+                .setClientId(request.getClientId())
+                .setType(responseType)
+                .setTimestamp(System.currentTimeMillis())
+                .setCorrelationId(request.getMessageId())
+                // same lane as the request, partial and terminal responses must stay in order
+                .setPriority(MessagePriority.ofPeer(request.getPriority()))
+                .setResponse(ResponsePayload.newBuilder()
+                        .setType(request.getRequest().getType())
+                        .setCode(code)
+                        .setMessage(message)
+                        .setData(data)
+                        .build())
+                .build();
+        return sender.test(response);
+    }
+}
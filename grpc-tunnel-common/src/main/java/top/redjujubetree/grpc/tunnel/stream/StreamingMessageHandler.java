@@ -0,0 +1,28 @@
+package top.redjujubetree.grpc.tunnel.stream;
+
+import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Message handler answering a request with a stream of partial responses.
+ * <p>
+ * {@link #handleStream} runs on a dedicated thread and may block in {@link ResponseStreamWriter#next},
+ * which waits until the requester has granted credit. The stream is completed automatically when
+ * the method returns without closing it, and failed with code 500 when it throws.
+ */
+public interface StreamingMessageHandler extends MessageHandler {
+
+    void handleStream(TunnelMessage request, ResponseStreamWriter writer) throws Exception;
+
+    /**
+     * streaming handlers are dispatched through {@link #handleStream}
+     */
+    @Override
+    default CompletableFuture<TunnelMessage> handle(TunnelMessage request) {
+        CompletableFuture<TunnelMessage> future = new CompletableFuture<>();
+        future.completeExceptionally(new UnsupportedOperationException(getClass().getName() + " only supports streaming"));
+        return future;
+    }
+}
@@ -0,0 +1,26 @@
+package top.redjujubetree.grpc.tunnel.stream;
+
+/**
+ * A streaming request ended abnormally, carries the response code of the terminal message if there was one.
+ */
+public class TunnelStreamException extends RuntimeException {
+
+    private final int code;
+
+    public TunnelStreamException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public TunnelStreamException(String message, Throwable cause) {
+        super(message, cause);
+        this.code = 0;
+    }
+
+    /**
+     * response code sent by the responder, 0 if the stream failed locally
+     */
+    public int getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,194 @@
+package top.redjujubetree.grpc.tunnel.stream;
+
+import com.google.protobuf.ByteString;
+import lombok.extern.slf4j.Slf4j;
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.constant.TunnelControlTypes;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.RequestPayload;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
+
+/**
+ * Streaming requests of one tunnel endpoint, in both roles.
+ * <p>
+ * As requester it tracks the {@link ResponseStream}s opened on this tunnel and routes correlated
+ * responses into them. As responder it runs {@link StreamingMessageHandler}s and applies the credit
+ * and cancel control messages sent by the requester.
+ */
+@Slf4j
+public class TunnelStreams {
+
+    public static final int DEFAULT_WINDOW = 32;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private final MessageType requestType;
+    private final MessageType responseType;
+    private final Map<String, ResponseStream> requested = new ConcurrentHashMap<>();
+    private final Map<String, ResponseStreamWriter> serving = new ConcurrentHashMap<>();
+
+    /**
+     * @param requestType  type of the requests this endpoint sends
+     * @param responseType type of the responses this endpoint sends
+     */
+    public TunnelStreams(MessageType requestType, MessageType responseType) {
+        this.requestType = requestType;
+        this.responseType = responseType;
+    }
+
+    public static TunnelStreams forClient() {
+        return new TunnelStreams(MessageType.CLIENT_REQUEST, MessageType.CLIENT_RESPONSE);
+    }
+
+    public static TunnelStreams forServer() {
+        return new TunnelStreams(MessageType.SERVER_REQUEST, MessageType.SERVER_RESPONSE);
+    }
+
+    /**
+     * Send a streaming request and grant the initial window of credit.
+     * The initial credit and a cancel use the lane of the request so they cannot overtake it,
+     * later credits are control messages.
+     *
+     * @param timeoutMillis longest wait for the next partial response
+     * @param sender        sends a message on the tunnel, false if the tunnel is gone
+     */
+    public ResponseStream open(TunnelMessage request, int window, long timeoutMillis, Predicate<TunnelMessage> sender) {
+        String requestId = request.getMessageId();
+        ResponseStream stream = new ResponseStream(requestId, window, timeoutMillis,
+                credit -> sender.test(control(request, TunnelControlTypes.STREAM_CREDIT, String.valueOf(credit), MessagePriority.CONTROL)),
+                () -> {
+                    if (requested.remove(requestId) != null) {
+                        sender.test(control(request, TunnelControlTypes.STREAM_CANCEL, "", request.getPriority()));
+                    }
+                });
+        requested.put(requestId, stream);
+        if (!sender.test(request)
+                || !sender.test(control(request, TunnelControlTypes.STREAM_CREDIT, String.valueOf(window), request.getPriority()))) {
+            requested.remove(requestId);
+            stream.fail(new IllegalStateException("Failed to send streaming request"));
+        }
+        return stream;
+    }
+
+    /**
+     * Run a streaming handler for the request on the executor
+     */
+    public void serve(StreamingMessageHandler handler, TunnelMessage request, Predicate<TunnelMessage> sender, Executor executor) {
+        String requestId = request.getMessageId();
+        ResponseStreamWriter writer = new ResponseStreamWriter(request, responseType, sender,
+                DEFAULT_TIMEOUT_MILLIS, () -> serving.remove(requestId));
+        // registered before the credit that follows the request is read
+        serving.put(requestId, writer);
+        try {
+            executor.execute(() -> {
+                try {
+                    handler.handleStream(request, writer);
+                    writer.complete();
+                } catch (CancellationException e) {
+                    log.debug("Stream {} cancelled", requestId);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    writer.error(500, "Interrupted");
+                } catch (Exception e) {
+                    log.error("Streaming handler error for request: {}", requestId, e);
+                    writer.error(500, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            writer.error(503, "Server busy");
+        }
+    }
+
+    /**
+     * Consume the message if it belongs to a stream
+     *
+     * @return true if the message was a stream control message or a response of an open stream
+     */
+    public boolean onMessage(TunnelMessage message) {
+        String correlationId = message.getCorrelationId();
+        if (message.hasRequest()) {
+            String type = message.getRequest().getType();
+            if (TunnelControlTypes.STREAM_CREDIT.equals(type)) {
+                ResponseStreamWriter writer = serving.get(correlationId);
+                if (writer != null) {
+                    writer.grant(parseCredit(message.getRequest().getData()));
+                }
+                return true;
+            }
+            if (TunnelControlTypes.STREAM_CANCEL.equals(type)) {
+                ResponseStreamWriter writer = serving.get(correlationId);
+                if (writer != null) {
+                    writer.cancel();
+                }
+                return true;
+            }
+            if (TunnelControlTypes.CANCEL.equals(type)) {
+                // a plain cancel is consumed here only if it targets a stream
+                ResponseStreamWriter writer = serving.get(correlationId);
+                if (writer != null) {
+                    writer.cancel();
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (message.hasResponse() && !correlationId.isEmpty()) {
+            ResponseStream stream = requested.get(correlationId);
+            if (stream == null) {
+                return false;
+            }
+            if (stream.offer(message)) {
+                requested.remove(correlationId);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fail every open stream, the tunnel is gone
+     */
+    public void closeAll(String reason) {
+        List<ResponseStream> streams = new ArrayList<>(requested.values());
+        requested.clear();
+        IllegalStateException cause = new IllegalStateException(reason);
+        streams.forEach(stream -> stream.fail(cause));
+        new ArrayList<>(serving.values()).forEach(ResponseStreamWriter::cancel);
+    }
+
+    public int getActiveStreamCount() {
+        return requested.size() + serving.size();
+    }
+
+    private TunnelMessage control(TunnelMessage request, String type, String data, int priority) {
+        return TunnelMessage.newBuilder()
+                .setMessageId(UUID.randomUUID().toString())
+                .setClientId(request.getClientId())
+                .setType(requestType)
+                .setTimestamp(System.currentTimeMillis())
+                .setCorrelationId(request.getMessageId())
+                .setPriority(priority)
+                .setRequest(RequestPayload.newBuilder()
+                        .setType(type)
+                        .setData(ByteString.copyFromUtf8(data))
+                        .build())
+                .build();
+    }
+
+    private static int parseCredit(ByteString data) {
+        try {
+            return Integer.parseInt(data.toStringUtf8().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package top.redjujubetree.grpc.tunnel.timer;
+
+/**
+ * Handle of a task scheduled on a {@link HashedWheelTimer}.
+ */
+public interface Timeout {
+
+    /**
+     * cancel the task if it has not run yet
+     *
+     * @return true if the task was cancelled by this call
+     */
+    boolean cancel();
+
+    boolean isCancelled();
+
+    boolean isExpired();
+}
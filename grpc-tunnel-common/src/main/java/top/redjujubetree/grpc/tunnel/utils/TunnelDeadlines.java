@@ -0,0 +1,74 @@
+package top.redjujubetree.grpc.tunnel.utils;
+
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.ResponsePayload;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.util.UUID;
+
+/**
+ * Helpers for the deadline of a tunnel request.
+ * The sender puts its timeout in the timeout_millis field, the receiver turns it into a deadline on its own clock
+ * when the message arrives, so the clocks of the two ends need not agree. Time in transit is not counted.
+ * <p>
+ * Older peers only send the deadline field, an absolute epoch millisecond timestamp of the sender's clock.
+ * It is honoured with a clock skew allowance, a sender whose clock is behind by more than the allowance
+ * has its requests refused as expired.
+ */
+public class TunnelDeadlines {
+
+    public static final long DEFAULT_CLOCK_SKEW_ALLOWANCE_MILLIS = 5000;
+
+    /**
+     * response code of a request refused because its deadline passed before a handler ran it
+     */
+    public static final int EXPIRED_CODE = 504;
+
+    private TunnelDeadlines() {
+    }
+
+    /**
+     * the deadline on the local clock of a request received at the given time, 0 if it has none
+     *
+     * @param clockSkewAllowanceMillis how far the sender's clock may be behind, only applies to an absolute deadline
+     */
+    public static long localDeadline(TunnelMessage message, long receivedAtMillis, long clockSkewAllowanceMillis) {
+        long timeout = message.getTimeoutMillis();
+        if (timeout > 0) {
+            return receivedAtMillis + timeout;
+        }
+        long deadline = message.getDeadline();
+        return deadline > 0 ? deadline + Math.max(0, clockSkewAllowanceMillis) : 0L;
+    }
+
+    /**
+     * whether the requester has already given up at the given time
+     *
+     * @param localDeadline see {@link #localDeadline(TunnelMessage, long, long)}
+     */
+    public static boolean isExpired(long localDeadline, long nowMillis) {
+        return localDeadline > 0 && nowMillis > localDeadline;
+    }
+
+    /**
+     * Build the answer to a request whose deadline passed, the requester fails it at once
+     * instead of waiting out its own timeout
+     *
+     * @param type CLIENT_RESPONSE on the client, SERVER_RESPONSE on the server
+     */
+    public static TunnelMessage expiredResponseOf(TunnelMessage request, MessageType type) {
+        return TunnelMessage.newBuilder()
+                .setMessageId(UUID.randomUUID().toString())
+                .setClientId(request.getClientId())
+                .setType(type)
+                .setTimestamp(System.currentTimeMillis())
+                .setCorrelationId(request.getMessageId())
+                .setPriority(MessagePriority.CONTROL)
+                .setResponse(ResponsePayload.newBuilder()
+                        .setCode(EXPIRED_CODE)
+                        .setMessage("Deadline exceeded")
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,214 @@
+package top.redjujubeetree.flow;
+
+import io.grpc.stub.CallStreamObserver;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.flow.OfferResult;
+import top.redjujubetree.grpc.tunnel.flow.OutboundBudget;
+import top.redjujubetree.grpc.tunnel.flow.OutboundMemoryLimit;
+import top.redjujubetree.grpc.tunnel.flow.OutboundMessageQueue;
+import top.redjujubetree.grpc.tunnel.flow.SlowConsumerPolicy;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class OutboundMessageQueueTest {
+
+	@Test
+	public void testControlFirstAndBulkNotStarved() {
+		FakeCall call = new FakeCall();
+		OutboundMessageQueue queue = new OutboundMessageQueue(4);
+		queue.bind(call);
+
+		for (int i = 1; i <= 3; i++) {
+			queue.offer(message("B" + i, MessagePriority.BULK));
+		}
+		for (int i = 1; i <= 5; i++) {
+			queue.offer(message("N" + i, MessagePriority.NORMAL));
+		}
+		queue.offer(message("C1", MessagePriority.CONTROL));
+		Assertions.assertTrue(call.written.isEmpty());
+		Assertions.assertEquals(9, queue.size());
+
+		call.ready = true;
+		call.onReadyHandler.run();
+
+		Assertions.assertEquals(Arrays.asList("C1", "N1", "N2", "N3", "N4", "B1", "N5", "B2", "B3"), call.written);
+		Assertions.assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void testClosedQueueRejects() {
+		FakeCall call = new FakeCall();
+		call.ready = true;
+		OutboundMessageQueue queue = new OutboundMessageQueue(call);
+		Assertions.assertEquals(OfferResult.QUEUED, queue.offer(message("N1", MessagePriority.NORMAL)));
+		queue.onCompleted();
+		Assertions.assertTrue(call.completed);
+		Assertions.assertEquals(OfferResult.CLOSED, queue.offer(message("N2", MessagePriority.NORMAL)));
+	}
+
+	@Test
+	public void testConcurrentSendersSingleWriter() throws InterruptedException {
+		FakeCall call = new FakeCall();
+		call.ready = true;
+		OutboundMessageQueue queue = new OutboundMessageQueue(call);
+		int threads = 8;
+		int perThread = 2000;
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> senders = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int sender = t;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < perThread; i++) {
+					queue.offer(message(sender + "-" + i, i % 3));
+				}
+			});
+			senders.add(thread);
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : senders) {
+			thread.join();
+		}
+
+		Assertions.assertFalse(call.overlapped);
+		Assertions.assertEquals(threads * perThread, call.written.size());
+		Assertions.assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void testDroppedMessageIsReported() {
+		FakeCall call = new FakeCall();
+		OutboundBudget budget = new OutboundBudget(1, 0, SlowConsumerPolicy.DROP_LOWEST_PRIORITY, 0, null);
+		OutboundMessageQueue queue = new OutboundMessageQueue(call, budget);
+		Assertions.assertEquals(OfferResult.QUEUED, queue.offer(message("N1", MessagePriority.NORMAL)));
+		Assertions.assertEquals(OfferResult.DROPPED, queue.offer(message("B1", MessagePriority.BULK)));
+		Assertions.assertEquals(1, queue.getDroppedCount());
+		Assertions.assertEquals(1, queue.size());
+	}
+
+	@Test
+	public void testSharedLimitTakesRoomFromLargestQueue() {
+		TunnelMessage sample = message("S0", MessagePriority.NORMAL);
+		int bytes = sample.getSerializedSize();
+		OutboundMemoryLimit limit = new OutboundMemoryLimit(bytes * 4L);
+		OutboundBudget budget = new OutboundBudget(0, 0, SlowConsumerPolicy.DISCONNECT, 0, limit);
+		FakeCall slowCall = new FakeCall();
+		OutboundMessageQueue slow = new OutboundMessageQueue(slowCall, budget);
+		for (int i = 0; i < 4; i++) {
+			Assertions.assertEquals(OfferResult.QUEUED, slow.offer(message("S" + i, MessagePriority.NORMAL)));
+		}
+		OutboundMessageQueue healthy = new OutboundMessageQueue(new FakeCall(), budget);
+
+		// the healthy queue is within its own budget, the slow consumer holding the memory is disconnected
+		Assertions.assertEquals(OfferResult.QUEUED, healthy.offer(message("H0", MessagePriority.NORMAL)));
+		Assertions.assertTrue(slow.isClosed());
+		Assertions.assertFalse(healthy.isClosed());
+		Assertions.assertEquals(0, slow.getQueuedBytes());
+		Assertions.assertEquals(bytes, limit.getUsed());
+	}
+
+	@Test
+	public void testConcurrentSendersRespectQueueLimit() throws InterruptedException {
+		FakeCall call = new FakeCall();
+		OutboundBudget budget = new OutboundBudget(50, 0, SlowConsumerPolicy.DROP_LOWEST_PRIORITY, 0, null);
+		OutboundMessageQueue queue = new OutboundMessageQueue(call, budget);
+		List<Thread> senders = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					queue.offer(message("M" + i, MessagePriority.NORMAL));
+				}
+			});
+			senders.add(thread);
+			thread.start();
+		}
+		for (Thread thread : senders) {
+			thread.join();
+		}
+		Assertions.assertEquals(50, queue.size());
+		Assertions.assertEquals(8 * 1000 - 50, queue.getDroppedCount());
+	}
+
+	@Test
+	public void testBlockDoesNotWaitOnCallThread() {
+		FakeCall call = new FakeCall();
+		OutboundBudget budget = new OutboundBudget(1, 0, SlowConsumerPolicy.BLOCK, 60_000, null);
+		OutboundMessageQueue queue = new OutboundMessageQueue(call, budget);
+		Assertions.assertEquals(OfferResult.QUEUED, queue.offer(message("N1", MessagePriority.NORMAL)));
+
+		boolean entered = OutboundMessageQueue.enterCallThread();
+		long start = System.nanoTime();
+		try {
+			Assertions.assertEquals(OfferResult.DROPPED, queue.offer(message("N2", MessagePriority.NORMAL)));
+		} finally {
+			OutboundMessageQueue.exitCallThread(entered);
+		}
+		Assertions.assertTrue(System.nanoTime() - start < 5_000_000_000L);
+		Assertions.assertEquals(1, queue.getDroppedCount());
+	}
+
+	private static TunnelMessage message(String id, int priority) {
+		return TunnelMessage.newBuilder().setMessageId(id).setPriority(priority).build();
+	}
+
+	private static class FakeCall extends CallStreamObserver<TunnelMessage> {
+		private final List<String> written = new ArrayList<>();
+		private boolean ready;
+		private boolean completed;
+		private Runnable onReadyHandler;
+		private final AtomicBoolean writing = new AtomicBoolean();
+		private volatile boolean overlapped;
+
+		@Override
+		public boolean isReady() {
+			return ready;
+		}
+
+		@Override
+		public void setOnReadyHandler(Runnable onReadyHandler) {
+			this.onReadyHandler = onReadyHandler;
+		}
+
+		@Override
+		public void disableAutoInboundFlowControl() {
+		}
+
+		@Override
+		public void request(int count) {
+		}
+
+		@Override
+		public void setMessageCompression(boolean enable) {
+		}
+
+		@Override
+		public void onNext(TunnelMessage value) {
+			if (!writing.compareAndSet(false, true)) {
+				overlapped = true;
+			}
+			written.add(value.getMessageId());
+			writing.set(false);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+		}
+
+		@Override
+		public void onCompleted() {
+			completed = true;
+		}
+	}
+}
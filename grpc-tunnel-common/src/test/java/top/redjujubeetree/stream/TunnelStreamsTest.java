@@ -0,0 +1,255 @@
+package top.redjujubeetree.stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import top.redjujubetree.grpc.tunnel.constant.TunnelControlTypes;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.RequestPayload;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.stream.ResponseStream;
+import top.redjujubetree.grpc.tunnel.stream.ResponseStreamWriter;
+import top.redjujubetree.grpc.tunnel.stream.StreamingMessageHandler;
+import top.redjujubetree.grpc.tunnel.stream.TunnelStreamException;
+import top.redjujubetree.grpc.tunnel.stream.TunnelStreams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public class TunnelStreamsTest {
+
+	@Test
+	public void testWriterStopsAtWindow() throws InterruptedException {
+		AtomicInteger written = new AtomicInteger();
+		try (Tunnel tunnel = new Tunnel(writer -> {
+			for (int i = 0; i < 10; i++) {
+				writer.next("part-" + i);
+				written.incrementAndGet();
+			}
+		})) {
+			tunnel.open(4, 5000);
+			await(() -> written.get() == 4);
+			Thread.sleep(200);
+			// nothing was consumed, the writer waits for credit beyond the initial window
+			Assertions.assertEquals(4, written.get());
+			Assertions.assertEquals(4, tunnel.partials());
+			Assertions.assertEquals(1, tunnel.count(TunnelControlTypes.STREAM_CREDIT));
+		}
+	}
+
+	@Test
+	public void testCreditResumesWriter() throws InterruptedException {
+		try (Tunnel tunnel = new Tunnel(writer -> {
+			for (int i = 0; i < 10; i++) {
+				writer.next("part-" + i);
+			}
+		})) {
+			ResponseStream stream = tunnel.open(4, 5000);
+			List<String> parts = new ArrayList<>();
+			while (stream.hasNext()) {
+				parts.add(stream.next().getResponse().getData().toStringUtf8());
+			}
+			for (int i = 0; i < 10; i++) {
+				Assertions.assertEquals("part-" + i, parts.get(i));
+			}
+			Assertions.assertEquals(10, parts.size());
+			// the initial window, then a credit each time half of it was consumed
+			Assertions.assertEquals(6, tunnel.count(TunnelControlTypes.STREAM_CREDIT));
+			Assertions.assertEquals(10, tunnel.partials());
+			TunnelMessage last = tunnel.toRequester.get(tunnel.toRequester.size() - 1);
+			Assertions.assertEquals(200, last.getResponse().getCode());
+			// the delivering thread unregisters the stream right after handing over the terminal response
+			await(() -> tunnel.requester.getActiveStreamCount() == 0);
+			Assertions.assertEquals(0, tunnel.responder.getActiveStreamCount());
+		}
+	}
+
+	@Test
+	public void testCancelStopsHandler() throws InterruptedException {
+		CountDownLatch cancelled = new CountDownLatch(1);
+		try (Tunnel tunnel = new Tunnel(writer -> {
+			try {
+				for (int i = 0; ; i++) {
+					writer.next("part-" + i);
+				}
+			} catch (CancellationException e) {
+				cancelled.countDown();
+				throw e;
+			}
+		})) {
+			ResponseStream stream = tunnel.open(2, 5000);
+			Assertions.assertEquals("part-0", stream.next().getResponse().getData().toStringUtf8());
+			stream.close();
+
+			Assertions.assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+			Assertions.assertEquals(1, tunnel.count(TunnelControlTypes.STREAM_CANCEL));
+			Assertions.assertFalse(stream.hasNext());
+			// a cancelled stream gets no terminal response
+			for (TunnelMessage message : tunnel.toRequester) {
+				Assertions.assertEquals(ResponseStream.PARTIAL, message.getResponse().getCode());
+			}
+			Assertions.assertEquals(0, tunnel.requester.getActiveStreamCount());
+			Assertions.assertEquals(0, tunnel.responder.getActiveStreamCount());
+		}
+	}
+
+	@Test
+	public void testStalledStreamTimesOut() {
+		CountDownLatch release = new CountDownLatch(1);
+		try (Tunnel tunnel = new Tunnel(writer -> {
+			writer.next("part-0");
+			release.await();
+		})) {
+			ResponseStream stream = tunnel.open(4, 200);
+			Assertions.assertEquals("part-0", stream.next().getResponse().getData().toStringUtf8());
+			long start = System.nanoTime();
+			TunnelStreamException e = Assertions.assertThrows(TunnelStreamException.class, stream::hasNext);
+			Assertions.assertEquals(0, e.getCode());
+			Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+			// the requester gave up, the responder is told to stop
+			Assertions.assertEquals(1, tunnel.count(TunnelControlTypes.STREAM_CANCEL));
+			Assertions.assertEquals(0, tunnel.responder.getActiveStreamCount());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void testHandlerErrorEndsStream() {
+		try (Tunnel tunnel = new Tunnel(writer -> {
+			writer.next("part-0");
+			throw new IllegalStateException("export failed");
+		})) {
+			ResponseStream stream = tunnel.open(4, 5000);
+			Assertions.assertEquals("part-0", stream.next().getResponse().getData().toStringUtf8());
+			TunnelStreamException e = Assertions.assertThrows(TunnelStreamException.class, stream::hasNext);
+			Assertions.assertEquals(500, e.getCode());
+			Assertions.assertEquals("export failed", e.getMessage());
+			Assertions.assertFalse(stream.hasNext());
+		}
+	}
+
+	@Test
+	public void testCloseAllOnDisconnect() throws InterruptedException {
+		CountDownLatch cancelled = new CountDownLatch(1);
+		try (Tunnel tunnel = new Tunnel(writer -> {
+			try {
+				for (int i = 0; ; i++) {
+					writer.next("part-" + i);
+				}
+			} catch (CancellationException e) {
+				cancelled.countDown();
+				throw e;
+			}
+		})) {
+			ResponseStream stream = tunnel.open(1, 5000);
+			// the writer used up the window and waits for credit
+			await(() -> tunnel.partials() == 1);
+
+			tunnel.requester.closeAll("Connection closed");
+			tunnel.responder.closeAll("Connection closed");
+
+			Assertions.assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+			// what arrived before the disconnect is still read, then the stream fails
+			Assertions.assertEquals("part-0", stream.next().getResponse().getData().toStringUtf8());
+			TunnelStreamException e = Assertions.assertThrows(TunnelStreamException.class, stream::hasNext);
+			Assertions.assertEquals("Connection closed", e.getCause().getMessage());
+			Assertions.assertEquals(0, tunnel.requester.getActiveStreamCount());
+			Assertions.assertEquals(0, tunnel.responder.getActiveStreamCount());
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			Assertions.assertTrue(System.nanoTime() < deadline, "condition not met in time");
+			Thread.sleep(10);
+		}
+	}
+
+	private interface StreamBody {
+		void write(ResponseStreamWriter writer) throws Exception;
+	}
+
+	/**
+	 * both ends of a tunnel in one process, every message is delivered on the thread that sends it
+	 */
+	private static class Tunnel implements AutoCloseable {
+		private final TunnelStreams requester = TunnelStreams.forServer();
+		private final TunnelStreams responder = TunnelStreams.forClient();
+		private final ExecutorService executor = Executors.newCachedThreadPool();
+		private final List<TunnelMessage> toResponder = new CopyOnWriteArrayList<>();
+		private final List<TunnelMessage> toRequester = new CopyOnWriteArrayList<>();
+		private final StreamingMessageHandler handler;
+
+		Tunnel(StreamBody body) {
+			this.handler = new StreamingMessageHandler() {
+				@Override
+				public boolean support(TunnelMessage request) {
+					return true;
+				}
+
+				@Override
+				public void handleStream(TunnelMessage request, ResponseStreamWriter writer) throws Exception {
+					body.write(writer);
+				}
+			};
+		}
+
+		ResponseStream open(int window, long timeoutMillis) {
+			TunnelMessage request = TunnelMessage.newBuilder()
+					.setMessageId("export-1")
+					.setClientId("client")
+					.setType(MessageType.SERVER_REQUEST)
+					.setRequest(RequestPayload.newBuilder().setType("export"))
+					.build();
+			return requester.open(request, window, timeoutMillis, this::sendToResponder);
+		}
+
+		private boolean sendToResponder(TunnelMessage message) {
+			toResponder.add(message);
+			if (!responder.onMessage(message)) {
+				responder.serve(handler, message, this::sendToRequester, executor);
+			}
+			return true;
+		}
+
+		private boolean sendToRequester(TunnelMessage message) {
+			toRequester.add(message);
+			requester.onMessage(message);
+			return true;
+		}
+
+		int count(String controlType) {
+			int count = 0;
+			for (TunnelMessage message : toResponder) {
+				if (controlType.equals(message.getRequest().getType())) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		int partials() {
+			int count = 0;
+			for (TunnelMessage message : toRequester) {
+				if (message.getResponse().getCode() == ResponseStream.PARTIAL) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public void close() {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package top.redjujubeetree.timer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import top.redjujubetree.grpc.tunnel.timer.HashedWheelTimer;
+import top.redjujubetree.grpc.tunnel.timer.Timeout;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HashedWheelTimerTest {
+
+	@Test
+	public void testFireAndCancel() throws InterruptedException {
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+		try {
+			AtomicInteger fired = new AtomicInteger();
+			CountDownLatch latch = new CountDownLatch(1);
+			long start = System.nanoTime();
+
+			Timeout cancelled = timer.newTimeout(fired::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+			Assertions.assertTrue(cancelled.cancel());
+			// longer than one full rotation of the 8 slot wheel
+			timer.newTimeout(latch::countDown, 200, TimeUnit.MILLISECONDS);
+
+			Assertions.assertTrue(latch.await(2, TimeUnit.SECONDS));
+			Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+			Assertions.assertEquals(0, fired.get());
+			Assertions.assertTrue(cancelled.isCancelled());
+			Assertions.assertEquals(0, timer.pendingTimeouts());
+		} finally {
+			timer.stop();
+		}
+	}
+}
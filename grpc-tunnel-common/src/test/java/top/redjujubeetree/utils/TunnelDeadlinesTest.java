@@ -0,0 +1,48 @@
+package top.redjujubeetree.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.utils.TunnelDeadlines;
+
+public class TunnelDeadlinesTest {
+
+	private static final long NOW = 1_700_000_000_000L;
+
+	@Test
+	public void testTimeoutStartsOnReceipt() {
+		// the sender's clock is an hour behind, its timeout is still honoured in full
+		TunnelMessage request = TunnelMessage.newBuilder()
+				.setTimestamp(NOW - 3_600_000)
+				.setTimeoutMillis(500)
+				.build();
+		long deadline = TunnelDeadlines.localDeadline(request, NOW, 0);
+		Assertions.assertEquals(NOW + 500, deadline);
+		Assertions.assertFalse(TunnelDeadlines.isExpired(deadline, NOW + 500));
+		Assertions.assertTrue(TunnelDeadlines.isExpired(deadline, NOW + 501));
+	}
+
+	@Test
+	public void testAbsoluteDeadlineGetsSkewAllowance() {
+		TunnelMessage request = TunnelMessage.newBuilder().setDeadline(NOW - 1000).build();
+		Assertions.assertFalse(TunnelDeadlines.isExpired(TunnelDeadlines.localDeadline(request, NOW, 2000), NOW));
+		Assertions.assertTrue(TunnelDeadlines.isExpired(TunnelDeadlines.localDeadline(request, NOW, 500), NOW));
+	}
+
+	@Test
+	public void testNoDeadline() {
+		TunnelMessage request = TunnelMessage.newBuilder().build();
+		Assertions.assertEquals(0, TunnelDeadlines.localDeadline(request, NOW, 0));
+		Assertions.assertFalse(TunnelDeadlines.isExpired(0, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testExpiredResponseAnswersRequest() {
+		TunnelMessage request = TunnelMessage.newBuilder().setMessageId("request").setClientId("client").build();
+		TunnelMessage response = TunnelDeadlines.expiredResponseOf(request, MessageType.CLIENT_RESPONSE);
+		Assertions.assertEquals("request", response.getCorrelationId());
+		Assertions.assertEquals(MessageType.CLIENT_RESPONSE, response.getType());
+		Assertions.assertEquals(TunnelDeadlines.EXPIRED_CODE, response.getResponse().getCode());
+	}
+}
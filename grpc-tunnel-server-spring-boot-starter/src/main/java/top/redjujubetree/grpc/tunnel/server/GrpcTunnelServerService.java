@@ -1,13 +1,27 @@
 package top.redjujubetree.grpc.tunnel.server;
 
 import com.google.protobuf.ByteString;
+import io.grpc.BindableService;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import lombok.Getter;
 import net.devh.boot.grpc.server.service.GrpcService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import top.redjujubetree.grpc.tunnel.codec.PreSerializedMarshaller;
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.constant.TunnelControlTypes;
+import top.redjujubetree.grpc.tunnel.flow.InboundFlowController;
+import top.redjujubetree.grpc.tunnel.flow.InboundMessageListener;
+import top.redjujubetree.grpc.tunnel.flow.OutboundBudget;
+import top.redjujubetree.grpc.tunnel.flow.OutboundMemoryLimit;
+import top.redjujubetree.grpc.tunnel.flow.OutboundMessageQueue;
 import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
 import top.redjujubetree.grpc.tunnel.payload.RegisterRequest;
 import top.redjujubetree.grpc.tunnel.proto.GrpcTunnelServiceGrpc;
@@ -15,20 +29,41 @@ import top.redjujubetree.grpc.tunnel.proto.MessageType;
 import top.redjujubetree.grpc.tunnel.proto.ResponsePayload;
 import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
 import top.redjujubetree.grpc.tunnel.server.config.GrpcTunnelServerProperties;
+import top.redjujubetree.grpc.tunnel.server.connection.AttributeKey;
+import top.redjujubetree.grpc.tunnel.server.connection.ClientAttributes;
 import top.redjujubetree.grpc.tunnel.server.connection.ClientConnection;
 import top.redjujubetree.grpc.tunnel.server.connection.ConnectionManager;
+import top.redjujubetree.grpc.tunnel.server.connection.MembershipIndex;
+import top.redjujubetree.grpc.tunnel.server.executor.FairQueueExecutor;
+import top.redjujubetree.grpc.tunnel.server.executor.HandlerExecutorGroup;
+import top.redjujubetree.grpc.tunnel.server.executor.HandlerExecutorGroups;
 import top.redjujubetree.grpc.tunnel.server.filter.ClientRegisterFilter;
 import top.redjujubetree.grpc.tunnel.server.handler.ConnectionResult;
+import top.redjujubetree.grpc.tunnel.server.handler.GroupedMessageHandler;
 import top.redjujubetree.grpc.tunnel.server.handler.HeartbeatHandler;
+import top.redjujubetree.grpc.tunnel.server.ratelimit.ClientRateLimiter;
+import top.redjujubetree.grpc.tunnel.server.ratelimit.InboundRateLimits;
+import top.redjujubetree.grpc.tunnel.stream.StreamingMessageHandler;
+import top.redjujubetree.grpc.tunnel.timer.HashedWheelTimer;
+import top.redjujubetree.grpc.tunnel.utils.TunnelDeadlines;
 import top.redjujubetree.grpc.tunnel.utils.TunnelMessagesUtil;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Client Management is removed from the GrpcTunnelServerService, and now it is handled by ConnectionManager.
@@ -36,18 +71,41 @@ import java.util.concurrent.TimeUnit;
  * This service handles client connections, message processing, and heartbeat management.
  */
 @GrpcService
-public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelServiceImplBase {
+public class GrpcTunnelServerService implements GrpcTunnelServiceGrpc.AsyncService, BindableService {
     
     private static final Logger log = LoggerFactory.getLogger(GrpcTunnelServerService.class);
+    // fair queue flow and weight of a connection, resolved from its registration on the first message
+    private static final AttributeKey<FairShare> FAIR_SHARE = AttributeKey.valueOf("grpc.tunnel.server.fairShare");
+    // token buckets of a connection, kept for statistics, the observer holds its own reference
+    private static final AttributeKey<ClientRateLimiter> RATE_LIMITER = AttributeKey.valueOf("grpc.tunnel.server.rateLimiter");
     
     private final ConnectionManager connectionManager;
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
-    private ScheduledFuture<?> heartbeatCheckTask;
+    // heartbeat timeouts are detected on the timer thread and evicted on this pool
+    private final ThreadPoolExecutor evictionExecutor;
+    // bulkheads the message handlers run in
+    private final HandlerExecutorGroups handlerExecutors;
+    private final HashedWheelTimer heartbeatTimer;
+    private final boolean ownsHeartbeatTimer;
+    // streaming handlers block while the client grants no credit, keep them off the common pool
+    private final ExecutorService streamExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "grpc-tunnel-server-stream-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     
     private final GrpcTunnelServerProperties properties;
     private final List<ClientRegisterFilter> clientRegisterFilters;
     private final List<MessageHandler> messageHandlers;
     private final HeartbeatHandler heartbeatHandler;
+    private final List<InboundMessageListener> inboundListeners = new CopyOnWriteArrayList<>();
+    private final OutboundBudget outboundBudget;
+    // null when rate limiting is disabled
+    private final InboundRateLimits rateLimits;
     
     public GrpcTunnelServerService(
             GrpcTunnelServerProperties properties,
@@ -55,11 +113,47 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
             ConnectionManager connectionManager,
             List<MessageHandler> messageHandlers,
             HeartbeatHandler heartbeatHandler) {
+        this(properties, clientRegisterFilters, connectionManager, messageHandlers, heartbeatHandler, null);
+    }
+
+    /**
+     * @param timer timing wheel for heartbeat deadlines, usually the one shared with request timeouts.
+     *              When null the service creates and stops its own
+     */
+    public GrpcTunnelServerService(
+            GrpcTunnelServerProperties properties,
+            List<ClientRegisterFilter> clientRegisterFilters,
+            ConnectionManager connectionManager,
+            List<MessageHandler> messageHandlers,
+            HeartbeatHandler heartbeatHandler,
+            HashedWheelTimer timer) {
         this.properties = properties;
         this.clientRegisterFilters = clientRegisterFilters != null ? clientRegisterFilters : Collections.emptyList();
         this.connectionManager = connectionManager;
         this.messageHandlers = messageHandlers != null ? messageHandlers : Collections.emptyList();
         this.heartbeatHandler = heartbeatHandler;
+        GrpcTunnelServerProperties.FlowControl flowControl = properties.getFlowControl();
+        OutboundMemoryLimit memoryLimit = new OutboundMemoryLimit(flowControl.getMaxTotalQueuedBytes());
+        this.outboundBudget = new OutboundBudget(
+                flowControl.getMaxQueuedMessages(),
+                flowControl.getMaxQueuedBytes(),
+                flowControl.getSlowConsumerPolicy(),
+                flowControl.getBlockTimeout(),
+                memoryLimit);
+        connectionManager.setOutboundMemoryLimit(memoryLimit);
+        this.ownsHeartbeatTimer = timer == null;
+        this.heartbeatTimer = timer != null ? timer : new HashedWheelTimer("grpc-tunnel-server-heartbeat-timer");
+        int evictionThreads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        AtomicInteger evictionThreadIndex = new AtomicInteger();
+        this.evictionExecutor = new ThreadPoolExecutor(evictionThreads, evictionThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "grpc-tunnel-server-evict-" + evictionThreadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.evictionExecutor.allowCoreThreadTimeOut(true);
+        this.handlerExecutors = new HandlerExecutorGroups(properties.getExecutorGroups(), properties.getFairQueue());
+        this.rateLimits = properties.getRateLimit().isEnabled() ? new InboundRateLimits(properties.getRateLimit()) : null;
     }
 
     @PostConstruct
@@ -70,27 +164,27 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
 
         messageHandlers.sort(Comparator.comparingInt(MessageHandler::getOrder));
 
-        startHeartbeatChecker();
-
         log.info("GRPC Tunnel Server started successfully");
     }
     
     @PreDestroy
     public void destroy() {
-        // stop heartbeat checker
-        if (heartbeatCheckTask != null) {
-            heartbeatCheckTask.cancel(true);
+        // stop heartbeat deadlines, closing a connection cancels its own
+        if (ownsHeartbeatTimer) {
+            heartbeatTimer.stop();
         }
         // close all client connections
         connectionManager.shutdown();
+        streamExecutor.shutdownNow();
+        handlerExecutors.shutdown(5000);
 
-        scheduler.shutdown();
+        evictionExecutor.shutdown();
         try {
-            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
+            if (!evictionExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                evictionExecutor.shutdownNow();
             }
         } catch (InterruptedException e) {
-            scheduler.shutdownNow();
+            evictionExecutor.shutdownNow();
             Thread.currentThread().interrupt();
         }
         
@@ -98,75 +192,118 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
     }
     
     /**
-     * start heartbeat checker
+     * Arm the heartbeat deadline of a connection. Activity does not touch the timer, when the deadline fires
+     * it is moved to lastActivity + heartbeatTimeout if the client was active meanwhile, so every tick only
+     * handles connections that are actually close to expiring.
      */
-    private void startHeartbeatChecker() {
-        long checkInterval = Math.min(properties.getHeartbeatTimeout() / 3, 10*1000);
-        
-        heartbeatCheckTask = scheduler.scheduleWithFixedDelay(() -> {
+    private void armHeartbeatDeadline(ClientConnection connection, long delayMillis) {
+        connection.setHeartbeatDeadline(heartbeatTimer.newTimeout(
+                () -> onHeartbeatDeadline(connection), delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private void onHeartbeatDeadline(ClientConnection connection) {
+        if (connection.isClosed() || connectionManager.getClient(connection.getClientId()) != connection) {
+            return;
+        }
+        long remaining = connection.getLastActivity() + properties.getHeartbeatTimeout() - System.currentTimeMillis();
+        if (remaining > 0) {
+            armHeartbeatDeadline(connection, remaining);
+            return;
+        }
+        // the timer thread only detects, callbacks and closing run in parallel on the eviction pool
+        evictionExecutor.execute(() -> evictInactive(connection));
+    }
+
+    private void evictInactive(ClientConnection connection) {
+        String clientId = connection.getClientId();
+        log.warn("Client {} heartbeat timeout, so removing it", clientId);
+        if (heartbeatHandler != null) {
             try {
-                checkClientHeartbeats();
+                heartbeatHandler.handleTimeout(clientId);
             } catch (Exception e) {
-                log.error("Error during heartbeat check", e);
+                log.error("Error in heartbeat handler for client: {}", clientId, e);
             }
-        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
-        
-        log.info("Heartbeat checker started with interval: {}ms", checkInterval);
+        }
+        connectionManager.removeConnection(connection, "Heartbeat timeout");
     }
 
     /**
-     * check client heartbeats, if a client is inactive for too long, remove it.
+     * Binds the generated service definition, except that responses are written with
+     * {@link PreSerializedMarshaller} so a broadcast message is serialized once for all clients.
      */
-    private void checkClientHeartbeats() {
-        List<String> inactiveClients = connectionManager.getInactiveClients(properties.getHeartbeatTimeout());
-        for (String clientId : inactiveClients) {
-            log.warn("Client {} heartbeat timeout, so removing it", clientId);
-            if (heartbeatHandler != null) {
-                try {
-                    heartbeatHandler.handleTimeout(clientId);
-                } catch (Exception e) {
-                    log.error("Error in heartbeat handler for client: {}", clientId, e);
-                }
-            }
-            connectionManager.removeClient(clientId, "Heartbeat timeout");
-        }
+    @Override
+    public ServerServiceDefinition bindService() {
+        MethodDescriptor<TunnelMessage, TunnelMessage> establishTunnelMethod = GrpcTunnelServiceGrpc.getEstablishTunnelMethod()
+                .toBuilder()
+                .setResponseMarshaller(PreSerializedMarshaller.INSTANCE)
+                .build();
+        ServiceDescriptor generated = GrpcTunnelServiceGrpc.getServiceDescriptor();
+        ServiceDescriptor serviceDescriptor = ServiceDescriptor.newBuilder(generated.getName())
+                .setSchemaDescriptor(generated.getSchemaDescriptor())
+                .addMethod(establishTunnelMethod)
+                .build();
+        return ServerServiceDefinition.builder(serviceDescriptor)
+                .addMethod(establishTunnelMethod, ServerCalls.asyncBidiStreamingCall(this::establishTunnel))
+                .build();
     }
 
     @Override
-    public StreamObserver<TunnelMessage> establishTunnel(StreamObserver<TunnelMessage> responseObserver) {
+    public StreamObserver<TunnelMessage> establishTunnel(StreamObserver<TunnelMessage> callObserver) {
+        InboundFlowController flow = new InboundFlowController();
+        if (callObserver instanceof ServerCallStreamObserver) {
+            flow.bind((ServerCallStreamObserver<TunnelMessage>) callObserver);
+        }
+        // every send on this tunnel goes through the priority queue, bounded by the flow control budget
+        OutboundMessageQueue responseObserver = new OutboundMessageQueue(callObserver, outboundBudget);
         return new StreamObserver<TunnelMessage>() {
-            private volatile String clientId;
             private volatile ClientConnection connection;
             private volatile boolean isActive = true;
+            // null when the client is not limited
+            private ClientRateLimiter rateLimiter;
 
             @Override
             public void onNext(TunnelMessage message) {
                 if (!isActive) {
-                    log.warn("Received message for inactive connection: {}", clientId);
+                    log.warn("Received message for inactive connection: {}", clientId());
                     return;
                 }
 
+                boolean callThread = OutboundMessageQueue.enterCallThread();
                 try {
                     // init the client connection if not already done
-                    if (clientId == null) {
+                    if (connection == null) {
                         if (!initializeConnection(message, responseObserver)) {
+                            // the stream is already completed, ignore whatever the client still sends
+                            isActive = false;
                             return;
                         }
                     }
 
-                    connectionManager.recordMessageReceived(clientId);
+                    connectionManager.recordMessageReceived(connection.getClientId(), message.getSerializedSize());
+
+                    // refuse an over limit request before its payload is read or a handler is involved
+                    if (rateLimiter != null) {
+                        long retryAfterNanos = rateLimiter.acquire(message, System.nanoTime());
+                        if (retryAfterNanos > 0) {
+                            sendRateLimited(responseObserver, message, retryAfterNanos);
+                            return;
+                        }
+                    }
 
                     processMessage(message, responseObserver);
 
                 } catch (Exception e) {
-                    log.error("Error processing message from client: {}", clientId, e);
+                    log.error("Error processing message from client: {}", clientId(), e);
                     sendErrorResponse(responseObserver, message, 500, "Internal server error");
+                } finally {
+                    flow.onMessageProcessed();
+                    OutboundMessageQueue.exitCallThread(callThread);
                 }
             }
 
             private boolean initializeConnection(TunnelMessage message,
-                                                 StreamObserver<TunnelMessage> responseObserver) {
-                clientId = message.getClientId();
+                                                 OutboundMessageQueue responseObserver) {
+                String clientId = message.getClientId();
 
                 // check if the client is already connected
                 if (connectionManager.getActiveConnectionCount() >= properties.getMaxClients()) {
@@ -195,12 +332,27 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
                     closeConnectionOnEstablishTunnelFailed(responseObserver);
                     return false;
                 }
-                // create a new connection
+                // create a new connection, registration data first so it is indexed on add
                 connection = new ClientConnection(clientId, responseObserver);
-                connectionManager.addClient(connection);
                 if (!metadata.isEmpty()) {
                     connection.setMetadata(metadata);
                 }
+                connection.setRegisterRequest(registerRequest);
+                if (rateLimits != null) {
+                    rateLimiter = rateLimits.create(clientId, metadata);
+                    if (rateLimiter != null) {
+                        connection.setAttr(RATE_LIMITER, rateLimiter);
+                    }
+                }
+                connectionManager.addClient(connection);
+                ClientConnection registered = connection;
+                // a failed write or a disconnected slow consumer ends the connection
+                responseObserver.setFailureListener(error -> {
+                    isActive = false;
+                    connectionManager.removeConnection(registered, "Outbound stream failed: " + error.getMessage());
+                });
+                joinRegistrationMemberships(connection, registerRequest, metadata);
+                armHeartbeatDeadline(connection, properties.getHeartbeatTimeout());
                 // send connection acknowledgment
                 sendConnectionAck(responseObserver, message);
 
@@ -217,6 +369,34 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
                     return;
                 }
 
+                // stream control messages and partial responses of server initiated streams
+                if (connection.getStreams().onMessage(message)) {
+                    return;
+                }
+
+                // responses to requests sent with TunnelServerMessageService.requestClient
+                if (message.getType() == MessageType.CLIENT_RESPONSE && connection.completePendingRequest(message)) {
+                    return;
+                }
+
+                // the client abandoned a request, stop its handler
+                if (connection.getInflightRequests().onMessage(message)) {
+                    return;
+                }
+
+                // topic subscriptions are kept by the tunnel itself
+                if (handleSubscription(message, connection)) {
+                    return;
+                }
+
+                for (InboundMessageListener listener : inboundListeners) {
+                    try {
+                        listener.onMessage(message, flow);
+                    } catch (Exception e) {
+                        log.error("Inbound listener error for client: {}", clientId(), e);
+                    }
+                }
+
                 // to handle business messages
                 handleBusinessMessage(message, responseObserver);
             }
@@ -231,17 +411,17 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
                 if (t instanceof StatusRuntimeException) {
                     StatusRuntimeException sre = (StatusRuntimeException) t;
                     if (sre.getStatus().getCode() == Status.Code.CANCELLED) {
-                        log.info("Client {} disconnected (cancelled by client)", clientId);
+                        log.info("Client {} disconnected (cancelled by client)", clientId());
                     } else {
-                        log.warn("Connection error for client: {} - {}", clientId, sre.getStatus());
+                        log.warn("Connection error for client: {} - {}", clientId(), sre.getStatus());
                     }
                 } else {
-                    log.error("Unexpected connection error for client: {}", clientId, t);
+                    log.error("Unexpected connection error for client: {}", clientId(), t);
                 }
 
 
-                if (clientId != null) {
-                    connectionManager.removeClient(clientId, "Connection error: " + t.getMessage());
+                if (connection != null) {
+                    connectionManager.removeConnection(connection, "Connection error: " + t.getMessage());
                 }
             }
 
@@ -252,13 +432,18 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
                 }
 
                 isActive = false;
-                log.info("Client disconnected normally: {}", clientId);
+                log.info("Client disconnected normally: {}", clientId());
 
-                if (clientId != null) {
-                    connectionManager.removeClient(clientId, "Client disconnected normally");
+                if (connection != null) {
+                    connectionManager.removeConnection(connection, "Client disconnected normally");
                 }
             }
 
+            private String clientId() {
+                ClientConnection current = connection;
+                return current != null ? current.getClientId() : null;
+            }
+
             private void closeConnectionOnEstablishTunnelFailed(StreamObserver<TunnelMessage> observer) {
                 try {
                     observer.onCompleted();
@@ -269,7 +454,80 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
         };
     }
 
+    /**
+     * Groups named "attribute=value" for the configured group attributes, plus the groups listed in the
+     * connection result and register request metadata, plus the topics the client subscribed to before reconnecting.
+     */
+    private void joinRegistrationMemberships(ClientConnection connection, RegisterRequest registerRequest,
+                                             Map<String, Object> filterMetadata) {
+        Map<String, Object> registerMetadata = registerRequest != null && registerRequest.getMetadata() != null
+                ? registerRequest.getMetadata() : Collections.emptyMap();
+        MembershipIndex groups = connectionManager.getGroups();
+        for (String attribute : properties.getGroupAttributes()) {
+            for (String value : ClientAttributes.valuesOf(connection, attribute)) {
+                groups.join(attribute + "=" + value, connection);
+            }
+        }
+        for (String group : namesOf(filterMetadata.get(TunnelControlTypes.GROUPS_METADATA_KEY))) {
+            groups.join(group, connection);
+        }
+        for (String group : namesOf(registerMetadata.get(TunnelControlTypes.GROUPS_METADATA_KEY))) {
+            groups.join(group, connection);
+        }
+        for (String topic : namesOf(registerMetadata.get(TunnelControlTypes.TOPICS_METADATA_KEY))) {
+            connectionManager.getTopics().join(topic, connection);
+        }
+    }
+
+    /**
+     * names from a metadata value, either a collection or a comma separated string
+     */
+    private static List<String> namesOf(Object value) {
+        List<String> names = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                if (item != null && !item.toString().trim().isEmpty()) {
+                    names.add(item.toString().trim());
+                }
+            }
+        } else if (value != null) {
+            for (String item : value.toString().split(",")) {
+                if (!item.trim().isEmpty()) {
+                    names.add(item.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    private boolean handleSubscription(TunnelMessage message, ClientConnection connection) {
+        if (!message.hasRequest()) {
+            return false;
+        }
+        String type = message.getRequest().getType();
+        String topic = message.getRequest().getData().toStringUtf8();
+        if (TunnelControlTypes.SUBSCRIBE.equals(type)) {
+            connectionManager.getTopics().join(topic, connection);
+            log.debug("Client {} subscribed to topic {}", connection.getClientId(), topic);
+            return true;
+        }
+        if (TunnelControlTypes.UNSUBSCRIBE.equals(type)) {
+            connectionManager.getTopics().leave(topic, connection);
+            log.debug("Client {} unsubscribed from topic {}", connection.getClientId(), topic);
+            return true;
+        }
+        return false;
+    }
+
     private void handleBusinessMessage(TunnelMessage message, StreamObserver<TunnelMessage> responseObserver) {
+        // the client has already given up on this request, answer it instead of wasting a handler on it
+        long now = System.currentTimeMillis();
+        long deadline = TunnelDeadlines.localDeadline(message, now, properties.getClockSkewAllowance());
+        if (TunnelDeadlines.isExpired(deadline, now)) {
+            connectionManager.recordExpiredDropped(message.getClientId());
+            sendErrorResponse(responseObserver, message, TunnelDeadlines.EXPIRED_CODE, "Deadline exceeded");
+            return;
+        }
         if (messageHandlers == null || messageHandlers.isEmpty()) {
             if (message.hasRequest()){
                 log.warn("No message handlers configured for request {}", message.getRequest());
@@ -283,16 +541,43 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
 
         boolean handled = false;
         for (MessageHandler handler : messageHandlers) {
+            if (handler instanceof StreamingMessageHandler && handler.support(message)) {
+                handled = true;
+                ClientConnection conn = connectionManager.getClient(message.getClientId());
+                if (conn != null) {
+                    conn.getStreams().serve((StreamingMessageHandler) handler, message, conn::sendMessage, streamExecutor);
+                }
+                break;
+            }
             if (handler.support(message)) {
                 handled = true;
-                handler.handle(message).whenComplete((response, error) -> {
-                    if (error != null) {
+                ClientConnection connection = connectionManager.getClient(message.getClientId());
+                CompletableFuture<TunnelMessage> future;
+                try {
+                    future = dispatch(handler, message, connection, deadline);
+                } catch (RejectedExecutionException e) {
+                    log.warn("Rejected message {}: {}", message.getMessageId(), e.getMessage());
+                    sendErrorResponse(responseObserver, message, 503, "Server busy");
+                    break;
+                }
+                if (connection != null) {
+                    connection.getInflightRequests().track(message, future);
+                }
+                future.whenComplete((response, error) -> {
+                    if (error instanceof CancellationException) {
+                        log.debug("Client cancelled request {}, response dropped", message.getMessageId());
+                    } else if (error instanceof RejectedExecutionException) {
+                        log.warn("Rejected message {}: {}", message.getMessageId(), error.getMessage());
+                        sendErrorResponse(responseObserver, message, 503, "Server busy");
+                    } else if (error instanceof TimeoutException) {
+                        sendErrorResponse(responseObserver, message, TunnelDeadlines.EXPIRED_CODE, error.getMessage());
+                    } else if (error != null) {
                         log.error("Handler error for message: {}", message.getMessageId(), error);
                         sendErrorResponse(responseObserver, message, 500, error.getMessage());
                     } else if (response != null) {
                         ClientConnection conn = connectionManager.getClient(message.getClientId());
                         if (conn != null) {
-                            conn.incrementSent();
+                            conn.incrementSent(response.getSerializedSize());
                         }
                         responseObserver.onNext(response);
                     }
@@ -306,6 +591,113 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
         }
     }
 
+    /**
+     * run a grouped handler on its executor group, others choose their own executor.
+     * A grouped handler still waiting for a thread when the deadline passes fails with a TimeoutException instead of running.
+     */
+    private CompletableFuture<TunnelMessage> dispatch(MessageHandler handler, TunnelMessage message, ClientConnection connection,
+                                                      long deadline) {
+        if (handler instanceof GroupedMessageHandler) {
+            GroupedMessageHandler grouped = (GroupedMessageHandler) handler;
+            HandlerExecutorGroup group = handlerExecutors.get(grouped.getExecutorGroup());
+            FairQueueExecutor fairQueue = handlerExecutors.getFairQueue(group);
+            // the group may refuse the message or its deadline may pass when its turn comes, long after handle returned
+            CompletableFuture<TunnelMessage> failed = new CompletableFuture<>();
+            Executor executor;
+            if (fairQueue == null) {
+                executor = grouped.isOrdered() ? group.forKey(grouped.getOrderingKey(message)) : group;
+            } else {
+                FairShare share = connection != null
+                        ? connection.computeAttrIfAbsent(FAIR_SHARE, key -> fairShareOf(connection))
+                        : new FairShare(message.getClientId(), properties.getFairQueue().getDefaultWeight());
+                // the key's order is kept in front of the fair queue, messages waiting behind their key hold no slot.
+                // a run the group refuses drains on the refusing thread, the key is never left stalled
+                executor = grouped.isOrdered()
+                        ? group.forKey(grouped.getOrderingKey(message), fairQueue.forFlow(share.flow, share.weight, group))
+                        : fairQueue.forFlow(share.flow, share.weight, group, failed::completeExceptionally);
+            }
+            CompletableFuture<TunnelMessage> future = grouped.handle(message, untilDeadline(deadline, message, executor, failed));
+            failed.whenComplete((response, error) -> future.completeExceptionally(error));
+            return future;
+        }
+        return handler.handle(message);
+    }
+
+    /**
+     * the executor, except that a task whose deadline passed while it waited fails the request instead of running
+     */
+    private Executor untilDeadline(long deadline, TunnelMessage message, Executor executor, CompletableFuture<?> failed) {
+        if (deadline <= 0) {
+            return executor;
+        }
+        return task -> executor.execute(() -> {
+            if (TunnelDeadlines.isExpired(deadline, System.currentTimeMillis())) {
+                connectionManager.recordExpiredDropped(message.getClientId());
+                failed.completeExceptionally(new TimeoutException("Deadline exceeded while queued"));
+            } else {
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * the fair queue flow and weight of the connection, only from the metadata the registration filters
+     * attached, a client can not raise its own share or join another tenant's queue
+     */
+    private FairShare fairShareOf(ClientConnection connection) {
+        GrpcTunnelServerProperties.FairQueue config = properties.getFairQueue();
+        Map<String, Object> metadata = connection.getMetadata();
+        Object flow = connection.getClientId();
+        Object tenant = metadata != null && config.getFlowAttribute() != null ? metadata.get(config.getFlowAttribute()) : null;
+        if (tenant != null && !tenant.toString().isEmpty()) {
+            // keep tenants apart from client ids that happen to look the same
+            flow = config.getFlowAttribute() + "=" + tenant;
+        }
+        int weight = config.getDefaultWeight();
+        Object claimed = metadata != null && config.getWeightAttribute() != null ? metadata.get(config.getWeightAttribute()) : null;
+        if (claimed instanceof Number) {
+            weight = ((Number) claimed).intValue();
+        } else if (claimed != null) {
+            try {
+                weight = Integer.parseInt(claimed.toString().trim());
+            } catch (NumberFormatException e) {
+                log.debug("Client {} was given an invalid weight {}", connection.getClientId(), claimed);
+            }
+        }
+        return new FairShare(flow, Math.max(1, Math.min(config.getMaxWeight(), weight)));
+    }
+
+    /**
+     * per executor group statistics: threads, active and queued handlers, rejections
+     */
+    public Map<String, Map<String, Object>> getHandlerExecutorStatistics() {
+        return handlerExecutors.getStatistics();
+    }
+
+    /**
+     * per executor group, the queued messages and oldest wait of every client or tenant with a backlog,
+     * empty unless fair queuing is enabled
+     */
+    public Map<String, Map<Object, Map<String, Object>>> getFairQueueStatistics() {
+        return handlerExecutors.getFairQueueStatistics();
+    }
+
+    /**
+     * requests refused by the rate limits across all clients, empty when rate limiting is disabled
+     */
+    public Map<String, Object> getRateLimitStatistics() {
+        return rateLimits != null ? rateLimits.getStatistics() : Collections.emptyMap();
+    }
+
+    /**
+     * limits, available tokens and refused requests of the client, null when it is not limited
+     */
+    public Map<String, Object> getRateLimitStatistics(String clientId) {
+        ClientConnection connection = connectionManager.getClient(clientId);
+        ClientRateLimiter limiter = connection != null ? connection.attr(RATE_LIMITER) : null;
+        return limiter != null ? limiter.getStatistics() : null;
+    }
+
     private void sendConnectionAck(StreamObserver<TunnelMessage> observer, TunnelMessage request) {
         TunnelMessage response = TunnelMessage.newBuilder()
             .setMessageId(UUID.randomUUID().toString())
@@ -313,6 +705,7 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
             .setType(MessageType.SERVER_RESPONSE)
             .setTimestamp(System.currentTimeMillis())
             .setCorrelationId(request.getMessageId())
+            .setPriority(MessagePriority.CONTROL)
             .setResponse(ResponsePayload.newBuilder()
                 .setCode(200)
                 .setMessage("CONNECTION_ACK")
@@ -329,6 +722,7 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
             .setType(MessageType.SERVER_RESPONSE)
             .setTimestamp(System.currentTimeMillis())
             .setCorrelationId(request.getMessageId())
+            .setPriority(MessagePriority.CONTROL)
             .setResponse(ResponsePayload.newBuilder()
                 .setCode(200)
                 .setMessage("HEARTBEAT_ACK")
@@ -347,6 +741,7 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
             .setType(MessageType.SERVER_RESPONSE)
             .setTimestamp(System.currentTimeMillis())
             .setCorrelationId(request.getMessageId())
+            .setPriority(MessagePriority.CONTROL)
             .setResponse(ResponsePayload.newBuilder()
                 .setCode(code)
                 .setMessage(message)
@@ -355,6 +750,49 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
         observer.onNext(response);
     }
 
+    /**
+     * answer an over limit request with 429, without the info log of other errors, a flooding client
+     * would flood the log as well
+     */
+    private void sendRateLimited(StreamObserver<TunnelMessage> observer, TunnelMessage request, long retryAfterNanos) {
+        long retryAfterMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(retryAfterNanos));
+        log.debug("Rate limited request: {} of client {}, retry after {} ms",
+                request.getMessageId(), request.getClientId(), retryAfterMillis);
+        TunnelMessage response = TunnelMessage.newBuilder()
+            .setMessageId(UUID.randomUUID().toString())
+            .setClientId(request.getClientId())
+            .setType(MessageType.SERVER_RESPONSE)
+            .setTimestamp(System.currentTimeMillis())
+            .setCorrelationId(request.getMessageId())
+            // budgeted like any answer, a flooding client that does not read can not pile up refusals
+            .setPriority(MessagePriority.ofPeer(request.getPriority()))
+            .setResponse(ResponsePayload.newBuilder()
+                .setCode(429)
+                .setMessage("Too many requests, retry after " + retryAfterMillis + " ms")
+                .build())
+            .build();
+        observer.onNext(response);
+    }
+
+    /**
+     * Register an observer of inbound business messages, it sees every message before the handlers do.
+     * Listeners may pause the flow of the connection a message arrived on to push back on that client.
+     */
+    public void addInboundListener(InboundMessageListener listener) {
+        inboundListeners.add(listener);
+    }
+
+    public void removeInboundListener(InboundMessageListener listener) {
+        inboundListeners.remove(listener);
+    }
+
+    /**
+     * bytes waiting to be written across all connections
+     */
+    public long getTotalQueuedBytes() {
+        return outboundBudget.getMemoryLimit().getUsed();
+    }
+
     /**
      * get all connected clients
      */
@@ -371,7 +809,8 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
                     connection.getConnectedAt(),
                     connection.getLastActivity(),
                     connection.getMessagesSent(),
-                    connection.getMessagesReceived()
+                    connection.getMessagesReceived(),
+                    connection.getQueueDepth()
             ));
         }
         return Optional.empty();
@@ -384,14 +823,31 @@ public class GrpcTunnelServerService extends GrpcTunnelServiceGrpc.GrpcTunnelSer
         private final long lastActivity;
         private final long messagesSent;
         private final long messagesReceived;
+        private final int queueDepth;
         
         public ClientConnectionInfo(String clientId, long connectedAt, long lastActivity, 
                                    long messagesSent, long messagesReceived) {
+            this(clientId, connectedAt, lastActivity, messagesSent, messagesReceived, 0);
+        }
+
+        public ClientConnectionInfo(String clientId, long connectedAt, long lastActivity,
+                                   long messagesSent, long messagesReceived, int queueDepth) {
             this.clientId = clientId;
             this.connectedAt = connectedAt;
             this.lastActivity = lastActivity;
             this.messagesSent = messagesSent;
             this.messagesReceived = messagesReceived;
+            this.queueDepth = queueDepth;
+        }
+    }
+
+    private static final class FairShare {
+        private final Object flow;
+        private final int weight;
+
+        FairShare(Object flow, int weight) {
+            this.flow = flow;
+            this.weight = weight;
         }
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package top.redjujubetree.grpc.tunnel.server.autoconfigure;
 
 import net.devh.boot.grpc.server.autoconfigure.GrpcServerAutoConfiguration;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -14,11 +15,15 @@ import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
 import top.redjujubetree.grpc.tunnel.server.GrpcTunnelServerService;
 import top.redjujubetree.grpc.tunnel.server.config.GrpcTunnelServerProperties;
 import top.redjujubetree.grpc.tunnel.server.connection.ConnectionManager;
+import top.redjujubetree.grpc.tunnel.server.connection.OffHeapMetadataStore;
 import top.redjujubetree.grpc.tunnel.server.filter.BasicClientRegistrationFilter;
 import top.redjujubetree.grpc.tunnel.server.filter.ClientRegisterFilter;
 import top.redjujubetree.grpc.tunnel.server.handler.*;
 import top.redjujubetree.grpc.tunnel.server.listener.ClientConnectionCloseListener;
+import top.redjujubetree.grpc.tunnel.server.reactive.ReactiveTunnelServer;
+import top.redjujubetree.grpc.tunnel.timer.HashedWheelTimer;
 
+import java.nio.file.Paths;
 import java.util.List;
 
 @Configuration
@@ -58,20 +63,51 @@ public class GrpcTunnelServerAutoConfiguration {
             List<ClientRegisterFilter> clientRegisterFilters,
             ConnectionManager connectionManager,
             List<MessageHandler> messageHandlers,
-            HeartbeatHandler heartbeatHandler) {
+            HeartbeatHandler heartbeatHandler,
+            @Qualifier("grpcTunnelServerTimer") HashedWheelTimer grpcTunnelServerTimer) {
         return new GrpcTunnelServerService(
                 properties,
                 clientRegisterFilters,
                 connectionManager,
                 messageHandlers,
-                heartbeatHandler
+                heartbeatHandler,
+                grpcTunnelServerTimer
         );
     }
 
     @Bean
     @ConditionalOnMissingBean
     public ConnectionManager connectionManager(
-           @Lazy List<ClientConnectionCloseListener> clientConnectionCloseListeners) {
-        return new ConnectionManager(clientConnectionCloseListeners);
+           @Lazy List<ClientConnectionCloseListener> clientConnectionCloseListeners,
+           GrpcTunnelServerProperties properties) {
+        ConnectionManager connectionManager = new ConnectionManager(clientConnectionCloseListeners,
+                properties.getIndexedAttributes(), properties.getConnectionShards(), properties.getMaxClients());
+        GrpcTunnelServerProperties.OffHeap offHeap = properties.getOffHeap();
+        if (offHeap.isEnabled()) {
+            connectionManager.setMetadataStore(offHeap.getDirectory() != null
+                    ? OffHeapMetadataStore.mapped(Paths.get(offHeap.getDirectory()), offHeap.getSlabBytes())
+                    : OffHeapMetadataStore.direct(offHeap.getSlabBytes()));
+        }
+        return connectionManager;
     }
-}
\ No newline at end of file
+
+    /**
+     * timing wheel shared by all connections for heartbeat deadlines and the timeouts of server initiated requests
+     */
+    @Bean(name = "grpcTunnelServerTimer", destroyMethod = "stop")
+    @ConditionalOnMissingBean(name = "grpcTunnelServerTimer")
+    public HashedWheelTimer grpcTunnelServerTimer() {
+        return new HashedWheelTimer("grpc-tunnel-server-timer");
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "reactor.core.publisher.Flux")
+    static class ReactiveTunnelServerConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ReactiveTunnelServer reactiveTunnelServer(GrpcTunnelServerService grpcTunnelServerService) {
+            return new ReactiveTunnelServer(grpcTunnelServerService);
+        }
+    }
+}
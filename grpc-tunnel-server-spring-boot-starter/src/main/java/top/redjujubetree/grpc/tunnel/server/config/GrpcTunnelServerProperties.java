@@ -2,6 +2,17 @@ package top.redjujubetree.grpc.tunnel.server.config;
 
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import top.redjujubetree.grpc.tunnel.flow.SlowConsumerPolicy;
+import top.redjujubetree.grpc.tunnel.server.executor.HandlerExecutorGroup;
+import top.redjujubetree.grpc.tunnel.server.executor.HandlerRejectionPolicy;
+import top.redjujubetree.grpc.tunnel.utils.TunnelDeadlines;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Data
 @ConfigurationProperties(prefix = "grpc.tunnel.server")
@@ -10,7 +21,85 @@ public class GrpcTunnelServerProperties {
     private boolean enabled = true;
     private long heartbeatTimeout = 60000; // heartbeat timeout in milliseconds
     private int maxClients = 1000; // maximum number of clients
+    private long requestTimeout = 30000; // timeout of requests sent to clients in milliseconds
+    // how far a client's clock may be behind in milliseconds, only for older clients that send an absolute deadline
+    private long clockSkewAllowance = TunnelDeadlines.DEFAULT_CLOCK_SKEW_ALLOWANCE_MILLIS;
     private boolean tlsEnabled = false; // whether to enable TLS
     private String certChainFile; // cert chain file path
     private String privateKeyFile; // private key file path
+    private FlowControl flowControl = new FlowControl(); // outbound limits per connection
+    // register request fields or metadata keys a client is grouped by on registration, the group is named "attribute=value"
+    private List<String> groupAttributes = new ArrayList<>(Collections.singletonList("clientName"));
+    // register request fields or metadata keys ConnectionManager keeps secondary indexes for
+    private List<String> indexedAttributes = new ArrayList<>(Arrays.asList("clientName", "clientIp", "clientPlatform"));
+    private int connectionShards = 0; // registry shards, rounded up to a power of two, 0 derives it from the cpu count
+    private OffHeap offHeap = new OffHeap(); // connection metadata outside the java heap
+    // executor groups message handlers run on by group name, a "default" group is added when missing
+    private Map<String, ExecutorGroup> executorGroups = new LinkedHashMap<>();
+    private FairQueue fairQueue = new FairQueue(); // fair share of the handler threads across clients
+    private RateLimit rateLimit = new RateLimit(); // token bucket limits of what each client may send
+
+    /**
+     * Bounds of the messages waiting to be written to clients that read slower than the server sends.
+     */
+    @Data
+    public static class FlowControl {
+        private int maxQueuedMessages = 10000; // per connection, 0 means unlimited
+        private long maxQueuedBytes = 16 * 1024 * 1024; // per connection, 0 means unlimited
+        private long maxTotalQueuedBytes = 256 * 1024 * 1024; // across all connections, 0 means unlimited
+        private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT; // applied when a limit is exceeded
+        private long blockTimeout = 5000; // longest wait of a sender under the BLOCK policy in milliseconds
+    }
+
+    /**
+     * A bounded pool for the handlers of one group, see {@link HandlerExecutorGroup}.
+     */
+    @Data
+    public static class ExecutorGroup {
+        private int threads = Runtime.getRuntime().availableProcessors() * 2; // running handlers at most
+        private int queueCapacity = 1000; // handlers waiting for a thread, 0 means none wait
+        private HandlerRejectionPolicy rejectionPolicy = HandlerRejectionPolicy.REJECT; // applied when threads and queue are full
+        private boolean virtualThreads = false; // a virtual thread per handler, needs Java 21
+        private long keepAlive = 60000; // idle time before a pool thread ends in milliseconds
+    }
+
+    /**
+     * Weighted fair queuing of handler work across clients in front of each executor group, see
+     * {@link top.redjujubetree.grpc.tunnel.server.executor.FairQueueExecutor}.
+     */
+    @Data
+    public static class FairQueue {
+        private boolean enabled = false;
+        // connection metadata key a registration filter sets to the tenant clients share a queue by, unset means per client
+        private String flowAttribute;
+        private String weightAttribute = "weight"; // connection metadata key a registration filter sets to the weight of a client
+        private int defaultWeight = 1; // weight of clients without a valid weight
+        private int maxWeight = 100; // upper bound of the weight a client may claim
+        private int maxQueuedPerFlow = 1000; // messages waiting per client or tenant, more are answered with 503
+        private int quantum = 1; // messages a client of weight 1 starts per round
+    }
+
+    /**
+     * Token bucket limits of the requests each client sends, see
+     * {@link top.redjujubetree.grpc.tunnel.server.ratelimit.InboundRateLimits}. Requests over a limit are answered with 429.
+     */
+    @Data
+    public static class RateLimit {
+        private boolean enabled = false;
+        private long messagesPerSecond = 0; // requests per client, 0 means unlimited
+        private long bytesPerSecond = 0; // request bytes per client, 0 means unlimited
+        private Map<String, Long> typeMessagesPerSecond = new LinkedHashMap<>(); // requests per client and request type
+        private long burstMillis = 1000; // a client may send this long's worth of its rate at once
+        private String metadataPrefix = "rateLimit."; // connection metadata keys overriding the limits of a client
+    }
+
+    /**
+     * Keeps registration metadata of the connections in off heap slabs, for registries of millions of clients.
+     */
+    @Data
+    public static class OffHeap {
+        private boolean enabled = false;
+        private int slabBytes = 4 * 1024 * 1024; // size of each slab
+        private String directory; // slabs are memory mapped files in this directory, direct buffers when unset
+    }
 }
\ No newline at end of file
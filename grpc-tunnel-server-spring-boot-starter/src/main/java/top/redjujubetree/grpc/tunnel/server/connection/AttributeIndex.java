@@ -0,0 +1,125 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Secondary index of the connections by one registration attribute.
+ * Values and the client ids under each value are sorted, so results come in a stable
+ * (value, clientId) order that offset based pagination can rely on.
+ */
+public class AttributeIndex {
+
+    private final String attribute;
+    private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<String, ClientConnection>> index = new ConcurrentSkipListMap<>();
+    // values a connection was indexed under, removal must not depend on attributes that changed since
+    private final Map<ClientConnection, List<String>> indexed = new ConcurrentHashMap<>();
+
+    public AttributeIndex(String attribute) {
+        this.attribute = attribute;
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public void add(ClientConnection connection) {
+        List<String> values = ClientAttributes.valuesOf(connection, attribute);
+        if (values.isEmpty()) {
+            return;
+        }
+        indexed.put(connection, values);
+        for (String value : values) {
+            index.compute(value, (v, clients) -> {
+                ConcurrentSkipListMap<String, ClientConnection> target = clients != null ? clients : new ConcurrentSkipListMap<>();
+                target.put(connection.getClientId(), connection);
+                return target;
+            });
+        }
+    }
+
+    /**
+     * remove the connection, a newer connection of the same client stays indexed
+     */
+    public void remove(ClientConnection connection) {
+        List<String> values = indexed.remove(connection);
+        if (values == null) {
+            return;
+        }
+        for (String value : values) {
+            index.computeIfPresent(value, (v, clients) -> {
+                clients.remove(connection.getClientId(), connection);
+                return clients.isEmpty() ? null : clients;
+            });
+        }
+    }
+
+    public List<String> find(String value, int offset, int limit) {
+        ConcurrentSkipListMap<String, ClientConnection> clients = index.get(value);
+        if (clients == null) {
+            return Collections.emptyList();
+        }
+        return page(Collections.singletonList(clients), offset, limit);
+    }
+
+    public List<String> findByPrefix(String prefix, int offset, int limit) {
+        NavigableMap<String, ConcurrentSkipListMap<String, ClientConnection>> matching = prefix.isEmpty()
+                ? index : index.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        return page(matching.values(), offset, limit);
+    }
+
+    public List<String> findByValues(Collection<String> values, int offset, int limit) {
+        List<ConcurrentSkipListMap<String, ClientConnection>> matching = new ArrayList<>();
+        for (String value : new TreeSet<>(values)) {
+            ConcurrentSkipListMap<String, ClientConnection> clients = index.get(value);
+            if (clients != null) {
+                matching.add(clients);
+            }
+        }
+        return page(matching, offset, limit);
+    }
+
+    public int count(String value) {
+        ConcurrentSkipListMap<String, ClientConnection> clients = index.get(value);
+        return clients == null ? 0 : clients.size();
+    }
+
+    /**
+     * distinct values currently indexed
+     */
+    public List<String> getValues() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    private static List<String> page(Collection<ConcurrentSkipListMap<String, ClientConnection>> buckets, int offset, int limit) {
+        // a client indexed under several matching values is returned once
+        Set<String> seen = new HashSet<>();
+        List<String> clientIds = new ArrayList<>();
+        int skip = Math.max(0, offset);
+        for (ConcurrentSkipListMap<String, ClientConnection> clients : buckets) {
+            for (String clientId : clients.keySet()) {
+                if (!seen.add(clientId)) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (clientIds.size() >= limit) {
+                    return clientIds;
+                }
+                clientIds.add(clientId);
+            }
+        }
+        return clientIds;
+    }
+}
@@ -0,0 +1,79 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typed key of a per connection slot, see {@link ClientConnection#attr(AttributeKey)}.
+ * <p>
+ * Every key gets the next slot index when it is created, so connections store attribute values
+ * in an array and reads are a plain index lookup. Keys are meant to be constants, each one
+ * widens the slot array of every connection that stores an attribute.
+ *
+ * @param <T> type of the value
+ */
+public final class AttributeKey<T> {
+
+    private static final ConcurrentMap<String, AttributeKey<?>> KEYS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+
+    private final String name;
+    private final int index;
+
+    private AttributeKey(String name) {
+        this.name = name;
+        this.index = NEXT_INDEX.getAndIncrement();
+    }
+
+    /**
+     * the key of the name, created on first use
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AttributeKey<T> valueOf(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Attribute key name cannot be empty");
+        }
+        return (AttributeKey<T>) KEYS.computeIfAbsent(name, AttributeKey::new);
+    }
+
+    /**
+     * a new key of the name
+     *
+     * @throws IllegalArgumentException if a key of that name exists
+     */
+    public static <T> AttributeKey<T> newInstance(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Attribute key name cannot be empty");
+        }
+        AttributeKey<T> key = new AttributeKey<>(name);
+        if (KEYS.putIfAbsent(name, key) != null) {
+            throw new IllegalArgumentException("Attribute key already exists: " + name);
+        }
+        return key;
+    }
+
+    public static boolean exists(String name) {
+        return KEYS.containsKey(name);
+    }
+
+    /**
+     * number of slot indexes handed out so far
+     */
+    static int slotCount() {
+        return NEXT_INDEX.get();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    int index() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
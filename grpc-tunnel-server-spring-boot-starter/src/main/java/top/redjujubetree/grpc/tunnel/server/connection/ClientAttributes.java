@@ -0,0 +1,142 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import top.redjujubetree.grpc.tunnel.payload.RegisterRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registration attributes of a connection, as used for groups and secondary indexes.
+ * An attribute is a {@link RegisterRequest} field, else a key of the metadata returned by the
+ * registration filters, else a key of the register request metadata.
+ */
+public class ClientAttributes {
+
+    private static final String METADATA = "metadata";
+
+    private ClientAttributes() {
+    }
+
+    /**
+     * values of the attribute, a collection attribute has one value per element
+     */
+    public static List<String> valuesOf(ClientConnection connection, String attribute) {
+        OffHeapMetadata registerRecord = connection.getRegisterRecord();
+        Object value;
+        if (registerRecord != null) {
+            // read the single field in place instead of rebuilding the register request
+            value = isField(attribute) ? registerRecord.get(attribute) : null;
+        } else {
+            value = fieldOf(connection.getRegisterRequest(), attribute);
+        }
+        if (value == null) {
+            Map<String, Object> metadata = connection.getMetadata();
+            if (metadata != null) {
+                value = metadata.get(attribute);
+            }
+        }
+        if (value == null) {
+            Map<?, ?> registerMetadata = registerRecord != null
+                    ? asMap(registerRecord.get(METADATA)) : metadataOf(connection.getRegisterRequest());
+            if (registerMetadata != null) {
+                value = registerMetadata.get(attribute);
+            }
+        }
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                if (item != null && !item.toString().isEmpty()) {
+                    values.add(item.toString());
+                }
+            }
+        } else if (!value.toString().isEmpty()) {
+            values.add(value.toString());
+        }
+        return values;
+    }
+
+    /**
+     * the register request as a map of its non null fields, the form it is kept in off heap
+     */
+    static Map<String, Object> toRecord(RegisterRequest registerRequest) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        putIfNotNull(record, "clientName", registerRequest.getClientName());
+        putIfNotNull(record, "serverMachineName", registerRequest.getServerMachineName());
+        putIfNotNull(record, "clientVersion", registerRequest.getClientVersion());
+        putIfNotNull(record, "clientIp", registerRequest.getClientIp());
+        putIfNotNull(record, "clientPlatform", registerRequest.getClientPlatform());
+        putIfNotNull(record, "clientDeviceId", registerRequest.getClientDeviceId());
+        putIfNotNull(record, METADATA, registerRequest.getMetadata());
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    static RegisterRequest fromRecord(Map<String, Object> record) {
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setClientName((String) record.get("clientName"));
+        registerRequest.setServerMachineName((String) record.get("serverMachineName"));
+        registerRequest.setClientVersion((String) record.get("clientVersion"));
+        registerRequest.setClientIp((String) record.get("clientIp"));
+        registerRequest.setClientPlatform((String) record.get("clientPlatform"));
+        registerRequest.setClientDeviceId((String) record.get("clientDeviceId"));
+        registerRequest.setMetadata((Map<String, Object>) asMap(record.get(METADATA)));
+        return registerRequest;
+    }
+
+    private static void putIfNotNull(Map<String, Object> record, String key, Object value) {
+        if (value != null) {
+            record.put(key, value);
+        }
+    }
+
+    private static Map<?, ?> asMap(Object value) {
+        return value instanceof Map ? (Map<?, ?>) value : null;
+    }
+
+    private static Map<String, Object> metadataOf(RegisterRequest registerRequest) {
+        return registerRequest != null ? registerRequest.getMetadata() : null;
+    }
+
+    private static boolean isField(String attribute) {
+        switch (attribute) {
+            case "clientName":
+            case "serverMachineName":
+            case "clientVersion":
+            case "clientIp":
+            case "clientPlatform":
+            case "clientDeviceId":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Object fieldOf(RegisterRequest registerRequest, String attribute) {
+        if (registerRequest == null) {
+            return null;
+        }
+        switch (attribute) {
+            case "clientName":
+                return registerRequest.getClientName();
+            case "serverMachineName":
+                return registerRequest.getServerMachineName();
+            case "clientVersion":
+                return registerRequest.getClientVersion();
+            case "clientIp":
+                return registerRequest.getClientIp();
+            case "clientPlatform":
+                return registerRequest.getClientPlatform();
+            case "clientDeviceId":
+                return registerRequest.getClientDeviceId();
+            default:
+                return null;
+        }
+    }
+}
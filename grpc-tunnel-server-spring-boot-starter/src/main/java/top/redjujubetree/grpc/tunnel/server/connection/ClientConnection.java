@@ -3,39 +3,75 @@ package top.redjujubetree.grpc.tunnel.server.connection;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import top.redjujubetree.grpc.tunnel.flow.OfferResult;
+import top.redjujubetree.grpc.tunnel.flow.OutboundMessageQueue;
+import top.redjujubetree.grpc.tunnel.handler.InflightRequests;
+import top.redjujubetree.grpc.tunnel.payload.RegisterRequest;
 import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.stream.TunnelStreams;
+import top.redjujubetree.grpc.tunnel.timer.Timeout;
 
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 
 /**
  * Represents a client connection in the tunnel server.
  * This class holds information about the client, including its ID,
  * the observer for sending messages, connection time, last activity time,
  * and message counts (sent and received).
+ * <p>
+ * Most connections sit idle, so the per connection state is kept small: counters are plain fields
+ * updated through field updaters, metadata is stored compactly, and the stream, inflight and pending
+ * request tables are only created when the client first uses them.
  */
 public class ClientConnection {
     
     private static final Logger log = LoggerFactory.getLogger(ClientConnection.class);
+
+    private static final AtomicLongFieldUpdater<ClientConnection> MESSAGES_SENT =
+            AtomicLongFieldUpdater.newUpdater(ClientConnection.class, "messagesSent");
+    private static final AtomicLongFieldUpdater<ClientConnection> MESSAGES_RECEIVED =
+            AtomicLongFieldUpdater.newUpdater(ClientConnection.class, "messagesReceived");
+    private static final AtomicLongFieldUpdater<ClientConnection> EXPIRED_DROPPED =
+            AtomicLongFieldUpdater.newUpdater(ClientConnection.class, "expiredDropped");
+    // totals of connections not registered with a ConnectionManager
+    private static final TunnelCounters UNATTACHED = new TunnelCounters();
     
     private final String clientId;
-    private final StreamObserver<TunnelMessage> observer;
+    private final OutboundMessageQueue outbound;
     private final long connectedAt;
     private volatile long lastActivity;
-    private final AtomicLong messagesSent;
-    private final AtomicLong messagesReceived;
-    private Map<String, Object> metadata;
-    
-    private final ReentrantLock sendLock = new ReentrantLock();
+    private volatile long messagesSent;
+    private volatile long messagesReceived;
+    private volatile long expiredDropped;
+    // compact on heap, or a view of an off heap record once moved there
+    private volatile Map<String, Object> metadata;
+    private volatile RegisterRequest registerRequest;
+    // the register request fields once moved off heap, registerRequest is cleared then
+    private volatile OffHeapMetadata registerRecord;
+    private volatile Timeout heartbeatDeadline;
+    // server wide totals, attached when the connection is registered
+    private volatile TunnelCounters counters = UNATTACHED;
+    private volatile TunnelStreams streams;
+    private volatile InflightRequests inflightRequests;
+    // requests sent to the client that wait for its response, keyed by message id
+    private volatile Map<String, CompletableFuture<TunnelMessage>> pendingRequests;
+    // values of AttributeKeys by key index, created on the first write and dropped on close
+    private volatile AtomicReferenceArray<Object> attributes;
 
+    /**
+     * @param observer the tunnel's outbound queue, any other observer is wrapped into one
+     */
     public ClientConnection(String clientId, StreamObserver<TunnelMessage> observer) {
         this.clientId = clientId;
-        this.observer = observer;
+        this.outbound = observer instanceof OutboundMessageQueue
+                ? (OutboundMessageQueue) observer : new OutboundMessageQueue(observer);
         this.connectedAt = System.currentTimeMillis();
-        this.lastActivity = System.currentTimeMillis();
-        this.messagesSent = new AtomicLong(0);
-        this.messagesReceived = new AtomicLong(0);
+        this.lastActivity = connectedAt;
     }
 
     public void updateLastActivity() {
@@ -43,75 +79,425 @@ public class ClientConnection {
     }
 
     public void incrementSent() {
-        messagesSent.incrementAndGet();
+        incrementSent(0);
+    }
+
+    public void incrementSent(int bytes) {
+        MESSAGES_SENT.incrementAndGet(this);
+        counters.recordSent(bytes);
     }
 
     public void incrementReceived() {
-        messagesReceived.incrementAndGet();
+        incrementReceived(0);
+    }
+
+    public void incrementReceived(int bytes) {
+        MESSAGES_RECEIVED.incrementAndGet(this);
+        counters.recordReceived(bytes);
+    }
+
+    void attachCounters(TunnelCounters counters) {
+        this.counters = counters;
+    }
+
+    public void incrementExpiredDropped() {
+        EXPIRED_DROPPED.incrementAndGet(this);
     }
     
+    /**
+     * queue a message in the lane of its priority, it is written once the transport is ready
+     *
+     * @return false if the message was dropped by the outbound budget or the connection is closed
+     */
     public boolean sendMessage(TunnelMessage message) {
+        return send(message).isQueued();
+    }
+
+    /**
+     * like {@link #sendMessage(TunnelMessage)}, telling a dropped message from a closed connection
+     */
+    public OfferResult send(TunnelMessage message) {
         if (message == null) {
             log.warn("can not send null message - ClientId: {}", clientId);
-            return false;
+            return OfferResult.DROPPED;
         }
-        
-        sendLock.lock();
-        try {
-            observer.onNext(message);
-            messagesSent.incrementAndGet();
-            updateLastActivity();
-            
-            log.debug("message send success - ClientId: {}, MessageId: {}",
+
+        OfferResult result = outbound.offer(message);
+        if (result == OfferResult.CLOSED) {
+            log.error("发送消息失败 - ClientId: {}, MessageId: {}",
                 clientId, message.getMessageId());
-            return true;
-            
-        } catch (Exception e) {
-            log.error("发送消息失败 - ClientId: {}, MessageId: {}", 
-                clientId, message.getMessageId(), e);
-            return false;
-        } finally {
-            sendLock.unlock();
+            return result;
+        }
+        if (result == OfferResult.DROPPED) {
+            log.debug("message dropped by the outbound budget - ClientId: {}, MessageId: {}",
+                clientId, message.getMessageId());
+            return result;
         }
+        incrementSent(message.getSerializedSize());
+        updateLastActivity();
+
+        log.debug("message send success - ClientId: {}, MessageId: {}",
+            clientId, message.getMessageId());
+        return result;
     }
     
+    /**
+     * register the future of a request sent to the client, it is completed by the matching response
+     */
+    public void addPendingRequest(String messageId, CompletableFuture<TunnelMessage> future) {
+        pendingRequests().put(messageId, future);
+    }
+
+    public void removePendingRequest(String messageId, CompletableFuture<TunnelMessage> future) {
+        Map<String, CompletableFuture<TunnelMessage>> pending = pendingRequests;
+        if (pending != null) {
+            pending.remove(messageId, future);
+        }
+    }
+
+    private Map<String, CompletableFuture<TunnelMessage>> pendingRequests() {
+        Map<String, CompletableFuture<TunnelMessage>> pending = pendingRequests;
+        if (pending == null) {
+            synchronized (this) {
+                pending = pendingRequests;
+                if (pending == null) {
+                    pending = new ConcurrentHashMap<>();
+                    pendingRequests = pending;
+                }
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * complete the pending request the response correlates to
+     *
+     * @return false if no request waits for this response
+     */
+    public boolean completePendingRequest(TunnelMessage response) {
+        Map<String, CompletableFuture<TunnelMessage>> pending = pendingRequests;
+        if (pending == null || response.getCorrelationId().isEmpty()) {
+            return false;
+        }
+        CompletableFuture<TunnelMessage> future = pending.remove(response.getCorrelationId());
+        if (future == null) {
+            return false;
+        }
+        future.complete(response);
+        return true;
+    }
+
+    public int getPendingRequestCount() {
+        Map<String, CompletableFuture<TunnelMessage>> pending = pendingRequests;
+        return pending != null ? pending.size() : 0;
+    }
+
+    private void failPendingRequests(String reason) {
+        Map<String, CompletableFuture<TunnelMessage>> pending = pendingRequests;
+        if (pending == null) {
+            return;
+        }
+        for (String messageId : pending.keySet()) {
+            CompletableFuture<TunnelMessage> future = pending.remove(messageId);
+            if (future != null) {
+                future.completeExceptionally(new IllegalStateException(reason));
+            }
+        }
+    }
+
+    /**
+     * like {@link #sendMessage(TunnelMessage)} but never waits for room in the outbound queue,
+     * for fan-out where one slow client must not hold up the others
+     *
+     * @return false if the message was dropped by the outbound budget or the connection is closed
+     */
+    public boolean trySendMessage(TunnelMessage message) {
+        return trySend(message).isQueued();
+    }
+
+    /**
+     * like {@link #trySendMessage(TunnelMessage)}, telling a dropped message from a closed connection
+     */
+    public OfferResult trySend(TunnelMessage message) {
+        OfferResult result = outbound.tryOffer(message);
+        if (result.isQueued()) {
+            incrementSent(message.getSerializedSize());
+            updateLastActivity();
+        }
+        return result;
+    }
+
+    /**
+     * the pending heartbeat deadline, cancelled when the connection closes
+     */
+    public void setHeartbeatDeadline(Timeout heartbeatDeadline) {
+        this.heartbeatDeadline = heartbeatDeadline;
+    }
+
+    private void cancelHeartbeatDeadline() {
+        Timeout deadline = heartbeatDeadline;
+        if (deadline != null) {
+            deadline.cancel();
+        }
+    }
+
+    /**
+     * the value of the attribute, null if it is not set
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T attr(AttributeKey<T> key) {
+        AtomicReferenceArray<Object> current = attributes;
+        int index = key.index();
+        return current != null && index < current.length() ? (T) current.get(index) : null;
+    }
+
+    public boolean hasAttr(AttributeKey<?> key) {
+        return attr(key) != null;
+    }
+
+    /**
+     * set the attribute, a null value removes it
+     *
+     * @return the previous value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T setAttr(AttributeKey<T> key, T value) {
+        synchronized (this) {
+            return (T) slots(key).getAndSet(key.index(), value);
+        }
+    }
+
+    /**
+     * @return the value already set, or null if the value was set
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T setAttrIfAbsent(AttributeKey<T> key, T value) {
+        synchronized (this) {
+            AtomicReferenceArray<Object> slots = slots(key);
+            Object current = slots.get(key.index());
+            if (current == null) {
+                slots.set(key.index(), value);
+            }
+            return (T) current;
+        }
+    }
+
+    /**
+     * the value of the attribute, computed and set once if it is not set
+     */
+    public <T> T computeAttrIfAbsent(AttributeKey<T> key, Function<AttributeKey<T>, T> factory) {
+        T value = attr(key);
+        if (value != null) {
+            return value;
+        }
+        synchronized (this) {
+            value = attr(key);
+            if (value == null) {
+                value = factory.apply(key);
+                slots(key).set(key.index(), value);
+            }
+            return value;
+        }
+    }
+
+    public <T> T removeAttr(AttributeKey<T> key) {
+        if (attributes == null) {
+            return null;
+        }
+        return setAttr(key, null);
+    }
+
+    /**
+     * the slot array large enough for the key, callers hold the connection lock
+     */
+    private AtomicReferenceArray<Object> slots(AttributeKey<?> key) {
+        AtomicReferenceArray<Object> current = attributes;
+        if (current != null && key.index() < current.length()) {
+            return current;
+        }
+        AtomicReferenceArray<Object> grown = new AtomicReferenceArray<>(Math.max(key.index() + 1, AttributeKey.slotCount()));
+        if (current != null) {
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+        }
+        attributes = grown;
+        return grown;
+    }
+
+    private void clearAttributes() {
+        synchronized (this) {
+            attributes = null;
+        }
+    }
+
     public void closeConnection() {
-        sendLock.lock();
+        cancelHeartbeatDeadline();
+        failPendingRequests("Connection closed - ClientId: " + clientId);
+        closeStreamsAndInflight("Connection closed");
         try {
-            observer.onCompleted();
+            outbound.onCompleted();
             log.info("Connection closed - ClientId: {}", clientId);
         } catch (Exception e) {
             log.debug("error on closing - ClientId: {}", clientId, e);
-        } finally {
-            sendLock.unlock();
         }
+        clearAttributes();
     }
     
     public void closeConnectionWithError(Throwable error) {
-        sendLock.lock();
+        cancelHeartbeatDeadline();
+        failPendingRequests("Connection closed - ClientId: " + clientId + ", Error: " + error.getMessage());
+        closeStreamsAndInflight("Connection closed: " + error.getMessage());
         try {
-            observer.onError(error);
+            outbound.onError(error);
             log.info("closeConnectionWithError - ClientId: {}, Error: {}", clientId, error.getMessage());
         } catch (Exception e) {
             log.debug("closeConnectionWithError - ClientId: {}", clientId, e);
-        } finally {
-            sendLock.unlock();
         }
+        clearAttributes();
     }
 
+    private void closeStreamsAndInflight(String reason) {
+        TunnelStreams currentStreams = streams;
+        if (currentStreams != null) {
+            currentStreams.closeAll(reason);
+        }
+        InflightRequests currentInflight = inflightRequests;
+        if (currentInflight != null) {
+            currentInflight.cancelAll();
+        }
+    }
+
+    /**
+     * the metadata is copied into an immutable compact form
+     */
     public void setMetadata(Map<String, Object> metadata) {
-        this.metadata = metadata;
+        this.metadata = CompactMetadata.of(metadata);
     }
     public Map<String, Object> getMetadata() { return metadata; }
+    public void setRegisterRequest(RegisterRequest registerRequest) {
+        this.registerRequest = registerRequest;
+        this.registerRecord = null;
+    }
+
+    /**
+     * the register request, rebuilt from its record on every call once moved off heap,
+     * see {@link #getRegisterRecord()} for reading single fields
+     */
+    public RegisterRequest getRegisterRequest() {
+        RegisterRequest request = registerRequest;
+        if (request == null) {
+            OffHeapMetadata record = registerRecord;
+            if (record != null) {
+                return ClientAttributes.fromRecord(record);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * the register request fields by name when they are kept off heap, else null
+     */
+    public OffHeapMetadata getRegisterRecord() { return registerRecord; }
+
+    /**
+     * Move the metadata and register request into the store, what can not be stored there stays on heap.
+     */
+    void moveOffHeap(OffHeapMetadataStore store) {
+        Map<String, Object> current = metadata;
+        if (current instanceof CompactMetadata) {
+            int handle = store.put(current);
+            if (handle != OffHeapMetadataStore.NO_HANDLE) {
+                metadata = store.view(handle);
+            }
+        }
+        RegisterRequest request = registerRequest;
+        if (request != null) {
+            int handle = store.put(ClientAttributes.toRecord(request));
+            if (handle != OffHeapMetadataStore.NO_HANDLE) {
+                registerRecord = (OffHeapMetadata) store.view(handle);
+                registerRequest = null;
+            }
+        }
+    }
+
+    /**
+     * free the off heap records, they read as empty afterwards
+     */
+    void releaseOffHeap(OffHeapMetadataStore store) {
+        Map<String, Object> current = metadata;
+        if (current instanceof OffHeapMetadata) {
+            store.free(((OffHeapMetadata) current).getHandle());
+        }
+        OffHeapMetadata record = registerRecord;
+        if (record != null) {
+            store.free(record.getHandle());
+        }
+    }
+    public boolean isClosed() { return outbound.isClosed(); }
     public String getClientId() { return clientId; }
+
+    public TunnelStreams getStreams() {
+        TunnelStreams current = streams;
+        if (current == null) {
+            synchronized (this) {
+                current = streams;
+                if (current == null) {
+                    current = TunnelStreams.forServer();
+                    streams = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public InflightRequests getInflightRequests() {
+        InflightRequests current = inflightRequests;
+        if (current == null) {
+            synchronized (this) {
+                current = inflightRequests;
+                if (current == null) {
+                    current = new InflightRequests();
+                    inflightRequests = current;
+                }
+            }
+        }
+        return current;
+    }
     
     public long getConnectedAt() { return connectedAt; }
     public long getLastActivity() { return lastActivity; }
-    public long getMessagesSent() { return messagesSent.get(); }
-    public long getMessagesReceived() { return messagesReceived.get(); }
+    public long getMessagesSent() { return messagesSent; }
+    public long getMessagesReceived() { return messagesReceived; }
+    public long getExpiredDropped() { return expiredDropped; }
     
 
+    /**
+     * number of messages waiting in the outbound queue to be written to the client
+     */
+    public int getQueueDepth() {
+        return outbound.size();
+    }
+
+    /**
+     * serialized bytes waiting in the outbound queue
+     */
+    public long getQueuedBytes() {
+        return outbound.getQueuedBytes();
+    }
+
+    /**
+     * messages dropped by the slow consumer policy
+     */
+    public long getDroppedMessages() {
+        return outbound.getDroppedCount();
+    }
+
+    /**
+     * @deprecated use {@link #getQueueDepth()}
+     */
+    @Deprecated
     public int getQueueLength() {
-        return sendLock.getQueueLength();
+        return getQueueDepth();
     }
 }
\ No newline at end of file
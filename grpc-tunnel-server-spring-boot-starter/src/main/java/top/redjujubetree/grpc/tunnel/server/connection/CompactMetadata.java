@@ -0,0 +1,107 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable metadata of a connection kept in two parallel arrays instead of a hash table.
+ * Connections carry a handful of entries with the same few keys, so lookups scan and the
+ * key strings are shared by all connections.
+ */
+public final class CompactMetadata extends AbstractMap<String, Object> {
+
+    private static final Interner<String> KEYS = Interners.newWeakInterner();
+
+    private final String[] keys;
+    private final Object[] values;
+
+    private CompactMetadata(String[] keys, Object[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * @return null for null or empty metadata
+     */
+    public static CompactMetadata of(Map<String, Object> metadata) {
+        if (metadata == null || metadata.isEmpty()) {
+            return null;
+        }
+        if (metadata instanceof CompactMetadata) {
+            return (CompactMetadata) metadata;
+        }
+        String[] keys = new String[metadata.size()];
+        Object[] values = new Object[keys.length];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            keys[i] = entry.getKey() != null ? KEYS.intern(entry.getKey()) : null;
+            values[i] = entry.getValue();
+            i++;
+        }
+        return new CompactMetadata(keys, values);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? values[i] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (key == null ? keys[i] == null : key.equals(keys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (next >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, Object> entry = new SimpleImmutableEntry<>(keys[next], values[next]);
+                        next++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+}
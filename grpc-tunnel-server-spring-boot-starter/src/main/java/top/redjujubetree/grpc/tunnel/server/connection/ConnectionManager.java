@@ -1,32 +1,91 @@
 package top.redjujubetree.grpc.tunnel.server.connection;
 
 import lombok.extern.slf4j.Slf4j;
+import top.redjujubetree.grpc.tunnel.flow.OutboundMemoryLimit;
 import top.redjujubetree.grpc.tunnel.server.listener.ClientConnectionCloseListener;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Registry of the connected clients. Connections are spread over {@link ConnectionShard}s by clientId,
+ * iteration and sweeps go shard by shard and never copy the whole registry.
+ */
 @Slf4j
 public class ConnectionManager implements ClientManager {
-    
-    private final Map<String, ClientConnection> connections = new ConcurrentHashMap<>();
-    private final ReadWriteLock statisticsLock = new ReentrantReadWriteLock();
-    
+
+    /**
+     * shard count used when none is configured, a power of two with a few shards per core
+     */
+    public static final int DEFAULT_SHARDS = shardCountFor(Runtime.getRuntime().availableProcessors() * 4);
+
+    private final ConnectionShard[] shards;
+    private final int shardMask;
+    // bumped on every connect and disconnect, the snapshot is rebuilt lazily when it lags behind
+    private final AtomicLong membershipVersion = new AtomicLong();
+    private final Object snapshotLock = new Object();
+    private volatile ConnectionSnapshot snapshot = ConnectionSnapshot.EMPTY;
+
     // statistics
-    private long totalConnectionsEver = 0;
-    private long totalDisconnections = 0;
+    private final TunnelCounters counters = new TunnelCounters();
+    // active connections in connect order, the first entry is the oldest
+    private final ConcurrentSkipListMap<Long, ClientConnection> connectOrder = new ConcurrentSkipListMap<>();
+    private final Map<ClientConnection, Long> connectSequence = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile OutboundMemoryLimit outboundMemoryLimit;
+    private volatile OffHeapMetadataStore metadataStore;
+
+    // named groups assigned by the server and topics subscribed by clients
+    private final MembershipIndex groups = new MembershipIndex();
+    private final MembershipIndex topics = new MembershipIndex();
+    // secondary indexes by registration attribute
+    private final Map<String, AttributeIndex> attributeIndexes = new ConcurrentHashMap<>();
 
     List<ClientConnectionCloseListener> clientConnectionCloseListeners;
 
     public ConnectionManager() {
-        this.clientConnectionCloseListeners = new ArrayList<>();
+        this(null);
     }
     public ConnectionManager(List<ClientConnectionCloseListener> clientConnectionCloseListeners) {
+        this(clientConnectionCloseListeners, null);
+    }
+
+    /**
+     * @param indexedAttributes registration attributes to keep secondary indexes for, see {@link ClientAttributes}
+     */
+    public ConnectionManager(List<ClientConnectionCloseListener> clientConnectionCloseListeners,
+                             Collection<String> indexedAttributes) {
+        this(clientConnectionCloseListeners, indexedAttributes, DEFAULT_SHARDS, 0);
+    }
+
+    /**
+     * @param shardCount number of registry shards, rounded up to a power of two, 0 or less for {@link #DEFAULT_SHARDS}
+     * @param expectedClients connections expected at peak, used to presize the shards, 0 if unknown
+     */
+    public ConnectionManager(List<ClientConnectionCloseListener> clientConnectionCloseListeners,
+                             Collection<String> indexedAttributes, int shardCount, int expectedClients) {
         this.clientConnectionCloseListeners = clientConnectionCloseListeners != null ?
                 new ArrayList<>(clientConnectionCloseListeners) : new ArrayList<>();
-        clientConnectionCloseListeners.sort(Comparator.comparingInt(ClientConnectionCloseListener::getOrder));
+        this.clientConnectionCloseListeners.sort(Comparator.comparingInt(ClientConnectionCloseListener::getOrder));
+        int count = shardCount > 0 ? shardCountFor(shardCount) : DEFAULT_SHARDS;
+        int capacity = Math.max(16, expectedClients / count);
+        this.shards = new ConnectionShard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new ConnectionShard(i, capacity);
+        }
+        this.shardMask = count - 1;
+        if (indexedAttributes != null) {
+            for (String attribute : indexedAttributes) {
+                attributeIndexes.put(attribute, new AttributeIndex(attribute));
+            }
+        }
     }
     @Override
     public void addClient(ClientConnection connection) {
@@ -35,21 +94,32 @@ public class ConnectionManager implements ClientManager {
         }
         
         // if the client already exists, replace it
-        ClientConnection oldConnection = connections.put(connection.getClientId(), connection);
+        ConnectionShard shard = shardOf(connection.getClientId());
+        ClientConnection oldConnection = shard.put(connection);
+        membershipVersion.incrementAndGet();
         if (oldConnection != null) {
             log.warn("Replacing existing connection for client: {}", connection.getClientId());
             closeConnection(oldConnection);
         }
-        
-        statisticsLock.writeLock().lock();
-        try {
-            totalConnectionsEver++;
-        } finally {
-            statisticsLock.writeLock().unlock();
+        connection.attachCounters(counters);
+        OffHeapMetadataStore store = metadataStore;
+        if (store != null) {
+            connection.moveOffHeap(store);
+        }
+        long seq = sequence.incrementAndGet();
+        connectSequence.put(connection, seq);
+        connectOrder.put(seq, connection);
+        for (AttributeIndex index : attributeIndexes.values()) {
+            index.add(connection);
+        }
+        if (shard.get(connection.getClientId()) != connection) {
+            // removed while being indexed
+            unindex(connection);
         }
+        counters.recordConnected();
         
         log.info("Client connected: {} (Total active clients: {})", 
-                connection.getClientId(), connections.size());
+                connection.getClientId(), getActiveConnectionCount());
     }
 
     @Override
@@ -63,33 +133,216 @@ public class ConnectionManager implements ClientManager {
             return;
         }
         
-        ClientConnection connection = connections.remove(clientId);
+        ClientConnection connection = shardOf(clientId).remove(clientId);
         if (connection != null) {
-            statisticsLock.writeLock().lock();
-            try {
-                totalDisconnections++;
-            } finally {
-                statisticsLock.writeLock().unlock();
-            }
-            
-            log.info("Client removed: {} (Reason: {}, Total active clients: {})", 
-                    clientId, reason, connections.size());
-            closeConnection(connection);
+            onRemoved(connection, reason);
+        }
+    }
+
+    /**
+     * remove a connection only if it is still the registered one of its client,
+     * a newer connection of the same client is left alone
+     */
+    public void removeConnection(ClientConnection connection, String reason) {
+        if (connection != null && shardOf(connection.getClientId()).remove(connection)) {
+            onRemoved(connection, reason);
         }
     }
 
+    private void onRemoved(ClientConnection connection, String reason) {
+        membershipVersion.incrementAndGet();
+        counters.recordDisconnected();
+        log.info("Client removed: {} (Reason: {}, Total active clients: {})",
+                connection.getClientId(), reason, getActiveConnectionCount());
+        closeConnection(connection);
+    }
+
     @Override
     public ClientConnection getClient(String clientId) {
-        return connections.get(clientId);
+        if (clientId == null) {
+            return null;
+        }
+        return shardOf(clientId).get(clientId);
     }
 
+    /**
+     * all connections as of the current snapshot, the collection is shared and unmodifiable
+     */
     @Override
     public Collection<ClientConnection> getAllClients() {
-        return new ArrayList<>(connections.values());
+        return getSnapshot().getClients();
+    }
+
+    /**
+     * The registered connections at the current membership version. The same instance is returned
+     * until a client connects or disconnects, then the next caller rebuilds it once.
+     */
+    public ConnectionSnapshot getSnapshot() {
+        ConnectionSnapshot current = snapshot;
+        if (current.getVersion() == membershipVersion.get()) {
+            return current;
+        }
+        synchronized (snapshotLock) {
+            current = snapshot;
+            long version = membershipVersion.get();
+            if (current.getVersion() != version) {
+                // read the version before the shards, a change made meanwhile bumps it again
+                current = ConnectionSnapshot.of(version, shards);
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * changes whenever a client connects or disconnects, compare it to detect changes without reading the snapshot
+     */
+    public long getMembershipVersion() {
+        return membershipVersion.get();
     }
     
+    /**
+     * Run the action for every connection without copying the registry. Above the threshold the
+     * shards are processed in parallel on the common fork join pool, the call returns when all are done.
+     *
+     * @param parallelismThreshold connections per task, Long.MAX_VALUE runs everything on the calling thread
+     */
+    public void forEachClient(long parallelismThreshold, Consumer<ClientConnection> action) {
+        if (parallelismThreshold == Long.MAX_VALUE || getActiveConnectionCount() <= parallelismThreshold) {
+            for (ConnectionShard shard : shards) {
+                shard.forEach(Long.MAX_VALUE, action);
+            }
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new ShardTask(shards, 0, shards.length, parallelismThreshold, action));
+    }
+
+    /**
+     * Weakly consistent view of the connections for stream processing. The spliterator splits
+     * by shard first and then within a shard, so a parallel stream spreads evenly.
+     */
+    public Spliterator<ClientConnection> clientSpliterator() {
+        return new ShardSpliterator(shards, 0, shards.length);
+    }
+
+    public Stream<ClientConnection> clients(boolean parallel) {
+        return StreamSupport.stream(clientSpliterator(), parallel);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public ConnectionShard getShard(int index) {
+        return shards[index];
+    }
+
+    /**
+     * the shard a client is registered in
+     */
+    public ConnectionShard shardOf(String clientId) {
+        int h = clientId.hashCode();
+        return shards[(h ^ (h >>> 16)) & shardMask];
+    }
+
+    /**
+     * active and lifetime connection counts of every shard, to spot an uneven spread
+     */
+    public List<Map<String, Object>> getShardStatistics() {
+        List<Map<String, Object>> stats = new ArrayList<>(shards.length);
+        for (ConnectionShard shard : shards) {
+            stats.add(shard.getStatistics());
+        }
+        return stats;
+    }
+
+    public MembershipIndex getGroups() {
+        return groups;
+    }
+
+    public MembershipIndex getTopics() {
+        return topics;
+    }
+
+    /**
+     * clients whose attribute equals the value, in clientId order
+     *
+     * @throws IllegalArgumentException if the attribute is not indexed
+     */
+    public List<String> findClients(String attribute, String value, int offset, int limit) {
+        return indexOf(attribute).find(value, offset, limit);
+    }
+
+    /**
+     * clients whose attribute starts with the prefix, in (value, clientId) order
+     */
+    public List<String> findClientsByPrefix(String attribute, String prefix, int offset, int limit) {
+        return indexOf(attribute).findByPrefix(prefix, offset, limit);
+    }
+
+    /**
+     * clients whose attribute is any of the values, in (value, clientId) order
+     */
+    public List<String> findClientsByValues(String attribute, Collection<String> values, int offset, int limit) {
+        return indexOf(attribute).findByValues(values, offset, limit);
+    }
+
+    public int countClients(String attribute, String value) {
+        return indexOf(attribute).count(value);
+    }
+
+    public Set<String> getIndexedAttributes() {
+        return new HashSet<>(attributeIndexes.keySet());
+    }
+
+    private AttributeIndex indexOf(String attribute) {
+        AttributeIndex index = attributeIndexes.get(attribute);
+        if (index == null) {
+            throw new IllegalArgumentException("Attribute is not indexed: " + attribute);
+        }
+        return index;
+    }
+
+    private void unindex(ClientConnection connection) {
+        groups.leaveAll(connection);
+        topics.leaveAll(connection);
+        for (AttributeIndex index : attributeIndexes.values()) {
+            index.remove(connection);
+        }
+        Long seq = connectSequence.remove(connection);
+        if (seq != null) {
+            connectOrder.remove(seq);
+        }
+    }
+
+    /**
+     * the accounting shared by the outbound queues, reported in {@link #getStatistics()}
+     */
+    public void setOutboundMemoryLimit(OutboundMemoryLimit outboundMemoryLimit) {
+        this.outboundMemoryLimit = outboundMemoryLimit;
+    }
+
+    /**
+     * Keep the metadata and register requests of connections added from now on off heap.
+     * The store is closed with {@link #shutdown()}.
+     */
+    public void setMetadataStore(OffHeapMetadataStore metadataStore) {
+        this.metadataStore = metadataStore;
+    }
+
+    public OffHeapMetadataStore getMetadataStore() {
+        return metadataStore;
+    }
+
+    public TunnelCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * ids of all connections as of the current snapshot, the set is shared and unmodifiable
+     */
     public Set<String> getAllClientIds() {
-        return new HashSet<>(connections.keySet());
+        return getSnapshot().getClientIds();
     }
     
     /**
@@ -109,28 +362,32 @@ public class ConnectionManager implements ClientManager {
      * check if a client is connected
      */
     public boolean hasClient(String clientId) {
-        return connections.containsKey(clientId);
+        return getClient(clientId) != null;
     }
     
     /**
      * get active connection count
      */
     public int getActiveConnectionCount() {
-        return connections.size();
+        int count = 0;
+        for (ConnectionShard shard : shards) {
+            count += shard.size();
+        }
+        return count;
     }
     
     /**
      * get a specific client connection by clientId
      */
     public Optional<ClientConnection> getConnection(String clientId) {
-        return Optional.ofNullable(connections.get(clientId));
+        return Optional.ofNullable(getClient(clientId));
     }
     
     /**
      * update the last activity time of a client connection
      */
     public void recordMessageSent(String clientId) {
-        ClientConnection connection = connections.get(clientId);
+        ClientConnection connection = getClient(clientId);
         if (connection != null) {
             connection.incrementSent();
             connection.updateLastActivity();
@@ -141,47 +398,62 @@ public class ConnectionManager implements ClientManager {
      * update the last activity time of a client connection
      */
     public void recordMessageReceived(String clientId) {
-        ClientConnection connection = connections.get(clientId);
+        recordMessageReceived(clientId, 0);
+    }
+
+    /**
+     * count a received message of the given serialized size and update the last activity time
+     */
+    public void recordMessageReceived(String clientId, int bytes) {
+        ClientConnection connection = getClient(clientId);
         if (connection != null) {
-            connection.incrementReceived();
+            connection.incrementReceived(bytes);
             connection.updateLastActivity();
         }
     }
     
     /**
-     * Get statistics about the connection manager.
+     * count a request dropped because its deadline passed before it was dispatched
+     */
+    public void recordExpiredDropped(String clientId) {
+        counters.recordExpiredDropped();
+        ClientConnection connection = getClient(clientId);
+        if (connection != null) {
+            connection.incrementExpiredDropped();
+        }
+    }
+
+    /**
+     * Get statistics about the connection manager. All values are maintained as they change,
+     * reading them does not visit the connections.
      */
     public Map<String, Object> getStatistics() {
         Map<String, Object> stats = new HashMap<>();
-        
-        statisticsLock.readLock().lock();
-        try {
-            stats.put("activeConnections", connections.size());
-            stats.put("totalConnectionsEver", totalConnectionsEver);
-            stats.put("totalDisconnections", totalDisconnections);
-        } finally {
-            statisticsLock.readLock().unlock();
+        stats.put("activeConnections", getActiveConnectionCount());
+        stats.put("totalConnectionsEver", counters.getConnectionsEver());
+        stats.put("totalDisconnections", counters.getDisconnections());
+        stats.put("totalMessagesSent", counters.getMessagesSent());
+        stats.put("totalMessagesReceived", counters.getMessagesReceived());
+        stats.put("totalBytesSent", counters.getBytesSent());
+        stats.put("totalBytesReceived", counters.getBytesReceived());
+        stats.put("totalExpiredDropped", counters.getExpiredDropped());
+        OutboundMemoryLimit limit = outboundMemoryLimit;
+        if (limit != null) {
+            stats.put("totalQueuedBytes", limit.getUsed());
+            stats.put("totalDroppedMessages", limit.getDropped());
         }
-        
-        long totalMessagesSent = 0;
-        long totalMessagesReceived = 0;
-        long oldestConnection = System.currentTimeMillis();
-        
-        for (ClientConnection conn : connections.values()) {
-            totalMessagesSent += conn.getMessagesSent();
-            totalMessagesReceived += conn.getMessagesReceived();
-            oldestConnection = Math.min(oldestConnection, conn.getConnectedAt());
+        OffHeapMetadataStore store = metadataStore;
+        if (store != null) {
+            stats.put("offHeapRecords", store.getRecordCount());
+            stats.put("offHeapReservedBytes", store.getReservedBytes());
         }
-        
-        stats.put("totalMessagesSent", totalMessagesSent);
-        stats.put("totalMessagesReceived", totalMessagesReceived);
-        if (!connections.isEmpty()) {
-            stats.put("oldestConnectionAge", System.currentTimeMillis() - oldestConnection);
+        Map.Entry<Long, ClientConnection> oldest = connectOrder.firstEntry();
+        if (oldest != null) {
+            stats.put("oldestConnectionAge", System.currentTimeMillis() - oldest.getValue().getConnectedAt());
         }
-        
         return stats;
     }
-    
+
     /**
      * Get a list of inactive clients based on the last activity time.
      * @param timeout milliseconds of inactivity to consider a client inactive
@@ -190,26 +462,39 @@ public class ConnectionManager implements ClientManager {
     public List<String> getInactiveClients(long timeout) {
         List<String> inactiveClients = new ArrayList<>();
         long currentTime = System.currentTimeMillis();
-        
-        for (Map.Entry<String, ClientConnection> entry : connections.entrySet()) {
-            if (currentTime - entry.getValue().getLastActivity() > timeout) {
-                inactiveClients.add(entry.getKey());
-            }
+        for (ConnectionShard shard : shards) {
+            shard.collectInactive(currentTime, timeout, inactiveClients);
         }
         return inactiveClients;
     }
+
+    /**
+     * Inactive clients of a single shard, so a sweep can be spread over time or threads
+     * one shard at a time instead of walking the whole registry at once.
+     */
+    public List<String> getInactiveClients(int shard, long timeout) {
+        List<String> inactiveClients = new ArrayList<>();
+        shards[shard].collectInactive(System.currentTimeMillis(), timeout, inactiveClients);
+        return inactiveClients;
+    }
     
     /**
      * Shut down the ConnectionManager and close all connections.
      */
     public void shutdown() {
-        log.info("Shutting down ConnectionManager, closing {} connections", connections.size());
-        
-        for (ClientConnection connection : connections.values()) {
-            closeConnection(connection);
+        log.info("Shutting down ConnectionManager, closing {} connections", getActiveConnectionCount());
+
+        for (ConnectionShard shard : shards) {
+            for (ClientConnection connection : shard.connections.values()) {
+                closeConnection(connection);
+            }
+            shard.connections.clear();
+        }
+        membershipVersion.incrementAndGet();
+        OffHeapMetadataStore store = metadataStore;
+        if (store != null) {
+            store.close();
         }
-        
-        connections.clear();
     }
     
     /**
@@ -225,6 +510,7 @@ public class ConnectionManager implements ClientManager {
 
         try {
             connection.closeConnection();
+            unindex(connection);
 
             for (ClientConnectionCloseListener listener : clientConnectionCloseListeners) {
                 try {
@@ -234,8 +520,117 @@ public class ConnectionManager implements ClientManager {
                             listener.getClass().getSimpleName(), connection.getClientId(), e);
                 }
             }
+            OffHeapMetadataStore store = metadataStore;
+            if (store != null) {
+                connection.releaseOffHeap(store);
+            }
         } catch (Exception e) {
             log.debug("Error closing connection for client: {}", connection.getClientId(), e);
         }
     }
-}
\ No newline at end of file
+
+    private static int shardCountFor(int requested) {
+        int count = 1;
+        while (count < requested && count < (1 << 16)) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+    private static final class ShardTask extends RecursiveAction {
+        private final ConnectionShard[] shards;
+        private final int from;
+        private final int to;
+        private final long parallelismThreshold;
+        private final Consumer<ClientConnection> action;
+
+        ShardTask(ConnectionShard[] shards, int from, int to, long parallelismThreshold, Consumer<ClientConnection> action) {
+            this.shards = shards;
+            this.from = from;
+            this.to = to;
+            this.parallelismThreshold = parallelismThreshold;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ShardTask(shards, from, mid, parallelismThreshold, action),
+                        new ShardTask(shards, mid, to, parallelismThreshold, action));
+                return;
+            }
+            // a single large shard is split further by the map itself
+            shards[from].forEach(parallelismThreshold, action);
+        }
+    }
+
+    private static final class ShardSpliterator implements Spliterator<ClientConnection> {
+        private final ConnectionShard[] shards;
+        private int from;
+        private final int to;
+        // the shard being traversed, its index is already below from
+        private Spliterator<ClientConnection> current;
+
+        ShardSpliterator(ConnectionShard[] shards, int from, int to) {
+            this.shards = shards;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ClientConnection> action) {
+            while (true) {
+                if (current == null) {
+                    if (from >= to) {
+                        return false;
+                    }
+                    current = shards[from++].connections.values().spliterator();
+                }
+                if (current.tryAdvance(action)) {
+                    return true;
+                }
+                current = null;
+            }
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super ClientConnection> action) {
+            if (current != null) {
+                current.forEachRemaining(action);
+                current = null;
+            }
+            while (from < to) {
+                shards[from++].connections.values().forEach(action);
+            }
+        }
+
+        @Override
+        public Spliterator<ClientConnection> trySplit() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                Spliterator<ClientConnection> prefix = new ShardSpliterator(shards, from, mid);
+                from = mid;
+                return prefix;
+            }
+            if (current == null && from < to) {
+                current = shards[from++].connections.values().spliterator();
+            }
+            return current != null ? current.trySplit() : null;
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = current != null ? current.estimateSize() : 0;
+            for (int i = from; i < to; i++) {
+                size += shards[i].size();
+            }
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.CONCURRENT | Spliterator.NONNULL | Spliterator.DISTINCT;
+        }
+    }
+}
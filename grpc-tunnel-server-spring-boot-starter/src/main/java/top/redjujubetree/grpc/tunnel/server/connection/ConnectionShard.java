@@ -0,0 +1,82 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * One partition of the {@link ConnectionManager} registry. A client always lands in the same shard,
+ * so registration, lookups and sweeps of different shards never touch the same table.
+ */
+public class ConnectionShard {
+
+    private final int index;
+    final ConcurrentHashMap<String, ClientConnection> connections;
+    private final LongAdder connectionsEver = new LongAdder();
+    private final LongAdder disconnections = new LongAdder();
+
+    ConnectionShard(int index, int initialCapacity) {
+        this.index = index;
+        this.connections = new ConcurrentHashMap<>(initialCapacity);
+    }
+
+    ClientConnection put(ClientConnection connection) {
+        connectionsEver.increment();
+        return connections.put(connection.getClientId(), connection);
+    }
+
+    ClientConnection remove(String clientId) {
+        ClientConnection removed = connections.remove(clientId);
+        if (removed != null) {
+            disconnections.increment();
+        }
+        return removed;
+    }
+
+    boolean remove(ClientConnection connection) {
+        if (connections.remove(connection.getClientId(), connection)) {
+            disconnections.increment();
+            return true;
+        }
+        return false;
+    }
+
+    ClientConnection get(String clientId) {
+        return connections.get(clientId);
+    }
+
+    /**
+     * add the clients of this shard idle for longer than the timeout
+     */
+    void collectInactive(long now, long timeout, List<String> into) {
+        for (ClientConnection connection : connections.values()) {
+            if (now - connection.getLastActivity() > timeout) {
+                into.add(connection.getClientId());
+            }
+        }
+    }
+
+    void forEach(long parallelismThreshold, Consumer<ClientConnection> action) {
+        connections.forEachValue(parallelismThreshold, action);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("shard", index);
+        stats.put("activeConnections", connections.size());
+        stats.put("totalConnectionsEver", connectionsEver.sum());
+        stats.put("totalDisconnections", disconnections.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,59 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable view of the registered connections at one membership version. Readers share the
+ * same instance until a client connects or disconnects, comparing {@link #getVersion()} with
+ * {@link ConnectionManager#getMembershipVersion()} tells whether it is still current.
+ */
+public final class ConnectionSnapshot {
+
+    static final ConnectionSnapshot EMPTY = new ConnectionSnapshot(-1, Collections.emptyList(), Collections.emptySet());
+
+    private final long version;
+    private final List<ClientConnection> clients;
+    private final Set<String> clientIds;
+
+    private ConnectionSnapshot(long version, List<ClientConnection> clients, Set<String> clientIds) {
+        this.version = version;
+        this.clients = clients;
+        this.clientIds = clientIds;
+    }
+
+    static ConnectionSnapshot of(long version, ConnectionShard[] shards) {
+        int expected = 0;
+        for (ConnectionShard shard : shards) {
+            expected += shard.size();
+        }
+        List<ClientConnection> clients = new ArrayList<>(expected);
+        for (ConnectionShard shard : shards) {
+            clients.addAll(shard.connections.values());
+        }
+        Set<String> clientIds = new HashSet<>(Math.max(16, (int) (clients.size() / .75f) + 1));
+        for (ClientConnection connection : clients) {
+            clientIds.add(connection.getClientId());
+        }
+        return new ConnectionSnapshot(version, Collections.unmodifiableList(clients), Collections.unmodifiableSet(clientIds));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<ClientConnection> getClients() {
+        return clients;
+    }
+
+    public Set<String> getClientIds() {
+        return clientIds;
+    }
+
+    public int size() {
+        return clients.size();
+    }
+}
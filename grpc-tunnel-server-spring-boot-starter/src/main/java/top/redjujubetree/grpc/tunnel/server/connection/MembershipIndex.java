@@ -0,0 +1,110 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Named sets of connections, used for groups and topics.
+ * Both directions are indexed, so visiting a group costs its size and dropping a connection costs its memberships.
+ */
+public class MembershipIndex {
+
+    private final Map<String, ConcurrentHashMap<ClientConnection, Boolean>> members = new ConcurrentHashMap<>();
+    private final Map<ClientConnection, Set<String>> memberships = new ConcurrentHashMap<>();
+
+    /**
+     * @return false if the connection already was a member
+     */
+    public boolean join(String name, ClientConnection connection) {
+        if (name == null || name.isEmpty() || connection == null) {
+            return false;
+        }
+        memberships.computeIfAbsent(connection, c -> ConcurrentHashMap.newKeySet()).add(name);
+        boolean[] added = new boolean[1];
+        // inside compute so a group emptied concurrently is never joined after it was dropped
+        members.compute(name, (n, group) -> {
+            ConcurrentHashMap<ClientConnection, Boolean> target = group != null ? group : new ConcurrentHashMap<>();
+            added[0] = target.put(connection, Boolean.TRUE) == null;
+            return target;
+        });
+        if (connection.isClosed()) {
+            // closed while joining, its leaveAll may have run already
+            leaveAll(connection);
+            return false;
+        }
+        return added[0];
+    }
+
+    /**
+     * @return false if the connection was not a member
+     */
+    public boolean leave(String name, ClientConnection connection) {
+        Set<String> names = memberships.get(connection);
+        if (names != null) {
+            names.remove(name);
+        }
+        return removeMember(name, connection);
+    }
+
+    /**
+     * drop every membership of a closed connection
+     */
+    public void leaveAll(ClientConnection connection) {
+        Set<String> names = memberships.remove(connection);
+        if (names != null) {
+            for (String name : names) {
+                removeMember(name, connection);
+            }
+        }
+    }
+
+    /**
+     * Run the action for every member, see {@link ConnectionManager#forEachClient(long, Consumer)}
+     */
+    public void forEachMember(String name, long parallelismThreshold, Consumer<ClientConnection> action) {
+        ConcurrentHashMap<ClientConnection, Boolean> group = members.get(name);
+        if (group != null) {
+            group.forEachKey(parallelismThreshold, action);
+        }
+    }
+
+    public Set<String> getMemberIds(String name) {
+        ConcurrentHashMap<ClientConnection, Boolean> group = members.get(name);
+        if (group == null) {
+            return Collections.emptySet();
+        }
+        Set<String> clientIds = new HashSet<>();
+        for (ClientConnection connection : group.keySet()) {
+            clientIds.add(connection.getClientId());
+        }
+        return clientIds;
+    }
+
+    public int size(String name) {
+        ConcurrentHashMap<ClientConnection, Boolean> group = members.get(name);
+        return group == null ? 0 : group.size();
+    }
+
+    public Set<String> getNames() {
+        return new HashSet<>(members.keySet());
+    }
+
+    public Set<String> getNames(ClientConnection connection) {
+        Set<String> names = memberships.get(connection);
+        return names == null ? Collections.emptySet() : new HashSet<>(names);
+    }
+
+    private boolean removeMember(String name, ClientConnection connection) {
+        boolean[] removed = new boolean[1];
+        // drop the group with its last member, atomically with respect to concurrent joins
+        members.computeIfPresent(name, (n, group) -> {
+            removed[0] = group.remove(connection) != null;
+            return group.isEmpty() ? null : group;
+        });
+        return removed[0];
+    }
+}
@@ -0,0 +1,47 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read only map over a record of an {@link OffHeapMetadataStore}. {@link #get(Object)} finds the key
+ * in place and decodes only its value, iterating decodes the whole record.
+ */
+public final class OffHeapMetadata extends AbstractMap<String, Object> {
+
+    private final OffHeapMetadataStore store;
+    private final int handle;
+    private final int generation;
+
+    OffHeapMetadata(OffHeapMetadataStore store, int handle, int generation) {
+        this.store = store;
+        this.handle = handle;
+        this.generation = generation;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return key instanceof String ? store.get(handle, generation, (String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && store.read(handle, generation).containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return store.size(handle, generation);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> entries = store.read(handle, generation);
+        return entries.entrySet();
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+}
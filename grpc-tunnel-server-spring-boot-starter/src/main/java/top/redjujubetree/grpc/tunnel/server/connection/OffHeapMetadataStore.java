@@ -0,0 +1,524 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection metadata kept outside the Java heap, in slabs of direct or memory mapped buffers.
+ * <p>
+ * A record is a serialized map written once into a fixed size slot and addressed by an int handle,
+ * slots are grouped in size classes from 64 bytes to 8 KB and reused after {@link #free(int)}.
+ * Values may be strings, numbers, booleans, string collections and nested maps, anything else
+ * makes {@link #put(Map)} return {@link #NO_HANDLE} and the caller keeps the map on the heap.
+ * <p>
+ * Every slot starts with a generation that changes when the slot is freed, a view of a freed
+ * record reads as empty rather than as the record that reused the slot.
+ */
+@Slf4j
+public class OffHeapMetadataStore implements AutoCloseable {
+
+    public static final int NO_HANDLE = -1;
+    public static final int DEFAULT_SLAB_BYTES = 4 * 1024 * 1024;
+
+    private static final int MIN_SLOT_SHIFT = 6;
+    private static final int SIZE_CLASSES = 8;
+    private static final int MAX_SLABS = 1 << 12;
+    private static final int MAX_SLOTS_PER_SLAB = 1 << 16;
+    // slot header: generation, record length
+    private static final int HEADER = 8;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte STRING_LIST = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte MAP = 7;
+
+    private final int slabBytes;
+    private final Path directory;
+    private final SizeClass[] sizeClasses = new SizeClass[SIZE_CLASSES];
+    private final AtomicLong records = new AtomicLong();
+    private volatile boolean closed;
+
+    private OffHeapMetadataStore(int slabBytes, Path directory) {
+        int maxSlot = 1 << (MIN_SLOT_SHIFT + SIZE_CLASSES - 1);
+        if (slabBytes < maxSlot) {
+            throw new IllegalArgumentException("Slab must hold at least one slot of " + maxSlot + " bytes");
+        }
+        this.slabBytes = slabBytes;
+        this.directory = directory;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            int slotSize = 1 << (MIN_SLOT_SHIFT + i);
+            sizeClasses[i] = new SizeClass(i, slotSize, Math.min(slabBytes / slotSize, MAX_SLOTS_PER_SLAB));
+        }
+    }
+
+    /**
+     * store backed by direct buffers
+     */
+    public static OffHeapMetadataStore direct(int slabBytes) {
+        return new OffHeapMetadataStore(slabBytes, null);
+    }
+
+    /**
+     * store backed by files mapped into memory, the files are deleted right after mapping
+     * so they disappear with the process
+     */
+    public static OffHeapMetadataStore mapped(Path directory, int slabBytes) {
+        return new OffHeapMetadataStore(slabBytes, directory);
+    }
+
+    /**
+     * serialize the map into a free slot
+     *
+     * @return the handle of the record, or {@link #NO_HANDLE} if the map is empty, has values that can not be
+     * stored off heap or does not fit the largest slot
+     */
+    public int put(Map<String, ?> map) {
+        if (closed || map == null || map.isEmpty()) {
+            return NO_HANDLE;
+        }
+        byte[] record;
+        try {
+            record = encode(map);
+        } catch (IllegalArgumentException e) {
+            log.debug("Metadata kept on heap: {}", e.getMessage());
+            return NO_HANDLE;
+        }
+        int needed = record.length + HEADER;
+        for (SizeClass sizeClass : sizeClasses) {
+            if (sizeClass.slotSize >= needed) {
+                int handle = sizeClass.allocate();
+                if (handle == NO_HANDLE) {
+                    return NO_HANDLE;
+                }
+                ByteBuffer slab = sizeClass.slab(handle);
+                int offset = sizeClass.offset(handle);
+                slab.putInt(offset + 4, record.length);
+                for (int i = 0; i < record.length; i++) {
+                    slab.put(offset + HEADER + i, record[i]);
+                }
+                records.incrementAndGet();
+                return handle;
+            }
+        }
+        return NO_HANDLE;
+    }
+
+    /**
+     * read only map view of a record, values are decoded when read
+     */
+    public Map<String, Object> view(int handle) {
+        if (handle == NO_HANDLE) {
+            return null;
+        }
+        return new OffHeapMetadata(this, handle, generation(handle));
+    }
+
+    /**
+     * release the slot of a record, views of it read as empty from now on
+     */
+    public void free(int handle) {
+        if (handle == NO_HANDLE || closed) {
+            return;
+        }
+        sizeClassOf(handle).free(handle);
+        records.decrementAndGet();
+    }
+
+    public long getRecordCount() {
+        return records.get();
+    }
+
+    /**
+     * bytes of the allocated slabs
+     */
+    public long getReservedBytes() {
+        long reserved = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            reserved += (long) sizeClass.slabCount() * slabBytes;
+        }
+        return reserved;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (SizeClass sizeClass : sizeClasses) {
+            sizeClass.clear();
+        }
+        records.set(0);
+    }
+
+    int generation(int handle) {
+        SizeClass sizeClass = sizeClassOf(handle);
+        ByteBuffer slab = sizeClass.slab(handle);
+        return slab == null ? -1 : slab.getInt(sizeClass.offset(handle));
+    }
+
+    /**
+     * value of the key, decoding nothing but that value
+     *
+     * @return null if the key is absent or the record was freed
+     */
+    Object get(int handle, int generation, String key) {
+        SizeClass sizeClass = sizeClassOf(handle);
+        ByteBuffer slab = sizeClass.slab(handle);
+        if (slab == null) {
+            return null;
+        }
+        int offset = sizeClass.offset(handle);
+        if (slab.getInt(offset) != generation) {
+            return null;
+        }
+        Object value = null;
+        try {
+            int pos = offset + HEADER;
+            int count = slab.getInt(pos);
+            pos += 4;
+            for (int i = 0; i < count; i++) {
+                int keyLength = slab.getInt(pos);
+                pos += 4;
+                boolean match = keyEquals(slab, pos, keyLength, key);
+                pos += keyLength;
+                if (match) {
+                    value = decodeValue(slab, pos);
+                    break;
+                }
+                pos = skipValue(slab, pos);
+            }
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            // a slot rewritten while it was read may hold anything, the generation check below rejects it
+        }
+        // the slot may have been freed and reused while it was read
+        return slab.getInt(offset) == generation ? value : null;
+    }
+
+    /**
+     * all entries of the record, empty if it was freed
+     */
+    Map<String, Object> read(int handle, int generation) {
+        SizeClass sizeClass = sizeClassOf(handle);
+        ByteBuffer slab = sizeClass.slab(handle);
+        if (slab == null) {
+            return Collections.emptyMap();
+        }
+        int offset = sizeClass.offset(handle);
+        if (slab.getInt(offset) != generation) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> map;
+        try {
+            map = decodeMap(slab, offset + HEADER);
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            return Collections.emptyMap();
+        }
+        return slab.getInt(offset) == generation ? Collections.unmodifiableMap(map) : Collections.<String, Object>emptyMap();
+    }
+
+    int size(int handle, int generation) {
+        SizeClass sizeClass = sizeClassOf(handle);
+        ByteBuffer slab = sizeClass.slab(handle);
+        if (slab == null) {
+            return 0;
+        }
+        int offset = sizeClass.offset(handle);
+        int count = slab.getInt(offset + HEADER);
+        return slab.getInt(offset) == generation ? count : 0;
+    }
+
+    private SizeClass sizeClassOf(int handle) {
+        return sizeClasses[handle >>> 28];
+    }
+
+    private ByteBuffer newSlab() {
+        if (directory == null) {
+            return ByteBuffer.allocateDirect(slabBytes);
+        }
+        try {
+            Path file = Files.createTempFile(directory, "tunnel-metadata-", ".slab");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, slabBytes);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not map metadata slab in " + directory, e);
+        }
+    }
+
+    private static boolean keyEquals(ByteBuffer slab, int pos, int length, String key) {
+        if (length == key.length()) {
+            // ascii keys are compared in place
+            boolean ascii = true;
+            for (int i = 0; i < length; i++) {
+                char c = key.charAt(i);
+                if (c >= 0x80) {
+                    ascii = false;
+                    break;
+                }
+                if (slab.get(pos + i) != (byte) c) {
+                    return false;
+                }
+            }
+            if (ascii) {
+                return true;
+            }
+        }
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (slab.get(pos + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encode(Map<String, ?> map) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            encodeMap(out, map);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void encodeMap(DataOutputStream out, Map<?, ?> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                throw new IllegalArgumentException("key is not a string: " + entry.getKey());
+            }
+            writeString(out, (String) entry.getKey());
+            encodeValue(out, entry.getValue());
+        }
+    }
+
+    private static void encodeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Collection) {
+            Collection<?> items = (Collection<?>) value;
+            out.writeByte(STRING_LIST);
+            out.writeInt(items.size());
+            for (Object item : items) {
+                if (!(item instanceof String)) {
+                    throw new IllegalArgumentException("collection item is not a string: " + item);
+                }
+                writeString(out, (String) item);
+            }
+        } else if (value instanceof Map) {
+            out.writeByte(MAP);
+            encodeMap(out, (Map<?, ?>) value);
+        } else {
+            throw new IllegalArgumentException("unsupported value type: " + value.getClass().getName());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Map<String, Object> decodeMap(ByteBuffer slab, int pos) {
+        int count = slab.getInt(pos);
+        pos += 4;
+        Map<String, Object> map = new LinkedHashMap<>(Math.max(4, count * 2));
+        for (int i = 0; i < count; i++) {
+            int keyLength = slab.getInt(pos);
+            String key = readString(slab, pos + 4, keyLength);
+            pos += 4 + keyLength;
+            map.put(key, decodeValue(slab, pos));
+            pos = skipValue(slab, pos);
+        }
+        return map;
+    }
+
+    private static Object decodeValue(ByteBuffer slab, int pos) {
+        byte type = slab.get(pos);
+        pos++;
+        switch (type) {
+            case STRING:
+                return readString(slab, pos + 4, slab.getInt(pos));
+            case INT:
+                return slab.getInt(pos);
+            case LONG:
+                return slab.getLong(pos);
+            case DOUBLE:
+                return slab.getDouble(pos);
+            case BOOLEAN:
+                return slab.get(pos) != 0;
+            case STRING_LIST: {
+                int count = slab.getInt(pos);
+                pos += 4;
+                List<String> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int length = slab.getInt(pos);
+                    items.add(readString(slab, pos + 4, length));
+                    pos += 4 + length;
+                }
+                return items;
+            }
+            case MAP:
+                return decodeMap(slab, pos);
+            default:
+                return null;
+        }
+    }
+
+    private static int skipValue(ByteBuffer slab, int pos) {
+        byte type = slab.get(pos);
+        pos++;
+        switch (type) {
+            case STRING:
+                return pos + 4 + slab.getInt(pos);
+            case INT:
+                return pos + 4;
+            case LONG:
+            case DOUBLE:
+                return pos + 8;
+            case BOOLEAN:
+                return pos + 1;
+            case STRING_LIST: {
+                int count = slab.getInt(pos);
+                pos += 4;
+                for (int i = 0; i < count; i++) {
+                    pos += 4 + slab.getInt(pos);
+                }
+                return pos;
+            }
+            case MAP: {
+                int count = slab.getInt(pos);
+                pos += 4;
+                for (int i = 0; i < count; i++) {
+                    pos += 4 + slab.getInt(pos);
+                    pos = skipValue(slab, pos);
+                }
+                return pos;
+            }
+            default:
+                return pos;
+        }
+    }
+
+    private static String readString(ByteBuffer slab, int pos, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = slab.get(pos + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Slots of one size, handles are {@code class << 28 | slab << 16 | slot}.
+     */
+    private final class SizeClass {
+        private final int index;
+        private final int slotSize;
+        private final int slotsPerSlab;
+        private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+        private int[] free = new int[16];
+        private int freeCount;
+        // next never used slot of the last slab
+        private int nextSlot;
+
+        SizeClass(int index, int slotSize, int slotsPerSlab) {
+            this.index = index;
+            this.slotSize = slotSize;
+            this.slotsPerSlab = slotsPerSlab;
+        }
+
+        synchronized int allocate() {
+            if (freeCount > 0) {
+                return free[--freeCount];
+            }
+            ByteBuffer[] current = slabs;
+            if (current.length == 0 || nextSlot == slotsPerSlab) {
+                if (current.length == MAX_SLABS) {
+                    log.warn("Off heap metadata slots of {} bytes exhausted", slotSize);
+                    return NO_HANDLE;
+                }
+                ByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+                grown[current.length] = newSlab();
+                slabs = grown;
+                current = grown;
+                nextSlot = 0;
+            }
+            return index << 28 | (current.length - 1) << 16 | nextSlot++;
+        }
+
+        synchronized void free(int handle) {
+            ByteBuffer slab = slab(handle);
+            if (slab == null) {
+                return;
+            }
+            int offset = offset(handle);
+            slab.putInt(offset, slab.getInt(offset) + 1);
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount++] = handle;
+        }
+
+        synchronized void clear() {
+            slabs = new ByteBuffer[0];
+            free = new int[16];
+            freeCount = 0;
+            nextSlot = 0;
+        }
+
+        ByteBuffer slab(int handle) {
+            ByteBuffer[] current = slabs;
+            int slab = (handle >>> 16) & (MAX_SLABS - 1);
+            return slab < current.length ? current[slab] : null;
+        }
+
+        int offset(int handle) {
+            return (handle & (MAX_SLOTS_PER_SLAB - 1)) * slotSize;
+        }
+
+        int slabCount() {
+            return slabs.length;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package top.redjujubetree.grpc.tunnel.server.connection;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server wide totals, updated by every connection as it goes.
+ * Striped adders keep concurrent updates from contending, reads sum a few cells and never scan connections.
+ */
+public class TunnelCounters {
+
+    private final LongAdder connectionsEver = new LongAdder();
+    private final LongAdder disconnections = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder expiredDropped = new LongAdder();
+
+    public void recordConnected() {
+        connectionsEver.increment();
+    }
+
+    public void recordDisconnected() {
+        disconnections.increment();
+    }
+
+    public void recordSent(long bytes) {
+        messagesSent.increment();
+        bytesSent.add(bytes);
+    }
+
+    public void recordReceived(long bytes) {
+        messagesReceived.increment();
+        bytesReceived.add(bytes);
+    }
+
+    public void recordExpiredDropped() {
+        expiredDropped.increment();
+    }
+
+    public long getConnectionsEver() { return connectionsEver.sum(); }
+    public long getDisconnections() { return disconnections.sum(); }
+    public long getMessagesSent() { return messagesSent.sum(); }
+    public long getMessagesReceived() { return messagesReceived.sum(); }
+    public long getBytesSent() { return bytesSent.sum(); }
+    public long getBytesReceived() { return bytesReceived.sum(); }
+    public long getExpiredDropped() { return expiredDropped.sum(); }
+}
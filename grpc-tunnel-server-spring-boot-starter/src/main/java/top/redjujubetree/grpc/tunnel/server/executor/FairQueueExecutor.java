@@ -0,0 +1,256 @@
+package top.redjujubetree.grpc.tunnel.server.executor;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Weighted fair queuing of tasks across flows (clients or tenants) in front of an executor.
+ * <p>
+ * At most {@code concurrency} tasks are handed to the executor at once, the rest wait in one FIFO
+ * queue per flow. Free slots are given out by deficit round-robin: on its turn a flow earns
+ * {@code quantum * weight} credits, every task it starts costs one, and the turn passes on when
+ * the credits are spent or the queue is empty. A flow flooding the server only grows its own
+ * queue, the other flows still get their share of the threads. A flow only exists while it has
+ * waiting tasks.
+ * <p>
+ * A task holds its slot from the moment it is handed to the executor until it ends, so the executor
+ * should start what it is handed. Ordering of tasks belongs in front of this queue, a task waiting
+ * behind another of its key would hold a slot without running.
+ */
+public class FairQueueExecutor {
+
+    private final int concurrency;
+    private final int maxQueuedPerFlow;
+    private final int quantum;
+
+    // all guarded by this
+    private final Map<Object, Flow> flows = new HashMap<>();
+    private final ArrayDeque<Flow> turns = new ArrayDeque<>();
+    private int inFlight;
+    private long dispatched;
+    private long rejected;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    /**
+     * @param concurrency      tasks handed to the executors at once
+     * @param maxQueuedPerFlow tasks a flow may have waiting, more are rejected
+     * @param quantum          credits a flow of weight 1 earns per round
+     */
+    public FairQueueExecutor(int concurrency, int maxQueuedPerFlow, int quantum) {
+        if (concurrency <= 0 || maxQueuedPerFlow <= 0 || quantum <= 0) {
+            throw new IllegalArgumentException("concurrency, maxQueuedPerFlow and quantum must be positive");
+        }
+        this.concurrency = concurrency;
+        this.maxQueuedPerFlow = maxQueuedPerFlow;
+        this.quantum = quantum;
+    }
+
+    /**
+     * queue the task of the flow, it runs on the target executor when the flow gets its turn. If the
+     * target refuses it then, the task runs on the thread that found it refused
+     *
+     * @param weight share of the flow relative to the others, at least 1
+     * @throws RejectedExecutionException if the flow has too many tasks waiting
+     */
+    public void execute(Object flow, int weight, Executor target, Runnable task) {
+        execute(flow, weight, target, task, null);
+    }
+
+    /**
+     * queue the task of the flow, it runs on the target executor when the flow gets its turn
+     *
+     * @param onRejected given the refusal, instead of running the task, when the target refuses the task
+     *                   once its turn came. The caller has long returned then, this is how it learns
+     * @throws RejectedExecutionException if the flow has too many tasks waiting
+     */
+    public void execute(Object flow, int weight, Executor target, Runnable task,
+                        Consumer<RejectedExecutionException> onRejected) {
+        synchronized (this) {
+            Flow queue = flows.get(flow);
+            if (queue == null) {
+                queue = new Flow(flow);
+                flows.put(flow, queue);
+            }
+            if (queue.tasks.size() >= maxQueuedPerFlow) {
+                rejected++;
+                throw new RejectedExecutionException("Too many queued tasks for " + flow);
+            }
+            queue.weight = Math.max(1, weight);
+            queue.tasks.add(new Entry(target, task, onRejected, System.nanoTime()));
+            if (queue.tasks.size() == 1) {
+                turns.addLast(queue);
+            }
+        }
+        pump();
+    }
+
+    /**
+     * an executor queuing every task under the flow
+     */
+    public Executor forFlow(Object flow, int weight, Executor target) {
+        return task -> execute(flow, weight, target, task);
+    }
+
+    /**
+     * an executor queuing every task under the flow, tasks the target refuses later are handed to onRejected
+     */
+    public Executor forFlow(Object flow, int weight, Executor target, Consumer<RejectedExecutionException> onRejected) {
+        return task -> execute(flow, weight, target, task, onRejected);
+    }
+
+    private void pump() {
+        while (true) {
+            Entry next;
+            synchronized (this) {
+                if (inFlight >= concurrency) {
+                    return;
+                }
+                next = poll();
+                if (next == null) {
+                    return;
+                }
+                inFlight++;
+            }
+            try {
+                next.target.execute(() -> run(next));
+            } catch (RejectedExecutionException e) {
+                // not put back to wait for a slot, with nothing else in flight no one would pump again
+                synchronized (this) {
+                    inFlight--;
+                    rejected++;
+                }
+                refused(next, e);
+            }
+        }
+    }
+
+    private void run(Entry entry) {
+        try {
+            entry.task.run();
+        } finally {
+            synchronized (this) {
+                inFlight--;
+            }
+            pump();
+        }
+    }
+
+    private static void refused(Entry entry, RejectedExecutionException e) {
+        if (entry.onRejected != null) {
+            entry.onRejected.accept(e);
+            return;
+        }
+        try {
+            entry.task.run();
+        } catch (RuntimeException failure) {
+            // the other tasks still have to be pumped
+            Thread t = Thread.currentThread();
+            t.getUncaughtExceptionHandler().uncaughtException(t, failure);
+        }
+    }
+
+    /**
+     * the next task by deficit round-robin, null when no flow has one
+     */
+    private Entry poll() {
+        Flow flow = turns.peekFirst();
+        if (flow == null) {
+            return null;
+        }
+        if (!flow.inTurn) {
+            flow.deficit += (long) quantum * flow.weight;
+            flow.inTurn = true;
+        }
+        Entry entry = flow.tasks.poll();
+        flow.deficit--;
+        if (flow.tasks.isEmpty()) {
+            // an idle flow does not keep its credits
+            turns.pollFirst();
+            flows.remove(flow.key);
+        } else if (flow.deficit <= 0) {
+            turns.pollFirst();
+            flow.inTurn = false;
+            turns.addLast(flow);
+        }
+        long waited = System.nanoTime() - entry.enqueuedNanos;
+        dispatched++;
+        totalWaitNanos += waited;
+        maxWaitNanos = Math.max(maxWaitNanos, waited);
+        return entry;
+    }
+
+    public synchronized int getQueuedCount() {
+        int queued = 0;
+        for (Flow flow : flows.values()) {
+            queued += flow.tasks.size();
+        }
+        return queued;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * waiting tasks, weight and wait of the oldest waiting task of every flow with a backlog
+     */
+    public synchronized Map<Object, Map<String, Object>> getFlowStatistics() {
+        long now = System.nanoTime();
+        Map<Object, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (Flow flow : flows.values()) {
+            Map<String, Object> flowStats = new HashMap<>();
+            flowStats.put("queued", flow.tasks.size());
+            flowStats.put("weight", flow.weight);
+            Entry oldest = flow.tasks.peek();
+            flowStats.put("oldestWaitMillis", oldest != null ? TimeUnit.NANOSECONDS.toMillis(now - oldest.enqueuedNanos) : 0L);
+            stats.put(flow.key, flowStats);
+        }
+        return stats;
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("concurrency", concurrency);
+        stats.put("inFlight", inFlight);
+        stats.put("flows", flows.size());
+        stats.put("queued", getQueuedCount());
+        stats.put("dispatched", dispatched);
+        stats.put("rejected", rejected);
+        stats.put("averageWaitMillis", dispatched > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / dispatched) : 0L);
+        stats.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+        return stats;
+    }
+
+    private static final class Flow {
+        private final Object key;
+        private final ArrayDeque<Entry> tasks = new ArrayDeque<>();
+        private int weight = 1;
+        private long deficit;
+        private boolean inTurn;
+
+        Flow(Object key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Entry {
+        private final Executor target;
+        private final Runnable task;
+        private final Consumer<RejectedExecutionException> onRejected;
+        private final long enqueuedNanos;
+
+        Entry(Executor target, Runnable task, Consumer<RejectedExecutionException> onRejected, long enqueuedNanos) {
+            this.target = target;
+            this.task = task;
+            this.onRejected = onRejected;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package top.redjujubetree.grpc.tunnel.server.executor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bulkhead for message handlers: a bounded number of threads with a bounded queue, so handlers
+ * of one group can not take the threads of another. When both are full the
+ * {@link HandlerRejectionPolicy} decides, under REJECT {@link #execute(Runnable)} throws
+ * {@link RejectedExecutionException}.
+ * <p>
+ * With virtual threads (Java 21 and later) every handler gets its own virtual thread, the thread
+ * count then limits how many run at once and the queue how many more may wait for that.
+ */
+@Slf4j
+public class HandlerExecutorGroup implements Executor {
+
+    private final String name;
+    private final int threads;
+    private final int queueCapacity;
+    private final HandlerRejectionPolicy rejectionPolicy;
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService virtualExecutor;
+    // virtual threads only: admitted handlers, and the running ones among them
+    private final Semaphore admitted;
+    private final Semaphore running;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final KeyedSerialExecutor ordered;
+
+    /**
+     * @param threads         pool threads, or handlers running at once on virtual threads
+     * @param queueCapacity   handlers that may wait for a thread, 0 hands them over directly
+     * @param keepAliveMillis idle time after which pool threads end
+     * @param virtualThreads  run each handler on a virtual thread, ignored before Java 21
+     */
+    public HandlerExecutorGroup(String name, int threads, int queueCapacity, HandlerRejectionPolicy rejectionPolicy,
+                                boolean virtualThreads, long keepAliveMillis) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Executor group " + name + " needs at least one thread");
+        }
+        this.name = name;
+        this.threads = threads;
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.rejectionPolicy = rejectionPolicy != null ? rejectionPolicy : HandlerRejectionPolicy.REJECT;
+        // one client can not queue more than the whole group
+        this.ordered = new KeyedSerialExecutor(this, threads + this.queueCapacity);
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor(name) : null;
+        if (virtual != null) {
+            this.virtualExecutor = virtual;
+            this.admitted = new Semaphore(threads + this.queueCapacity);
+            this.running = new Semaphore(threads);
+            this.pool = null;
+        } else {
+            BlockingQueue<Runnable> queue = this.queueCapacity > 0
+                    ? new ArrayBlockingQueue<>(this.queueCapacity) : new SynchronousQueue<>();
+            AtomicInteger threadIndex = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(threads, threads, keepAliveMillis, TimeUnit.MILLISECONDS, queue, r -> {
+                Thread thread = new Thread(r, "grpc-tunnel-handler-" + name + "-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.pool.allowCoreThreadTimeOut(true);
+            this.virtualExecutor = null;
+            this.admitted = null;
+            this.running = null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        submitted.increment();
+        if (pool != null) {
+            try {
+                pool.execute(() -> runTracked(task));
+            } catch (RejectedExecutionException e) {
+                onSaturated(task);
+            }
+            return;
+        }
+        if (!admitted.tryAcquire()) {
+            onSaturated(task);
+            return;
+        }
+        try {
+            virtualExecutor.execute(() -> {
+                try {
+                    // parking a virtual thread is cheap, waiting here is the queue
+                    running.acquireUninterruptibly();
+                    try {
+                        runTracked(task);
+                    } finally {
+                        running.release();
+                    }
+                } finally {
+                    admitted.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            onSaturated(task);
+        }
+    }
+
+    private void runTracked(Runnable task) {
+        active.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            active.decrementAndGet();
+            completed.increment();
+        }
+    }
+
+    private void onSaturated(Runnable task) {
+        if (rejectionPolicy == HandlerRejectionPolicy.CALLER_RUNS && !isShutdown()) {
+            callerRuns.increment();
+            runTracked(task);
+            return;
+        }
+        rejected.increment();
+        throw new RejectedExecutionException("Handler executor group " + name + " is saturated");
+    }
+
+    /**
+     * an executor running the tasks of the key one at a time in submission order on this group,
+     * tasks of other keys still run in parallel
+     */
+    public Executor forKey(Object key) {
+        return ordered.forKey(key);
+    }
+
+    /**
+     * Like {@link #forKey(Object)} but the runs of the key go through the executor in front of this group,
+     * see {@link FairQueueExecutor}. Only the task at the head of a key waits there, the ones behind it
+     * wait in the key's own queue.
+     */
+    public Executor forKey(Object key, Executor runExecutor) {
+        return ordered.forKey(key, runExecutor);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isShutdown() {
+        return pool != null ? pool.isShutdown() : virtualExecutor.isShutdown();
+    }
+
+    /**
+     * handlers currently running
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * handlers waiting for a thread
+     */
+    public int getQueuedCount() {
+        if (pool != null) {
+            return pool.getQueue().size();
+        }
+        return Math.max(0, threads + queueCapacity - admitted.availablePermits() - active.get());
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("threads", threads);
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("virtualThreads", virtualExecutor != null);
+        stats.put("active", getActiveCount());
+        stats.put("queued", getQueuedCount());
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", completed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("callerRuns", callerRuns.sum());
+        stats.put("orderedKeys", ordered.getActiveKeys());
+        if (pool != null) {
+            stats.put("poolSize", pool.getPoolSize());
+        }
+        return stats;
+    }
+
+    /**
+     * stop taking handlers and wait up to the timeout for the running ones, then interrupt them
+     */
+    public void shutdown(long timeoutMillis) {
+        ExecutorService executor = pool != null ? pool : virtualExecutor;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not available on this JVM, executor group {} uses platform threads", name);
+            return null;
+        }
+    }
+}
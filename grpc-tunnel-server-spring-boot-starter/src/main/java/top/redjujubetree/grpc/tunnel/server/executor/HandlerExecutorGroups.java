@@ -0,0 +1,117 @@
+package top.redjujubetree.grpc.tunnel.server.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import top.redjujubetree.grpc.tunnel.server.config.GrpcTunnelServerProperties;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The configured {@link HandlerExecutorGroup}s by name. A {@link #DEFAULT_GROUP} always exists,
+ * handlers naming a group that is not configured run there.
+ */
+@Slf4j
+public class HandlerExecutorGroups {
+
+    public static final String DEFAULT_GROUP = "default";
+
+    private final Map<String, HandlerExecutorGroup> groups;
+    private final HandlerExecutorGroup defaultGroup;
+    private final Map<String, FairQueueExecutor> fairQueues;
+
+    public HandlerExecutorGroups(Map<String, GrpcTunnelServerProperties.ExecutorGroup> config) {
+        this(config, null);
+    }
+
+    /**
+     * @param fairQueue fair queuing in front of every group, none when null or disabled
+     */
+    public HandlerExecutorGroups(Map<String, GrpcTunnelServerProperties.ExecutorGroup> config,
+                                 GrpcTunnelServerProperties.FairQueue fairQueue) {
+        Map<String, HandlerExecutorGroup> created = new LinkedHashMap<>();
+        if (config != null) {
+            for (Map.Entry<String, GrpcTunnelServerProperties.ExecutorGroup> entry : config.entrySet()) {
+                created.put(entry.getKey(), create(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (!created.containsKey(DEFAULT_GROUP)) {
+            created.put(DEFAULT_GROUP, create(DEFAULT_GROUP, new GrpcTunnelServerProperties.ExecutorGroup()));
+        }
+        this.groups = Collections.unmodifiableMap(created);
+        this.defaultGroup = created.get(DEFAULT_GROUP);
+        Map<String, FairQueueExecutor> queues = new LinkedHashMap<>();
+        if (fairQueue != null && fairQueue.isEnabled()) {
+            for (HandlerExecutorGroup group : created.values()) {
+                // never hand the group more than it has threads, the backlog waits in the fair queues
+                queues.put(group.getName(), new FairQueueExecutor(group.getThreads(),
+                        fairQueue.getMaxQueuedPerFlow(), fairQueue.getQuantum()));
+            }
+        }
+        this.fairQueues = Collections.unmodifiableMap(queues);
+    }
+
+    private static HandlerExecutorGroup create(String name, GrpcTunnelServerProperties.ExecutorGroup group) {
+        return new HandlerExecutorGroup(name, group.getThreads(), group.getQueueCapacity(),
+                group.getRejectionPolicy(), group.isVirtualThreads(), group.getKeepAlive());
+    }
+
+    /**
+     * the group of the name, the default group if it is not configured
+     */
+    public HandlerExecutorGroup get(String name) {
+        if (name == null) {
+            return defaultGroup;
+        }
+        HandlerExecutorGroup group = groups.get(name);
+        if (group == null) {
+            log.debug("Executor group {} is not configured, using the default group", name);
+            return defaultGroup;
+        }
+        return group;
+    }
+
+    /**
+     * the fair queue in front of the group, null when fair queuing is disabled
+     */
+    public FairQueueExecutor getFairQueue(HandlerExecutorGroup group) {
+        return fairQueues.get(group.getName());
+    }
+
+    public Map<String, HandlerExecutorGroup> getGroups() {
+        return groups;
+    }
+
+    /**
+     * statistics of every group by group name
+     */
+    public Map<String, Map<String, Object>> getStatistics() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (HandlerExecutorGroup group : groups.values()) {
+            Map<String, Object> groupStats = group.getStatistics();
+            FairQueueExecutor fairQueue = fairQueues.get(group.getName());
+            if (fairQueue != null) {
+                groupStats.put("fairQueue", fairQueue.getStatistics());
+            }
+            stats.put(group.getName(), groupStats);
+        }
+        return stats;
+    }
+
+    /**
+     * queued messages and oldest wait of every client or tenant with a backlog, by group name
+     */
+    public Map<String, Map<Object, Map<String, Object>>> getFairQueueStatistics() {
+        Map<String, Map<Object, Map<String, Object>>> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, FairQueueExecutor> entry : fairQueues.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getFlowStatistics());
+        }
+        return stats;
+    }
+
+    public void shutdown(long timeoutMillis) {
+        for (HandlerExecutorGroup group : groups.values()) {
+            group.shutdown(timeoutMillis);
+        }
+    }
+}
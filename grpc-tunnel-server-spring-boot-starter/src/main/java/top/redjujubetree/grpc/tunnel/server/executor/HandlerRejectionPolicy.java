@@ -0,0 +1,16 @@
+package top.redjujubetree.grpc.tunnel.server.executor;
+
+/**
+ * What a {@link HandlerExecutorGroup} does with a message when its threads and queue are all taken.
+ */
+public enum HandlerRejectionPolicy {
+    /**
+     * refuse the message, the client gets a 503 response right away
+     */
+    REJECT,
+    /**
+     * run the handler on the thread that received the message, which stops reading from that
+     * client until the handler returns
+     */
+    CALLER_RUNS
+}
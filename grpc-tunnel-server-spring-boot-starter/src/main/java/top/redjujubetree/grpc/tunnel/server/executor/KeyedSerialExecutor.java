@@ -0,0 +1,203 @@
+package top.redjujubetree.grpc.tunnel.server.executor;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the tasks of one key one after another in submission order, tasks of different keys in
+ * parallel on the underlying executor. A key only has a queue while it has pending tasks.
+ * <p>
+ * A key holds a thread for at most {@link #BATCH} tasks before it goes back to the executor,
+ * so a busy key can not keep the others waiting.
+ */
+public class KeyedSerialExecutor {
+
+    static final int BATCH = 16;
+    // the run of the current thread
+    private static final ThreadLocal<Run> CURRENT = new ThreadLocal<>();
+
+    private final Executor executor;
+    private final int maxPendingPerKey;
+    private final ConcurrentMap<Object, SerialQueue> queues = new ConcurrentHashMap<>();
+
+    public KeyedSerialExecutor(Executor executor) {
+        this(executor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxPendingPerKey tasks a key may have waiting, more are rejected
+     */
+    public KeyedSerialExecutor(Executor executor, int maxPendingPerKey) {
+        if (maxPendingPerKey <= 0) {
+            throw new IllegalArgumentException("maxPendingPerKey must be positive");
+        }
+        this.executor = executor;
+        this.maxPendingPerKey = maxPendingPerKey;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the key has too many tasks waiting, or the task starts
+     *                                    a new run and the executor refuses it. Tasks of the key queued
+     *                                    meanwhile then run on the calling thread before this is thrown
+     */
+    public void execute(Object key, Runnable task) {
+        execute(key, executor, task);
+    }
+
+    /**
+     * Like {@link #execute(Object, Runnable)} but a run the task starts goes to the given executor,
+     * for instance a fair queue in front of the underlying one. A key keeps the executor of the task
+     * that started its run until it is idle again.
+     */
+    public void execute(Object key, Executor runExecutor, Runnable task) {
+        boolean[] start = new boolean[1];
+        SerialQueue queue = queues.compute(key, (k, current) -> {
+            if (current == null) {
+                current = new SerialQueue(k, runExecutor);
+            }
+            if (current.tasks.size() >= maxPendingPerKey) {
+                throw new RejectedExecutionException("Too many pending tasks for key " + k);
+            }
+            current.tasks.add(task);
+            if (!current.running) {
+                current.running = true;
+                start[0] = true;
+            }
+            return current;
+        });
+        if (!start[0]) {
+            return;
+        }
+        try {
+            queue.executor.execute(queue);
+        } catch (RejectedExecutionException e) {
+            // only this task is refused, tasks other callers queued behind it meanwhile
+            // were promised a run and are drained here
+            boolean[] stranded = new boolean[1];
+            queues.computeIfPresent(key, (k, current) -> {
+                current.tasks.remove(task);
+                if (current.tasks.isEmpty()) {
+                    current.running = false;
+                    return null;
+                }
+                stranded[0] = true;
+                return current;
+            });
+            if (stranded[0]) {
+                queue.run();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * an executor running every task in the order of the key
+     */
+    public Executor forKey(Object key) {
+        return task -> execute(key, task);
+    }
+
+    /**
+     * an executor running every task in the order of the key, runs go to the given executor
+     */
+    public Executor forKey(Object key, Executor runExecutor) {
+        return task -> execute(key, runExecutor, task);
+    }
+
+    /**
+     * keys with pending or running tasks
+     */
+    public int getActiveKeys() {
+        return queues.size();
+    }
+
+    private final class SerialQueue implements Runnable {
+        private final Object key;
+        private final Executor executor;
+        // guarded by the map entry, only touched inside compute
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean running;
+
+        SerialQueue(Object key, Executor executor) {
+            this.key = key;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            Run previous = CURRENT.get();
+            if (previous != null && previous.queue == this) {
+                // handed back by an executor that runs rejected tasks on the caller, the outer run goes on
+                previous.handedBack = true;
+                return;
+            }
+            Run run = new Run(this);
+            CURRENT.set(run);
+            try {
+                drain(run);
+            } finally {
+                CURRENT.set(previous);
+            }
+        }
+
+        private void drain(Run run) {
+            while (true) {
+                for (int i = 0; i < BATCH; i++) {
+                    Runnable next = poll();
+                    if (next == null) {
+                        return;
+                    }
+                    try {
+                        next.run();
+                    } catch (RuntimeException e) {
+                        // a failing task must not stall the rest of the key
+                        Thread t = Thread.currentThread();
+                        t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                    }
+                }
+                run.handedBack = false;
+                try {
+                    executor.execute(this);
+                    if (!run.handedBack) {
+                        return;
+                    }
+                } catch (RejectedExecutionException e) {
+                    // the executor is full, keep going on this thread
+                }
+            }
+        }
+
+        /**
+         * the next task, or null after marking the key idle and dropping its queue
+         */
+        private Runnable poll() {
+            Runnable[] next = new Runnable[1];
+            queues.computeIfPresent(key, (k, current) -> {
+                next[0] = current.tasks.poll();
+                if (next[0] == null) {
+                    current.running = false;
+                    return null;
+                }
+                return current;
+            });
+            return next[0];
+        }
+    }
+
+    /**
+     * one thread draining a queue. The hand-back flag lives here and not on the queue, a pool thread
+     * already draining the queue it was passed on to must not signal the thread that passed it
+     */
+    private static final class Run {
+        private final SerialQueue queue;
+        private boolean handedBack;
+
+        Run(SerialQueue queue) {
+            this.queue = queue;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package top.redjujubetree.grpc.tunnel.server.handler;
 
-import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.handler.InterruptibleFuture;
 import top.redjujubetree.grpc.tunnel.proto.MessageType;
 import top.redjujubetree.grpc.tunnel.proto.RequestPayload;
 import top.redjujubetree.grpc.tunnel.proto.ResponsePayload;
@@ -9,8 +10,10 @@ import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
-public abstract class AbstractClientRequestMessageHandler implements MessageHandler {
+public abstract class AbstractClientRequestMessageHandler implements GroupedMessageHandler {
 
 	@Override
 	public boolean support(TunnelMessage message) {
@@ -27,7 +30,12 @@ public abstract class AbstractClientRequestMessageHandler implements MessageHand
 
 	@Override
 	public CompletableFuture<TunnelMessage> handle(TunnelMessage request) {
-		return CompletableFuture.supplyAsync(() -> {
+		return handle(request, ForkJoinPool.commonPool());
+	}
+
+	@Override
+	public CompletableFuture<TunnelMessage> handle(TunnelMessage request, Executor executor) {
+		return InterruptibleFuture.supplyAsync(() -> {
 			ResponsePayload responsePayload = handleMessage(request);
 			if (Objects.isNull(responsePayload)) {
 				return null;
@@ -38,10 +46,11 @@ public abstract class AbstractClientRequestMessageHandler implements MessageHand
 					.setType(MessageType.SERVER_RESPONSE)
 					.setTimestamp(System.currentTimeMillis())
 					.setCorrelationId(request.getMessageId())
+					.setPriority(MessagePriority.ofPeer(request.getPriority()))
 					.setResponse(responsePayload)
 					.build();
 			return response;
-		});
+		}, executor);
 	}
 
 	/**
@@ -57,6 +66,6 @@ public abstract class AbstractClientRequestMessageHandler implements MessageHand
 
 	@Override
 	public int getOrder() {
-		return MessageHandler.super.getOrder();
+		return GroupedMessageHandler.super.getOrder();
 	}
 }
@@ -1,6 +1,7 @@
 package top.redjujubetree.grpc.tunnel.server.handler;
 
-import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
+import top.redjujubetree.grpc.tunnel.constant.MessagePriority;
+import top.redjujubetree.grpc.tunnel.handler.InterruptibleFuture;
 import top.redjujubetree.grpc.tunnel.proto.MessageType;
 import top.redjujubetree.grpc.tunnel.proto.ResponsePayload;
 import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
@@ -8,8 +9,10 @@ import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
-public abstract class AbstractClientResponseMessageHandler implements MessageHandler {
+public abstract class AbstractClientResponseMessageHandler implements GroupedMessageHandler {
 
 	@Override
 	public boolean support(TunnelMessage message) {
@@ -26,7 +29,12 @@ public abstract class AbstractClientResponseMessageHandler implements MessageHan
 
 	@Override
 	public CompletableFuture<TunnelMessage> handle(TunnelMessage request) {
-		return CompletableFuture.supplyAsync(() -> {
+		return handle(request, ForkJoinPool.commonPool());
+	}
+
+	@Override
+	public CompletableFuture<TunnelMessage> handle(TunnelMessage request, Executor executor) {
+		return InterruptibleFuture.supplyAsync(() -> {
 			ResponsePayload responsePayload = handleResponse(request);
 			if (Objects.isNull(responsePayload)) {
 				return null;
@@ -37,9 +45,10 @@ public abstract class AbstractClientResponseMessageHandler implements MessageHan
 					.setType(MessageType.SERVER_RESPONSE)
 					.setTimestamp(System.currentTimeMillis())
 					.setCorrelationId(request.getMessageId())
+					.setPriority(MessagePriority.ofPeer(request.getPriority()))
 					.setResponse(responsePayload);
 			return builder.build();
-		});
+		}, executor);
 	}
 
 	/**
@@ -55,6 +64,6 @@ public abstract class AbstractClientResponseMessageHandler implements MessageHan
 
 	@Override
 	public int getOrder() {
-		return MessageHandler.super.getOrder();
+		return GroupedMessageHandler.super.getOrder();
 	}
 }
@@ -0,0 +1,44 @@
+package top.redjujubetree.grpc.tunnel.server.handler;
+
+import top.redjujubetree.grpc.tunnel.handler.MessageHandler;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.server.executor.HandlerExecutorGroups;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A server side handler that runs on the executor group it names, see {@link HandlerExecutorGroups}.
+ * Handlers of a slow message type get a group of their own so they can not hold up the others.
+ */
+public interface GroupedMessageHandler extends MessageHandler {
+
+	/**
+	 * name of the executor group, unknown names fall back to the default group
+	 */
+	default String getExecutorGroup() {
+		return HandlerExecutorGroups.DEFAULT_GROUP;
+	}
+
+	/**
+	 * ordered handlers run the messages of one ordering key one at a time in arrival order,
+	 * messages of different keys still run in parallel
+	 */
+	default boolean isOrdered() {
+		return false;
+	}
+
+	/**
+	 * key of the order an ordered handler keeps, the client by default
+	 */
+	default Object getOrderingKey(TunnelMessage message) {
+		return message.getClientId();
+	}
+
+	/**
+	 * handle the message on the executor
+	 *
+	 * @throws java.util.concurrent.RejectedExecutionException if the executor is saturated
+	 */
+	CompletableFuture<TunnelMessage> handle(TunnelMessage request, Executor executor);
+}
@@ -0,0 +1,121 @@
+package top.redjujubetree.grpc.tunnel.server.ratelimit;
+
+import top.redjujubetree.grpc.tunnel.constant.ClientRequestTypes;
+import top.redjujubetree.grpc.tunnel.constant.TunnelControlTypes;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The token buckets of one client: messages and bytes a second over all its requests, and
+ * messages a second per request type. Responses, heartbeats and the cancel and stream credit
+ * messages the tunnel needs to stay healthy always pass, every other request is limited,
+ * subscriptions included.
+ * <p>
+ * Built once on registration, {@link #acquire(TunnelMessage, long)} only reads fields, looks up a
+ * prebuilt map and compares-and-sets longs, it does not allocate.
+ */
+public final class ClientRateLimiter {
+
+    private static final AtomicLongFieldUpdater<ClientRateLimiter> REJECTED =
+            AtomicLongFieldUpdater.newUpdater(ClientRateLimiter.class, "rejected");
+
+    private final InboundRateLimits owner;
+    private final TokenBucket messages;
+    private final TokenBucket bytes;
+    private final Map<String, TokenBucket> types;
+    private volatile long rejected;
+
+    ClientRateLimiter(InboundRateLimits owner, TokenBucket messages, TokenBucket bytes, Map<String, TokenBucket> types) {
+        this.owner = owner;
+        this.messages = messages;
+        this.bytes = bytes;
+        this.types = types.isEmpty() ? Collections.emptyMap() : types;
+    }
+
+    /**
+     * take the tokens of the message. Tokens taken from one bucket are not given back when another
+     * refuses, a client over its limit keeps paying for what it sends
+     *
+     * @return 0 when the message may pass, otherwise nanoseconds until it would
+     */
+    public long acquire(TunnelMessage message, long nowNanos) {
+        if (message.getType() != MessageType.CLIENT_REQUEST || !message.hasRequest()) {
+            return 0;
+        }
+        String type = message.getRequest().getType();
+        if (isExempt(type)) {
+            return 0;
+        }
+        TokenBucket typeBucket = types.get(type);
+        if (typeBucket != null) {
+            long wait = typeBucket.tryAcquire(1, nowNanos);
+            if (wait > 0) {
+                return rejected(owner.typeRejected, wait);
+            }
+        }
+        if (messages != null) {
+            long wait = messages.tryAcquire(1, nowNanos);
+            if (wait > 0) {
+                return rejected(owner.messageRejected, wait);
+            }
+        }
+        if (bytes != null) {
+            long wait = bytes.tryAcquire(message.getSerializedSize(), nowNanos);
+            if (wait > 0) {
+                return rejected(owner.byteRejected, wait);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * only the named control types, any other type starting with "_" is limited like a business request
+     */
+    private static boolean isExempt(String type) {
+        switch (type) {
+            case ClientRequestTypes.HEARTBEAT:
+            case TunnelControlTypes.CANCEL:
+            case TunnelControlTypes.STREAM_CREDIT:
+            case TunnelControlTypes.STREAM_CANCEL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private long rejected(LongAdder reason, long wait) {
+        REJECTED.incrementAndGet(this);
+        reason.increment();
+        return wait;
+    }
+
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    public Map<String, Object> getStatistics() {
+        long now = System.nanoTime();
+        Map<String, Object> stats = new HashMap<>();
+        if (messages != null) {
+            stats.put("messagesPerSecond", messages.getRatePerSecond());
+            stats.put("availableMessages", messages.available(now));
+        }
+        if (bytes != null) {
+            stats.put("bytesPerSecond", bytes.getRatePerSecond());
+            stats.put("availableBytes", bytes.available(now));
+        }
+        Map<String, Long> typeRates = new HashMap<>();
+        for (Map.Entry<String, TokenBucket> entry : types.entrySet()) {
+            typeRates.put(entry.getKey(), entry.getValue().getRatePerSecond());
+        }
+        stats.put("typeMessagesPerSecond", typeRates);
+        stats.put("rejected", rejected);
+        return stats;
+    }
+}
@@ -0,0 +1,98 @@
+package top.redjujubetree.grpc.tunnel.server.ratelimit;
+
+import lombok.extern.slf4j.Slf4j;
+import top.redjujubetree.grpc.tunnel.server.config.GrpcTunnelServerProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Builds the {@link ClientRateLimiter} of every registering client from the configured limits and
+ * counts the messages refused across all clients.
+ * <p>
+ * The limits of a client can be overridden by connection metadata a
+ * {@link top.redjujubetree.grpc.tunnel.server.filter.ClientRegisterFilter} attaches on registration,
+ * under the keys {@code <prefix>messagesPerSecond}, {@code <prefix>bytesPerSecond} and
+ * {@code <prefix>type.<request type>}, a value of 0 lifts the limit. Metadata the client sends
+ * itself is not consulted, a client can not raise its own limits.
+ */
+@Slf4j
+public class InboundRateLimits {
+
+    final LongAdder messageRejected = new LongAdder();
+    final LongAdder byteRejected = new LongAdder();
+    final LongAdder typeRejected = new LongAdder();
+
+    private final GrpcTunnelServerProperties.RateLimit config;
+
+    public InboundRateLimits(GrpcTunnelServerProperties.RateLimit config) {
+        this.config = config;
+    }
+
+    /**
+     * the limiter of a client registered with the connection metadata, null when nothing limits it
+     */
+    public ClientRateLimiter create(String clientId, Map<String, Object> metadata) {
+        String prefix = config.getMetadataPrefix() != null ? config.getMetadataPrefix() : "";
+        long messagesPerSecond = override(clientId, metadata, prefix + "messagesPerSecond", config.getMessagesPerSecond());
+        long bytesPerSecond = override(clientId, metadata, prefix + "bytesPerSecond", config.getBytesPerSecond());
+        Map<String, Long> typeRates = new HashMap<>(config.getTypeMessagesPerSecond());
+        if (metadata != null) {
+            String typePrefix = prefix + "type.";
+            for (String key : metadata.keySet()) {
+                if (key.startsWith(typePrefix) && key.length() > typePrefix.length()) {
+                    String type = key.substring(typePrefix.length());
+                    typeRates.put(type, override(clientId, metadata, key, typeRates.getOrDefault(type, 0L)));
+                }
+            }
+        }
+        Map<String, TokenBucket> types = new HashMap<>();
+        for (Map.Entry<String, Long> entry : typeRates.entrySet()) {
+            if (entry.getValue() != null && entry.getValue() > 0) {
+                types.put(entry.getKey(), bucket(entry.getValue()));
+            }
+        }
+        if (messagesPerSecond <= 0 && bytesPerSecond <= 0 && types.isEmpty()) {
+            return null;
+        }
+        return new ClientRateLimiter(this,
+                messagesPerSecond > 0 ? bucket(messagesPerSecond) : null,
+                bytesPerSecond > 0 ? bucket(bytesPerSecond) : null,
+                types);
+    }
+
+    private TokenBucket bucket(long ratePerSecond) {
+        long burst = ratePerSecond * Math.max(1, config.getBurstMillis()) / TimeUnit.SECONDS.toMillis(1);
+        return new TokenBucket(ratePerSecond, burst);
+    }
+
+    private static long override(String clientId, Map<String, Object> metadata, String key, long configured) {
+        Object value = metadata != null ? metadata.get(key) : null;
+        if (value == null) {
+            return configured;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid rate limit {}={} of client {}", key, value, clientId);
+            return configured;
+        }
+    }
+
+    /**
+     * messages refused across all clients, by the limit that refused them
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("messageRejected", messageRejected.sum());
+        stats.put("byteRejected", byteRejected.sum());
+        stats.put("typeRejected", typeRejected.sum());
+        stats.put("totalRejected", messageRejected.sum() + byteRejected.sum() + typeRejected.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,81 @@
+package top.redjujubetree.grpc.tunnel.server.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A token bucket of {@code ratePerSecond} tokens a second holding at most {@code burst} of them.
+ * <p>
+ * Kept as a single theoretical arrival time instead of a token count and a refill time (GCRA),
+ * so taking tokens is one compare-and-set on a long and never allocates. The bucket is full while
+ * that time lies in the past, taking n tokens pushes it n emission intervals forward, and the
+ * tokens are refused when it would end up more than a burst ahead of now.
+ */
+public final class TokenBucket {
+
+    // keeps burst * 1e9 inside a long
+    private static final long MAX_BURST = Long.MAX_VALUE / TimeUnit.SECONDS.toNanos(1);
+    private static final AtomicLongFieldUpdater<TokenBucket> TAT =
+            AtomicLongFieldUpdater.newUpdater(TokenBucket.class, "theoreticalArrival");
+
+    private final long ratePerSecond;
+    private final long burst;
+    // the bucket may run this far ahead of now, a full burst
+    private final long toleranceNanos;
+    private volatile long theoreticalArrival;
+
+    /**
+     * @param burst tokens taken at once from a full bucket, at least 1
+     */
+    public TokenBucket(long ratePerSecond, long burst) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond must be positive");
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, Math.min(MAX_BURST, burst));
+        this.toleranceNanos = intervalNanos(this.burst);
+        this.theoreticalArrival = System.nanoTime() - toleranceNanos;
+    }
+
+    /**
+     * take the tokens if the bucket holds them. More tokens than the burst are taken as a full
+     * burst, so a single large message drains the bucket instead of never passing
+     *
+     * @return 0 when taken, otherwise nanoseconds until the bucket would hold them
+     */
+    public long tryAcquire(long tokens, long nowNanos) {
+        long increment = intervalNanos(Math.min(Math.max(tokens, 1), burst));
+        while (true) {
+            long tat = theoreticalArrival;
+            // an idle bucket is full, it does not bank tokens beyond the burst
+            long next = Math.max(tat - nowNanos, 0) + nowNanos + increment;
+            long ahead = next - nowNanos;
+            if (ahead > toleranceNanos) {
+                return ahead - toleranceNanos;
+            }
+            if (TAT.compareAndSet(this, tat, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * tokens in the bucket at the time
+     */
+    public long available(long nowNanos) {
+        long ahead = Math.max(theoreticalArrival - nowNanos, 0);
+        return (toleranceNanos - ahead) * ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public long getBurst() {
+        return burst;
+    }
+
+    private long intervalNanos(long tokens) {
+        return tokens * TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+    }
+}
@@ -0,0 +1,50 @@
+package top.redjujubetree.grpc.tunnel.server.reactive;
+
+import reactor.core.publisher.Flux;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.reactive.InboundMessagePublisher;
+import top.redjujubetree.grpc.tunnel.server.GrpcTunnelServerService;
+
+import java.util.function.Predicate;
+
+/**
+ * Reactor view of the messages the tunnel server receives from its clients.
+ * <p>
+ * Every subscriber sees the matching business messages alongside the registered message handlers.
+ * When a subscriber runs out of demand, the tunnel of the client that sent the message is paused
+ * until more is requested, so back pressure reaches that client only. Heartbeats are not read while
+ * a tunnel is paused, consumers must not stall for longer than the heartbeat timeout.
+ */
+public class ReactiveTunnelServer {
+
+    private final InboundMessagePublisher publisher = new InboundMessagePublisher();
+
+    public ReactiveTunnelServer(GrpcTunnelServerService service) {
+        service.addInboundListener(publisher);
+    }
+
+    /**
+     * All inbound business messages
+     */
+    public Flux<TunnelMessage> inbound() {
+        return publisher.subscribe(message -> true);
+    }
+
+    /**
+     * Inbound client requests of the given type
+     */
+    public Flux<TunnelMessage> inbound(String requestType) {
+        return publisher.subscribe(message -> message.hasRequest() && requestType.equals(message.getRequest().getType()));
+    }
+
+    public Flux<TunnelMessage> inbound(Predicate<TunnelMessage> filter) {
+        return publisher.subscribe(filter);
+    }
+
+    /**
+     * Inbound messages of one client
+     */
+    public Flux<TunnelMessage> inboundFrom(String clientId) {
+        return publisher.subscribe(message -> clientId.equals(message.getClientId()));
+    }
+}
@@ -0,0 +1,32 @@
+package top.redjujubetree.grpc.tunnel.server.service;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Outcome of a broadcast, multicast or publish. Delivered means queued for writing on the client's stream,
+ * dropped means the client's outbound budget had no room for it, failed clients had a closed stream and were removed.
+ */
+@Getter
+@ToString
+public class BroadcastResult {
+	private final int delivered;
+	private final int dropped;
+	private final int failed;
+	private final long elapsedMillis;
+
+	public BroadcastResult(int delivered, int failed, long elapsedMillis) {
+		this(delivered, 0, failed, elapsedMillis);
+	}
+
+	public BroadcastResult(int delivered, int dropped, int failed, long elapsedMillis) {
+		this.delivered = delivered;
+		this.dropped = dropped;
+		this.failed = failed;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public int getTotal() {
+		return delivered + dropped + failed;
+	}
+}
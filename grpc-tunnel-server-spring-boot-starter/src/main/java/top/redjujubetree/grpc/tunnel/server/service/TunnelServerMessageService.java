@@ -1,22 +1,54 @@
 package top.redjujubetree.grpc.tunnel.server.service;
 
+import com.google.protobuf.ByteString;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
+import top.redjujubetree.grpc.tunnel.codec.PreSerializedMarshaller;
+import top.redjujubetree.grpc.tunnel.flow.OfferResult;
+import top.redjujubetree.grpc.tunnel.handler.InflightRequests;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.RequestPayload;
 import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.server.config.GrpcTunnelServerProperties;
 import top.redjujubetree.grpc.tunnel.server.connection.ClientConnection;
 import top.redjujubetree.grpc.tunnel.server.connection.ConnectionManager;
+import top.redjujubetree.grpc.tunnel.server.connection.MembershipIndex;
+import top.redjujubetree.grpc.tunnel.stream.ResponseStream;
+import top.redjujubetree.grpc.tunnel.stream.TunnelStreams;
+import top.redjujubetree.grpc.tunnel.timer.HashedWheelTimer;
+import top.redjujubetree.grpc.tunnel.timer.Timeout;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 @Slf4j
 @Component
 public class TunnelServerMessageService {
 
+	// connections per fan-out task, smaller broadcasts run on a single thread
+	private static final long BROADCAST_PARALLELISM_THRESHOLD = 1024;
+
 	@Autowired
 	private ConnectionManager connectionManager;
+	@Autowired
+	private GrpcTunnelServerProperties properties;
+	@Autowired
+	@Qualifier("grpcTunnelServerTimer")
+	private HashedWheelTimer timer;
+
 	/**
 	 * send a message to a specific client
 	 */
@@ -28,14 +60,12 @@ public class TunnelServerMessageService {
 		ClientConnection connection = connectionManager.getClient(clientId);
 		if (connection != null) {
 			try {
-				boolean success = connection.sendMessage(message);
-				if (success) {
-					connectionManager.recordMessageSent(clientId);
-					return true;
-				} else {
+				OfferResult result = connection.send(message);
+				if (result == OfferResult.CLOSED) {
 					connectionManager.removeClient(clientId, "发送消息失败");
-					return false;
 				}
+				// a dropped message leaves the connection alone, its outbound budget decided
+				return result.isQueued();
 			} catch (Exception e) {
 				log.error("Error sending message to client: {}", clientId, e);
 				connectionManager.removeClient(clientId, "Error sending message");
@@ -48,25 +78,198 @@ public class TunnelServerMessageService {
 	}
 
 	/**
-	 * send a message to all connected clients
+	 * send a request to a client with the configured request timeout, see {@link #requestClient(String, String, String, long)}
+	 */
+	public CompletableFuture<TunnelMessage> requestClient(String clientId, String type, String data) {
+		return requestClient(clientId, type, data, properties.getRequestTimeout());
+	}
+
+	/**
+	 * send a request to a client and wait for its response.
+	 * The future fails with a {@link TimeoutException} when the client does not answer in time,
+	 * and with an {@link IllegalStateException} when the client is not connected or disconnects first.
+	 * A timed out or cancelled request is cancelled on the client as well.
+	 */
+	public CompletableFuture<TunnelMessage> requestClient(String clientId, String type, String data, long timeoutMillis) {
+		CompletableFuture<TunnelMessage> future = new CompletableFuture<>();
+		ClientConnection connection = connectionManager.getClient(clientId);
+		if (connection == null) {
+			future.completeExceptionally(new IllegalStateException("Client " + clientId + " not found"));
+			return future;
+		}
+		String messageId = UUID.randomUUID().toString();
+		TunnelMessage request = TunnelMessage.newBuilder()
+				.setMessageId(messageId)
+				.setClientId(clientId)
+				.setType(MessageType.SERVER_REQUEST)
+				.setTimestamp(System.currentTimeMillis())
+				// relative, the client turns it into a deadline on its own clock
+				.setTimeoutMillis(Math.max(0, timeoutMillis))
+				.setRequest(RequestPayload.newBuilder()
+						.setType(type)
+						.setData(ByteString.copyFromUtf8(data))
+						.build())
+				.build();
+		connection.addPendingRequest(messageId, future);
+
+		Timeout timeoutTask = timer.newTimeout(() -> future.completeExceptionally(
+				new TimeoutException(String.format("Request to client %s timeout after %dms", clientId, timeoutMillis))),
+				timeoutMillis, TimeUnit.MILLISECONDS);
+		future.whenComplete((response, error) -> {
+			timeoutTask.cancel();
+			connection.removePendingRequest(messageId, future);
+			if (error instanceof TimeoutException || error instanceof CancellationException) {
+				connection.sendMessage(InflightRequests.cancelOf(request, MessageType.SERVER_REQUEST));
+			}
+		});
+
+		OfferResult result = connection.send(request);
+		if (result == OfferResult.DROPPED) {
+			// never queued, there is no answer to wait for
+			future.completeExceptionally(new IllegalStateException("Request to client " + clientId + " dropped, outbound queue is full"));
+		} else if (result == OfferResult.CLOSED) {
+			future.completeExceptionally(new IllegalStateException("Failed to send request to client " + clientId));
+		}
+		return future;
+	}
+
+	/**
+	 * send a message to all connected clients and wait until it is queued for each of them
+	 *
+	 * @return number of clients the message was delivered to
 	 */
 	public int broadcast(TunnelMessage message) {
-		List<String> failedClients = new ArrayList<>();
-
-		Collection<ClientConnection> allClients = connectionManager.getAllClients();
-		for (ClientConnection connection : allClients) {
-			boolean success = connection.sendMessage(message);
-			if (success) {
-				connectionManager.recordMessageSent(connection.getClientId());
-			} else {
-				log.error("Error broadcasting message to client: {}", connection.getClientId());
-				failedClients.add(connection.getClientId());
+		return broadcastAsync(message).join().getDelivered();
+	}
+
+	/**
+	 * Send a message to all connected clients. The message is serialized once and the same bytes are
+	 * written to every stream, the fan-out runs in parallel on the common fork join pool and never waits
+	 * for a slow client, its outbound budget decides what happens with the message.
+	 */
+	public CompletableFuture<BroadcastResult> broadcastAsync(TunnelMessage message) {
+		return fanOut("all clients", message, connectionManager::forEachClient);
+	}
+
+	/**
+	 * Send a message to every member of a group, with the same serialize-once fan-out as {@link #broadcastAsync(TunnelMessage)}.
+	 * Groups are assigned on registration (see grpc.tunnel.server.group-attributes) or with {@link #joinGroup(String, String)}.
+	 */
+	public CompletableFuture<BroadcastResult> multicast(String group, TunnelMessage message) {
+		MembershipIndex groups = connectionManager.getGroups();
+		return fanOut("group " + group, message, (threshold, action) -> groups.forEachMember(group, threshold, action));
+	}
+
+	/**
+	 * Send a message to every client subscribed to a topic
+	 */
+	public CompletableFuture<BroadcastResult> publish(String topic, TunnelMessage message) {
+		MembershipIndex topics = connectionManager.getTopics();
+		return fanOut("topic " + topic, message, (threshold, action) -> topics.forEachMember(topic, threshold, action));
+	}
+
+	/**
+	 * add a connected client to a group, the membership ends with the connection
+	 *
+	 * @return false if the client is not connected or already a member
+	 */
+	public boolean joinGroup(String clientId, String group) {
+		ClientConnection connection = connectionManager.getClient(clientId);
+		return connection != null && connectionManager.getGroups().join(group, connection);
+	}
+
+	public boolean leaveGroup(String clientId, String group) {
+		ClientConnection connection = connectionManager.getClient(clientId);
+		return connection != null && connectionManager.getGroups().leave(group, connection);
+	}
+
+	public Set<String> getGroupMembers(String group) {
+		return connectionManager.getGroups().getMemberIds(group);
+	}
+
+	public Set<String> getTopicSubscribers(String topic) {
+		return connectionManager.getTopics().getMemberIds(topic);
+	}
+
+	private CompletableFuture<BroadcastResult> fanOut(String target, TunnelMessage message,
+			BiConsumer<Long, Consumer<ClientConnection>> forEach) {
+		TunnelMessage shared = PreSerializedMarshaller.INSTANCE.preSerialize(message);
+		return CompletableFuture.supplyAsync(() -> {
+			long start = System.currentTimeMillis();
+			LongAdder delivered = new LongAdder();
+			LongAdder dropped = new LongAdder();
+			// the failed connections themselves, a client that reconnected meanwhile keeps its new connection
+			Queue<ClientConnection> failedConnections = new ConcurrentLinkedQueue<>();
+			forEach.accept(BROADCAST_PARALLELISM_THRESHOLD, connection -> {
+				OfferResult result = connection.trySend(shared);
+				if (result == OfferResult.QUEUED) {
+					delivered.increment();
+				} else if (result == OfferResult.DROPPED) {
+					dropped.increment();
+				} else {
+					failedConnections.add(connection);
+				}
+			});
+			if (!failedConnections.isEmpty()) {
+				List<String> failedClients = new ArrayList<>(failedConnections.size());
+				for (ClientConnection connection : failedConnections) {
+					failedClients.add(connection.getClientId());
+					connectionManager.removeConnection(connection, "Error broadcasting message");
+				}
+				log.error("Error broadcasting message to clients: {}", failedClients);
 			}
+			BroadcastResult result = new BroadcastResult(delivered.intValue(), dropped.intValue(), failedConnections.size(),
+					System.currentTimeMillis() - start);
+			log.info("Message sent to {}: delivered to {} clients, dropped for {} clients, failed for {} clients in {}ms",
+					target, result.getDelivered(), result.getDropped(), result.getFailed(), result.getElapsedMillis());
+			return result;
+		});
+	}
+
+	/**
+	 * send a streaming request to a client, the partial responses are consumed through the returned iterator.
+	 * Close the stream to cancel it early.
+	 */
+	public ResponseStream requestStream(String clientId, String type, String data) {
+		return requestStream(clientId, type, data, TunnelStreams.DEFAULT_WINDOW, TunnelStreams.DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * send a streaming request to a client
+	 *
+	 * @param window        number of partial responses the client may send ahead of consumption
+	 * @param timeoutMillis longest wait for the next partial response
+	 */
+	public ResponseStream requestStream(String clientId, String type, String data, int window, long timeoutMillis) {
+		ClientConnection connection = connectionManager.getClient(clientId);
+		if (connection == null) {
+			throw new IllegalStateException("Client " + clientId + " not found");
 		}
-		connectionManager.removeClients(failedClients, "Error broadcasting message");
-		log.info("Broadcast message sent to {} clients, failed for {} clients",
-				allClients.size() - failedClients.size(), failedClients.size());
-		return allClients.size() - failedClients.size();
+		TunnelMessage request = TunnelMessage.newBuilder()
+				.setMessageId(UUID.randomUUID().toString())
+				.setClientId(clientId)
+				.setType(MessageType.SERVER_REQUEST)
+				.setTimestamp(System.currentTimeMillis())
+				.setRequest(RequestPayload.newBuilder()
+						.setType(type)
+						.setData(ByteString.copyFromUtf8(data))
+						.build())
+				.build();
+		return connection.getStreams().open(request, window, timeoutMillis, connection::sendMessage);
 	}
 
+	/**
+	 * tell a client that a request sent to it is no longer needed,
+	 * its handler is cancelled and the response is dropped
+	 */
+	public boolean cancelRequest(TunnelMessage request) {
+		if (request == null) {
+			return false;
+		}
+		ClientConnection connection = connectionManager.getClient(request.getClientId());
+		if (connection == null) {
+			return false;
+		}
+		return connection.sendMessage(InflightRequests.cancelOf(request, MessageType.SERVER_REQUEST));
+	}
 }
@@ -0,0 +1,276 @@
+package top.redjujubeetree.connection;
+
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sun.misc.Unsafe;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.server.connection.ClientConnection;
+import top.redjujubetree.grpc.tunnel.server.connection.CompactMetadata;
+import top.redjujubetree.grpc.tunnel.server.connection.ConnectionManager;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+public class ClientConnectionFootprintTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ClientConnectionFootprintTest.class);
+
+	private static final int CONNECTIONS = 1_000;
+
+	private static final Unsafe UNSAFE = unsafe();
+
+	// object header size of this JVM, the offset of the first field of a class with a single int
+	private static final long HEADER_BYTES = UNSAFE.objectFieldOffset(field(Probe.class, "value"));
+
+	private static final int ALIGNMENT = 8;
+
+	@Test
+	public void testIdleConnectionFootprint() {
+		StreamObserver<TunnelMessage> observer = new NoopObserver();
+		ConnectionManager manager = new ConnectionManager();
+		ClientConnection measured = register(manager, observer, 0);
+		ClientConnection other = register(manager, observer, 1);
+
+		// what the other connection reaches as well is shared, the observer, counters, budget, interned keys
+		Set<Object> shared = reachable(other);
+		Map<String, Long> bytesByClass = new TreeMap<>();
+		long bytes = 0;
+		int objects = 0;
+		for (Object object : reachable(measured)) {
+			if (!shared.contains(object)) {
+				long size = shallowSize(object);
+				bytesByClass.merge(object.getClass().getSimpleName(), size, Long::sum);
+				bytes += size;
+				objects++;
+			}
+		}
+		log.info("idle connection footprint: {} bytes in {} objects (header {} bytes, references {} bytes) {}",
+				bytes, objects, HEADER_BYTES, Unsafe.ARRAY_OBJECT_INDEX_SCALE, bytesByClass);
+
+		Assertions.assertTrue(bytes > 0);
+		// nothing of the stream, inflight or pending request tables is part of it
+		Assertions.assertFalse(bytesByClass.containsKey("TunnelStreams"));
+		Assertions.assertFalse(bytesByClass.containsKey("InflightRequests"));
+		Assertions.assertFalse(bytesByClass.containsKey("ConcurrentHashMap"));
+	}
+
+	@Test
+	public void testTablesAreCreatedOnFirstUse() {
+		ClientConnection connection = new ClientConnection("client", new NoopObserver());
+		Assertions.assertNull(read(connection, "streams"));
+		Assertions.assertNull(read(connection, "inflightRequests"));
+		Assertions.assertNull(read(connection, "pendingRequests"));
+		Assertions.assertNull(read(connection, "attributes"));
+
+		// reading counts or removing what was never added creates nothing
+		Assertions.assertEquals(0, connection.getPendingRequestCount());
+		connection.removePendingRequest("missing", new CompletableFuture<>());
+		Assertions.assertFalse(connection.completePendingRequest(TunnelMessage.newBuilder().setCorrelationId("missing").build()));
+		Assertions.assertNull(read(connection, "pendingRequests"));
+
+		Assertions.assertSame(connection.getStreams(), read(connection, "streams"));
+		Assertions.assertNull(read(connection, "inflightRequests"));
+		Assertions.assertSame(connection.getInflightRequests(), read(connection, "inflightRequests"));
+		Assertions.assertNull(read(connection, "pendingRequests"));
+		connection.addPendingRequest("request", new CompletableFuture<>());
+		Assertions.assertNotNull(read(connection, "pendingRequests"));
+		Assertions.assertEquals(1, connection.getPendingRequestCount());
+	}
+
+	@Test
+	public void testMetadataIsCompactAndSharesKeys() {
+		ConnectionManager manager = new ConnectionManager();
+		StreamObserver<TunnelMessage> observer = new NoopObserver();
+		for (int i = 0; i < CONNECTIONS; i++) {
+			register(manager, observer, i);
+		}
+		Assertions.assertEquals(CONNECTIONS, manager.getActiveConnectionCount());
+
+		Map<String, Object> first = manager.getClient("client-0").getMetadata();
+		for (int i = 0; i < CONNECTIONS; i++) {
+			Map<String, Object> metadata = manager.getClient("client-" + i).getMetadata();
+			Assertions.assertTrue(metadata instanceof CompactMetadata);
+			Assertions.assertEquals(metadata(i), metadata);
+			// every connection refers to one copy of each key
+			Iterator<String> keys = metadata.keySet().iterator();
+			for (String key : first.keySet()) {
+				Assertions.assertSame(key, keys.next());
+			}
+		}
+	}
+
+	private static ClientConnection register(ConnectionManager manager, StreamObserver<TunnelMessage> observer, int i) {
+		Map<String, Object> metadata = metadata(i);
+		ClientConnection connection = new ClientConnection("client-" + i, observer);
+		connection.setMetadata(metadata);
+		// copied into the compact form, the registration map is not kept
+		Assertions.assertNotSame(metadata, connection.getMetadata());
+		manager.addClient(connection);
+		return connection;
+	}
+
+	private static Map<String, Object> metadata(int i) {
+		// a map of its own per connection, with key strings that are equal but not the same
+		Map<String, Object> metadata = new HashMap<>();
+		metadata.put(new String("region"), "region-" + (i % 8));
+		metadata.put(new String("version"), "1.0." + i);
+		return metadata;
+	}
+
+	/**
+	 * every object the root refers to directly or indirectly, classes are not followed
+	 */
+	private static Set<Object> reachable(Object root) {
+		Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<Object> pending = new ArrayDeque<>();
+		pending.push(root);
+		while (!pending.isEmpty()) {
+			Object object = pending.pop();
+			if (!seen.add(object) || object instanceof Class) {
+				continue;
+			}
+			Class<?> type = object.getClass();
+			if (type.isArray()) {
+				if (!type.getComponentType().isPrimitive()) {
+					for (Object element : (Object[]) object) {
+						if (element != null) {
+							pending.push(element);
+						}
+					}
+				}
+				continue;
+			}
+			for (Field field : instanceFields(type)) {
+				if (!field.getType().isPrimitive()) {
+					Long offset = offsetOf(field);
+					Object value = offset != null ? UNSAFE.getObject(object, offset) : null;
+					if (value != null) {
+						pending.push(value);
+					}
+				}
+			}
+		}
+		return seen;
+	}
+
+	/**
+	 * the size of the object itself from the field offsets the JVM assigned, rounded up to the object alignment
+	 */
+	private static long shallowSize(Object object) {
+		Class<?> type = object.getClass();
+		long end;
+		if (type.isArray()) {
+			end = UNSAFE.arrayBaseOffset(type) + (long) UNSAFE.arrayIndexScale(type) * Array.getLength(object);
+		} else {
+			end = HEADER_BYTES;
+			for (Field field : instanceFields(type)) {
+				Long offset = offsetOf(field);
+				if (offset != null) {
+					end = Math.max(end, offset + sizeOf(field.getType()));
+				}
+			}
+		}
+		return (end + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private static List<Field> instanceFields(Class<?> type) {
+		List<Field> fields = new ArrayList<>();
+		for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+			for (Field field : current.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers())) {
+					fields.add(field);
+				}
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * null for fields of lambdas and other hidden classes, their layout is not exposed
+	 */
+	private static Long offsetOf(Field field) {
+		try {
+			return UNSAFE.objectFieldOffset(field);
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	private static int sizeOf(Class<?> type) {
+		if (type == long.class || type == double.class) {
+			return 8;
+		}
+		if (type == int.class || type == float.class) {
+			return 4;
+		}
+		if (type == short.class || type == char.class) {
+			return 2;
+		}
+		if (type == byte.class || type == boolean.class) {
+			return 1;
+		}
+		return Unsafe.ARRAY_OBJECT_INDEX_SCALE;
+	}
+
+	private static Object read(ClientConnection connection, String name) {
+		try {
+			Field field = field(ClientConnection.class, name);
+			field.setAccessible(true);
+			return field.get(connection);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Field field(Class<?> type, String name) {
+		try {
+			return type.getDeclaredField(name);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Unsafe unsafe() {
+		try {
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			return (Unsafe) field.get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class Probe {
+		int value;
+	}
+
+	private static class NoopObserver implements StreamObserver<TunnelMessage> {
+		@Override
+		public void onNext(TunnelMessage value) {
+		}
+
+		@Override
+		public void onError(Throwable t) {
+		}
+
+		@Override
+		public void onCompleted() {
+		}
+	}
+}
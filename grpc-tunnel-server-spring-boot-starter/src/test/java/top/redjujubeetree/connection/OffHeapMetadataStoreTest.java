@@ -0,0 +1,127 @@
+package top.redjujubeetree.connection;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import top.redjujubetree.grpc.tunnel.server.connection.OffHeapMetadataStore;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class OffHeapMetadataStoreTest {
+
+	@Test
+	public void testRoundTripOfEveryValueType() {
+		try (OffHeapMetadataStore store = OffHeapMetadataStore.direct(OffHeapMetadataStore.DEFAULT_SLAB_BYTES)) {
+			Map<String, Object> metadata = sample();
+			int handle = store.put(metadata);
+			Assertions.assertNotEquals(OffHeapMetadataStore.NO_HANDLE, handle);
+			assertRoundTrip(metadata, store.view(handle));
+			Assertions.assertEquals(1, store.getRecordCount());
+		}
+	}
+
+	@Test
+	public void testRoundTripInMappedStore(@TempDir Path directory) {
+		try (OffHeapMetadataStore store = OffHeapMetadataStore.mapped(directory, 64 * 1024)) {
+			Map<String, Object> metadata = sample();
+			assertRoundTrip(metadata, store.view(store.put(metadata)));
+		}
+	}
+
+	@Test
+	public void testFreedRecordReadsEmpty() {
+		try (OffHeapMetadataStore store = OffHeapMetadataStore.direct(OffHeapMetadataStore.DEFAULT_SLAB_BYTES)) {
+			int handle = store.put(Collections.singletonMap("tenant", "acme"));
+			Map<String, Object> view = store.view(handle);
+			store.free(handle);
+			Assertions.assertTrue(view.isEmpty());
+			Assertions.assertNull(view.get("tenant"));
+			Assertions.assertEquals(0, store.getRecordCount());
+		}
+	}
+
+	@Test
+	public void testStaleViewDoesNotSeeReusedSlot() {
+		try (OffHeapMetadataStore store = OffHeapMetadataStore.direct(OffHeapMetadataStore.DEFAULT_SLAB_BYTES)) {
+			int handle = store.put(Collections.singletonMap("tenant", "acme"));
+			Map<String, Object> stale = store.view(handle);
+			store.free(handle);
+			// a record of the same size class takes the freed slot
+			int reused = store.put(Collections.singletonMap("tenant", "other"));
+			Assertions.assertEquals(handle, reused);
+			Assertions.assertTrue(stale.isEmpty());
+			Assertions.assertNull(stale.get("tenant"));
+			Assertions.assertEquals("other", store.view(reused).get("tenant"));
+		}
+	}
+
+	@Test
+	public void testUnstorableMapsGetNoHandle() {
+		try (OffHeapMetadataStore store = OffHeapMetadataStore.direct(OffHeapMetadataStore.DEFAULT_SLAB_BYTES)) {
+			char[] large = new char[10 * 1024];
+			Arrays.fill(large, 'x');
+			Assertions.assertEquals(OffHeapMetadataStore.NO_HANDLE, store.put(Collections.singletonMap("blob", new String(large))));
+			Assertions.assertEquals(OffHeapMetadataStore.NO_HANDLE, store.put(Collections.singletonMap("created", new Object())));
+			Assertions.assertEquals(OffHeapMetadataStore.NO_HANDLE, store.put(Collections.singletonMap("ports", Arrays.asList(80, 443))));
+			Map<Object, Object> nested = new HashMap<>();
+			nested.put(1, "one");
+			Assertions.assertEquals(OffHeapMetadataStore.NO_HANDLE, store.put(Collections.singletonMap("nested", nested)));
+			Assertions.assertEquals(OffHeapMetadataStore.NO_HANDLE, store.put(Collections.emptyMap()));
+			Assertions.assertEquals(OffHeapMetadataStore.NO_HANDLE, store.put(null));
+			Assertions.assertNull(store.view(OffHeapMetadataStore.NO_HANDLE));
+			Assertions.assertEquals(0, store.getRecordCount());
+		}
+	}
+
+	@Test
+	public void testClosedStore() {
+		OffHeapMetadataStore store = OffHeapMetadataStore.direct(OffHeapMetadataStore.DEFAULT_SLAB_BYTES);
+		int handle = store.put(Collections.singletonMap("tenant", "acme"));
+		Map<String, Object> view = store.view(handle);
+		store.close();
+
+		Assertions.assertTrue(view.isEmpty());
+		Assertions.assertNull(view.get("tenant"));
+		Assertions.assertTrue(store.view(handle).isEmpty());
+		Assertions.assertEquals(OffHeapMetadataStore.NO_HANDLE, store.put(Collections.singletonMap("tenant", "acme")));
+		// freeing after close is ignored
+		store.free(handle);
+		Assertions.assertEquals(0, store.getRecordCount());
+		Assertions.assertEquals(0, store.getReservedBytes());
+	}
+
+	private static Map<String, Object> sample() {
+		Map<String, Object> nested = new LinkedHashMap<>();
+		nested.put("zone", "b");
+		nested.put("rack", 7);
+		nested.put("tags", Arrays.asList("ssd", "gpu"));
+		Map<String, Object> metadata = new LinkedHashMap<>();
+		metadata.put("region", "cn-east");
+		metadata.put("名称", "客户端");
+		metadata.put("weight", 4);
+		metadata.put("quota", 1L << 40);
+		metadata.put("ratio", 0.75);
+		metadata.put("trusted", true);
+		metadata.put("groups", Arrays.asList("orders", "reports"));
+		metadata.put("empty", Collections.emptyList());
+		metadata.put("location", nested);
+		metadata.put("missing", null);
+		return metadata;
+	}
+
+	private static void assertRoundTrip(Map<String, Object> expected, Map<String, Object> view) {
+		Assertions.assertEquals(expected.size(), view.size());
+		for (Map.Entry<String, Object> entry : expected.entrySet()) {
+			// single values are found in place, iteration decodes the whole record
+			Assertions.assertEquals(entry.getValue(), view.get(entry.getKey()), entry.getKey());
+		}
+		Assertions.assertEquals(expected, new LinkedHashMap<>(view));
+		Assertions.assertEquals(Long.class, view.get("quota").getClass());
+		Assertions.assertEquals(Double.class, view.get("ratio").getClass());
+	}
+}
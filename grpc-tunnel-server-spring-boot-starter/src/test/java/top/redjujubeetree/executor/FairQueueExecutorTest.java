@@ -0,0 +1,123 @@
+package top.redjujubeetree.executor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import top.redjujubetree.grpc.tunnel.server.executor.FairQueueExecutor;
+import top.redjujubetree.grpc.tunnel.server.executor.HandlerExecutorGroup;
+import top.redjujubetree.grpc.tunnel.server.executor.HandlerRejectionPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FairQueueExecutorTest {
+
+	@Test
+	public void testFlowsShareByWeight() throws InterruptedException {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		FairQueueExecutor fairQueue = new FairQueueExecutor(1, 100, 1);
+		List<String> ran = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(18);
+		try {
+			// hold the only slot while both flows queue up
+			fairQueue.execute("blocker", 1, pool, () -> await(release));
+			for (int i = 0; i < 9; i++) {
+				fairQueue.execute("light", 1, pool, record(ran, "light", done));
+				fairQueue.execute("heavy", 2, pool, record(ran, "heavy", done));
+			}
+			release.countDown();
+			Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+		} finally {
+			pool.shutdownNow();
+		}
+		// while both have a backlog the heavy flow starts two tasks for every one of the light flow
+		Assertions.assertEquals(6, Collections.frequency(ran.subList(0, 9), "heavy"));
+		Assertions.assertEquals(3, Collections.frequency(ran.subList(0, 9), "light"));
+	}
+
+	@Test
+	public void testTooManyQueuedTasksRejected() {
+		List<Runnable> started = new ArrayList<>();
+		FairQueueExecutor fairQueue = new FairQueueExecutor(1, 2, 1);
+		Executor target = started::add;
+		fairQueue.execute("client", 1, target, () -> { });
+		fairQueue.execute("client", 1, target, () -> { });
+		fairQueue.execute("client", 1, target, () -> { });
+		Assertions.assertThrows(RejectedExecutionException.class, () -> fairQueue.execute("client", 1, target, () -> { }));
+		Assertions.assertEquals(1, started.size());
+		Assertions.assertEquals(2, fairQueue.getQueuedCount());
+		Assertions.assertEquals(1, fairQueue.getRejectedCount());
+	}
+
+	@Test
+	public void testRefusedTaskIsReportedAndFreesItsSlot() {
+		FairQueueExecutor fairQueue = new FairQueueExecutor(1, 10, 1);
+		Executor refusing = task -> {
+			throw new RejectedExecutionException("saturated");
+		};
+		AtomicReference<RejectedExecutionException> refused = new AtomicReference<>();
+		fairQueue.execute("client", 1, refusing, () -> Assertions.fail("refused task must not run"), refused::set);
+		Assertions.assertNotNull(refused.get());
+		Assertions.assertEquals(0, fairQueue.getStatistics().get("inFlight"));
+
+		// nothing is left holding the slot, the next task still gets it
+		List<Runnable> started = new ArrayList<>();
+		fairQueue.execute("client", 1, started::add, () -> { });
+		Assertions.assertEquals(1, started.size());
+	}
+
+	@Test
+	public void testRefusedTaskWithoutListenerRunsOnCaller() {
+		FairQueueExecutor fairQueue = new FairQueueExecutor(1, 10, 1);
+		AtomicReference<Thread> ranOn = new AtomicReference<>();
+		fairQueue.execute("client", 1, task -> {
+			throw new RejectedExecutionException("saturated");
+		}, () -> ranOn.set(Thread.currentThread()));
+		Assertions.assertSame(Thread.currentThread(), ranOn.get());
+		Assertions.assertEquals(1, fairQueue.getRejectedCount());
+	}
+
+	@Test
+	public void testTasksWaitingBehindTheirKeyHoldNoSlot() throws InterruptedException {
+		HandlerExecutorGroup group = new HandlerExecutorGroup("test", 2, 10, HandlerRejectionPolicy.REJECT, false, 1000);
+		FairQueueExecutor fairQueue = new FairQueueExecutor(2, 100, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch other = new CountDownLatch(1);
+		try {
+			Executor ordered = group.forKey("client", fairQueue.forFlow("client", 1, group));
+			ordered.execute(() -> await(release));
+			for (int i = 0; i < 5; i++) {
+				ordered.execute(() -> { });
+			}
+			// the second slot is still free for another client
+			fairQueue.execute("other", 1, group, other::countDown);
+			Assertions.assertTrue(other.await(10, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			group.shutdown(1000);
+		}
+	}
+
+	private static Runnable record(List<String> ran, String flow, CountDownLatch done) {
+		return () -> {
+			ran.add(flow);
+			done.countDown();
+		};
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
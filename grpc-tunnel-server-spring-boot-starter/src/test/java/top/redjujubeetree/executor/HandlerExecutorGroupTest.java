@@ -0,0 +1,111 @@
+package top.redjujubeetree.executor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import top.redjujubetree.grpc.tunnel.server.executor.HandlerExecutorGroup;
+import top.redjujubetree.grpc.tunnel.server.executor.HandlerRejectionPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class HandlerExecutorGroupTest {
+
+	@Test
+	public void testRejectWhenSaturated() throws InterruptedException {
+		HandlerExecutorGroup group = new HandlerExecutorGroup("test", 1, 0, HandlerRejectionPolicy.REJECT, false, 1000);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			group.execute(() -> await(release));
+			Assertions.assertThrows(RejectedExecutionException.class, () -> group.execute(() -> { }));
+			Assertions.assertEquals(1, group.getRejectedCount());
+		} finally {
+			release.countDown();
+			group.shutdown(1000);
+		}
+	}
+
+	@Test
+	public void testCallerRunsWhenSaturated() {
+		HandlerExecutorGroup group = new HandlerExecutorGroup("test", 1, 0, HandlerRejectionPolicy.CALLER_RUNS, false, 1000);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicReference<Thread> ranOn = new AtomicReference<>();
+		try {
+			group.execute(() -> await(release));
+			group.execute(() -> ranOn.set(Thread.currentThread()));
+			Assertions.assertSame(Thread.currentThread(), ranOn.get());
+			Assertions.assertEquals(0, group.getRejectedCount());
+		} finally {
+			release.countDown();
+			group.shutdown(1000);
+		}
+	}
+
+	@Test
+	public void testTasksOfKeyRunInOrder() throws InterruptedException {
+		HandlerExecutorGroup group = new HandlerExecutorGroup("test", 4, 64, HandlerRejectionPolicy.REJECT, false, 1000);
+		int keys = 8;
+		int perKey = 50;
+		List<List<Integer>> ran = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(keys * perKey);
+		try {
+			List<Executor> executors = new ArrayList<>();
+			for (int k = 0; k < keys; k++) {
+				ran.add(new ArrayList<>());
+				executors.add(group.forKey("client-" + k));
+			}
+			for (int i = 0; i < perKey; i++) {
+				for (int k = 0; k < keys; k++) {
+					List<Integer> keyRan = ran.get(k);
+					int index = i;
+					executors.get(k).execute(() -> {
+						keyRan.add(index);
+						done.countDown();
+					});
+				}
+			}
+			Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+		} finally {
+			group.shutdown(1000);
+		}
+		for (List<Integer> keyRan : ran) {
+			for (int i = 0; i < perKey; i++) {
+				Assertions.assertEquals(i, (int) keyRan.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testKeyCanNotQueueMoreThanGroup() {
+		// one thread and one queued handler, a key may have two tasks waiting
+		HandlerExecutorGroup group = new HandlerExecutorGroup("test", 1, 1, HandlerRejectionPolicy.REJECT, false, 1000);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			Executor client = group.forKey("client");
+			client.execute(() -> {
+				started.countDown();
+				await(release);
+			});
+			await(started);
+			client.execute(() -> { });
+			client.execute(() -> { });
+			Assertions.assertThrows(RejectedExecutionException.class, () -> client.execute(() -> { }));
+		} finally {
+			release.countDown();
+			group.shutdown(1000);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
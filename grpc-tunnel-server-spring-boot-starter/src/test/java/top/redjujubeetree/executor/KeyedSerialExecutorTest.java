@@ -0,0 +1,123 @@
+package top.redjujubeetree.executor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import top.redjujubetree.grpc.tunnel.server.executor.KeyedSerialExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyedSerialExecutorTest {
+
+	@Test
+	public void testTasksOfKeyRunInOrder() throws InterruptedException {
+		ExecutorService pool = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+		try {
+			assertOrdered(new KeyedSerialExecutor(pool), 8, 200);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCallerRunsHandBackKeepsOrder() throws InterruptedException {
+		// no queue and two threads, most runs are handed back to the thread passing them on
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			assertOrdered(new KeyedSerialExecutor(pool), 8, 500);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTooManyPendingTasksRejected() {
+		List<Runnable> started = new ArrayList<>();
+		KeyedSerialExecutor executor = new KeyedSerialExecutor(started::add, 2);
+		executor.execute("client", () -> { });
+		executor.execute("client", () -> { });
+		Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute("client", () -> { }));
+		// other keys have their own limit
+		executor.execute("other", () -> { });
+		Assertions.assertEquals(2, started.size());
+	}
+
+	@Test
+	public void testRejectedRunDoesNotStrandQueuedTasks() throws InterruptedException {
+		CountDownLatch starting = new CountDownLatch(1);
+		CountDownLatch queued = new CountDownLatch(1);
+		Executor refusing = task -> {
+			starting.countDown();
+			try {
+				queued.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throw new RejectedExecutionException("full");
+		};
+		KeyedSerialExecutor executor = new KeyedSerialExecutor(refusing);
+		List<String> ran = Collections.synchronizedList(new ArrayList<>());
+
+		Thread first = new Thread(() -> {
+			try {
+				executor.execute("client", () -> ran.add("A"));
+			} catch (RejectedExecutionException e) {
+				ran.add("A rejected");
+			}
+		});
+		first.start();
+		starting.await();
+		// the run is being started, this task only queues behind it
+		executor.execute("client", () -> ran.add("B"));
+		queued.countDown();
+		first.join();
+
+		Assertions.assertEquals(Arrays.asList("B", "A rejected"), ran);
+		Assertions.assertEquals(0, executor.getActiveKeys());
+	}
+
+	private static void assertOrdered(KeyedSerialExecutor executor, int keys, int perKey) throws InterruptedException {
+		List<List<Integer>> ran = new ArrayList<>();
+		List<AtomicInteger> running = new ArrayList<>();
+		for (int k = 0; k < keys; k++) {
+			ran.add(new ArrayList<>());
+			running.add(new AtomicInteger());
+		}
+		AtomicBoolean overlapped = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(keys * perKey);
+		for (int i = 0; i < perKey; i++) {
+			for (int k = 0; k < keys; k++) {
+				int key = k;
+				int index = i;
+				executor.execute(key, () -> {
+					if (running.get(key).incrementAndGet() != 1) {
+						overlapped.set(true);
+					}
+					ran.get(key).add(index);
+					running.get(key).decrementAndGet();
+					done.countDown();
+				});
+			}
+		}
+		Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+		Assertions.assertFalse(overlapped.get());
+		for (List<Integer> keyRan : ran) {
+			for (int i = 0; i < perKey; i++) {
+				Assertions.assertEquals(i, (int) keyRan.get(i));
+			}
+		}
+	}
+}
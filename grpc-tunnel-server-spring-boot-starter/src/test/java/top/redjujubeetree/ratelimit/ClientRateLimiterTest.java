@@ -0,0 +1,44 @@
+package top.redjujubeetree.ratelimit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import top.redjujubetree.grpc.tunnel.constant.ClientRequestTypes;
+import top.redjujubetree.grpc.tunnel.constant.TunnelControlTypes;
+import top.redjujubetree.grpc.tunnel.proto.MessageType;
+import top.redjujubetree.grpc.tunnel.proto.RequestPayload;
+import top.redjujubetree.grpc.tunnel.proto.TunnelMessage;
+import top.redjujubetree.grpc.tunnel.server.config.GrpcTunnelServerProperties;
+import top.redjujubetree.grpc.tunnel.server.ratelimit.ClientRateLimiter;
+import top.redjujubetree.grpc.tunnel.server.ratelimit.InboundRateLimits;
+
+public class ClientRateLimiterTest {
+
+	@Test
+	public void testOnlyTunnelControlTypesBypassLimits() {
+		GrpcTunnelServerProperties.RateLimit config = new GrpcTunnelServerProperties.RateLimit();
+		config.setMessagesPerSecond(1);
+		ClientRateLimiter limiter = new InboundRateLimits(config).create("client", null);
+		long now = System.nanoTime();
+
+		Assertions.assertEquals(0, limiter.acquire(request("order"), now));
+		Assertions.assertTrue(limiter.acquire(request("order"), now) > 0);
+
+		Assertions.assertEquals(0, limiter.acquire(request(ClientRequestTypes.HEARTBEAT), now));
+		Assertions.assertEquals(0, limiter.acquire(request(TunnelControlTypes.CANCEL), now));
+		Assertions.assertEquals(0, limiter.acquire(request(TunnelControlTypes.STREAM_CREDIT), now));
+		Assertions.assertEquals(0, limiter.acquire(request(TunnelControlTypes.STREAM_CANCEL), now));
+
+		Assertions.assertTrue(limiter.acquire(request(TunnelControlTypes.SUBSCRIBE), now) > 0);
+		Assertions.assertTrue(limiter.acquire(request(TunnelControlTypes.UNSUBSCRIBE), now) > 0);
+		Assertions.assertTrue(limiter.acquire(request("_made_up"), now) > 0);
+		Assertions.assertEquals(4, limiter.getRejectedCount());
+	}
+
+	private static TunnelMessage request(String type) {
+		return TunnelMessage.newBuilder()
+				.setMessageId(type)
+				.setType(MessageType.CLIENT_REQUEST)
+				.setRequest(RequestPayload.newBuilder().setType(type))
+				.build();
+	}
+}
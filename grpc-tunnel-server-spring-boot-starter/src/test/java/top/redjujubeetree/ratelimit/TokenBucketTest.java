@@ -0,0 +1,45 @@
+package top.redjujubeetree.ratelimit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import top.redjujubetree.grpc.tunnel.server.ratelimit.TokenBucket;
+
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucketTest {
+
+	@Test
+	public void testBurstThenRefill() {
+		TokenBucket bucket = new TokenBucket(10, 10);
+		long now = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			Assertions.assertEquals(0, bucket.tryAcquire(1, now));
+		}
+		long wait = bucket.tryAcquire(1, now);
+		Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), wait);
+		Assertions.assertEquals(0, bucket.available(now));
+
+		long later = now + TimeUnit.MILLISECONDS.toNanos(100);
+		Assertions.assertEquals(0, bucket.tryAcquire(1, later));
+		Assertions.assertTrue(bucket.tryAcquire(1, later) > 0);
+	}
+
+	@Test
+	public void testIdleBucketDoesNotBankBeyondBurst() {
+		TokenBucket bucket = new TokenBucket(10, 5);
+		long later = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+		Assertions.assertEquals(5, bucket.available(later));
+		for (int i = 0; i < 5; i++) {
+			Assertions.assertEquals(0, bucket.tryAcquire(1, later));
+		}
+		Assertions.assertTrue(bucket.tryAcquire(1, later) > 0);
+	}
+
+	@Test
+	public void testOversizeRequestDrainsFullBucket() {
+		TokenBucket bytes = new TokenBucket(1000, 1000);
+		long now = System.nanoTime();
+		Assertions.assertEquals(0, bytes.tryAcquire(5000, now));
+		Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(1), bytes.tryAcquire(1, now));
+	}
+}